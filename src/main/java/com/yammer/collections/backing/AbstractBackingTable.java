@@ -0,0 +1,484 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Skeletal table implementation, deriving the row, column, cell and map views from a handful of primitive operations.
+ * Subclasses implement get, put, remove and size, and iterators over the cells, over the entries of a row or a column,
+ * and over the row and column keys. All iterators have to support remove(), removing the whole row or column in case of
+ * the key iterators.
+ * <p/>
+ * The query methods of the views are derived from the iterators. Subclasses override them where their structure
+ * offers a cheaper way, e.g. containsRow() or rowSize().
+ */
+abstract class AbstractBackingTable<R, C, V> implements Table<R, C, V> {
+    @Override
+    public abstract V get(Object rowKey, Object columnKey);
+
+    @Override
+    public abstract V put(R rowKey, C columnKey, V value);
+
+    @Override
+    public abstract V remove(Object rowKey, Object columnKey);
+
+    @Override
+    public abstract int size();
+
+    abstract Iterator<Cell<R, C, V>> cellIterator();
+
+    abstract Iterator<Map.Entry<C, V>> rowIterator(Object rowKey);
+
+    abstract Iterator<Map.Entry<R, V>> columnIterator(Object columnKey);
+
+    abstract Iterator<R> rowKeyIterator();
+
+    abstract Iterator<C> columnKeyIterator();
+
+    int rowSize(Object rowKey) {
+        return Iterators.size(rowIterator(rowKey));
+    }
+
+    int columnSize(Object columnKey) {
+        return Iterators.size(columnIterator(columnKey));
+    }
+
+    int rowKeyCount() {
+        return Iterators.size(rowKeyIterator());
+    }
+
+    int columnKeyCount() {
+        return Iterators.size(columnKeyIterator());
+    }
+
+    @Override
+    public boolean contains(Object rowKey, Object columnKey) {
+        return get(rowKey, columnKey) != null;
+    }
+
+    @Override
+    public boolean containsRow(Object rowKey) {
+        return rowIterator(rowKey).hasNext();
+    }
+
+    @Override
+    public boolean containsColumn(Object columnKey) {
+        return columnIterator(columnKey).hasNext();
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return value != null && values().contains(value);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        Iterators.removeIf(rowKeyIterator(), Predicates.alwaysTrue());
+    }
+
+    @Override
+    public void putAll(Table<? extends R, ? extends C, ? extends V> table) {
+        for (Cell<? extends R, ? extends C, ? extends V> cell : table.cellSet()) {
+            put(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+        }
+    }
+
+    @Override
+    public Map<C, V> row(final R rowKey) {
+        checkNotNull(rowKey);
+        return new AbstractMap<C, V>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Set<Entry<C, V>> entrySet() {
+                return new AbstractSet<Entry<C, V>>() {
+                    @SuppressWarnings("NullableProblems")
+                    @Override
+                    public Iterator<Entry<C, V>> iterator() {
+                        return Iterators.transform(rowIterator(rowKey), new Function<Entry<C, V>, Entry<C, V>>() {
+                            @Override
+                            public Entry<C, V> apply(Entry<C, V> input) {
+                                return new WriteThroughEntry<C, V>(input) {
+                                    @Override
+                                    V write(C key, V value) {
+                                        return AbstractBackingTable.this.put(rowKey, key, value);
+                                    }
+                                };
+                            }
+                        });
+                    }
+
+                    @Override
+                    public int size() {
+                        return rowSize(rowKey);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return rowSize(rowKey);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return contains(rowKey, key);
+            }
+
+            @Override
+            public V get(Object key) {
+                return AbstractBackingTable.this.get(rowKey, key);
+            }
+
+            @Override
+            public V put(C key, V value) {
+                return AbstractBackingTable.this.put(rowKey, key, value);
+            }
+
+            @Override
+            public V remove(Object key) {
+                return AbstractBackingTable.this.remove(rowKey, key);
+            }
+        };
+    }
+
+    @Override
+    public Map<R, V> column(final C columnKey) {
+        checkNotNull(columnKey);
+        return new AbstractMap<R, V>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Set<Entry<R, V>> entrySet() {
+                return new AbstractSet<Entry<R, V>>() {
+                    @SuppressWarnings("NullableProblems")
+                    @Override
+                    public Iterator<Entry<R, V>> iterator() {
+                        return Iterators.transform(columnIterator(columnKey), new Function<Entry<R, V>, Entry<R, V>>() {
+                            @Override
+                            public Entry<R, V> apply(Entry<R, V> input) {
+                                return new WriteThroughEntry<R, V>(input) {
+                                    @Override
+                                    V write(R key, V value) {
+                                        return AbstractBackingTable.this.put(key, columnKey, value);
+                                    }
+                                };
+                            }
+                        });
+                    }
+
+                    @Override
+                    public int size() {
+                        return columnSize(columnKey);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return columnSize(columnKey);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return contains(key, columnKey);
+            }
+
+            @Override
+            public V get(Object key) {
+                return AbstractBackingTable.this.get(key, columnKey);
+            }
+
+            @Override
+            public V put(R key, V value) {
+                return AbstractBackingTable.this.put(key, columnKey, value);
+            }
+
+            @Override
+            public V remove(Object key) {
+                return AbstractBackingTable.this.remove(key, columnKey);
+            }
+        };
+    }
+
+    @Override
+    public Set<Cell<R, C, V>> cellSet() {
+        return new AbstractSet<Cell<R, C, V>>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<Cell<R, C, V>> iterator() {
+                return cellIterator();
+            }
+
+            @Override
+            public int size() {
+                return AbstractBackingTable.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Cell)) {
+                    return false;
+                }
+                Cell<?, ?, ?> cell = (Cell<?, ?, ?>) o;
+                V value = get(cell.getRowKey(), cell.getColumnKey());
+                return value != null && value.equals(cell.getValue());
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if (!contains(o)) {
+                    return false;
+                }
+                Cell<?, ?, ?> cell = (Cell<?, ?, ?>) o;
+                AbstractBackingTable.this.remove(cell.getRowKey(), cell.getColumnKey());
+                return true;
+            }
+
+            @Override
+            public void clear() {
+                AbstractBackingTable.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<R> rowKeySet() {
+        return new KeySet<R>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<R> iterator() {
+                return rowKeyIterator();
+            }
+
+            @Override
+            public int size() {
+                return rowKeyCount();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsRow(o);
+            }
+        };
+    }
+
+    @Override
+    public Set<C> columnKeySet() {
+        return new KeySet<C>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<C> iterator() {
+                return columnKeyIterator();
+            }
+
+            @Override
+            public int size() {
+                return columnKeyCount();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsColumn(o);
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<V> iterator() {
+                return Iterators.transform(cellIterator(), new Function<Cell<R, C, V>, V>() {
+                    @Override
+                    public V apply(Cell<R, C, V> input) {
+                        return input.getValue();
+                    }
+                });
+            }
+
+            @Override
+            public int size() {
+                return AbstractBackingTable.this.size();
+            }
+
+            @Override
+            public void clear() {
+                AbstractBackingTable.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Map<R, Map<C, V>> rowMap() {
+        return new KeyedMap<R, Map<C, V>>(rowKeySet()) {
+            @SuppressWarnings("unchecked")
+            @Override
+            Map<C, V> valueOf(Object key) {
+                return row((R) key);
+            }
+        };
+    }
+
+    @Override
+    public Map<C, Map<R, V>> columnMap() {
+        return new KeyedMap<C, Map<R, V>>(columnKeySet()) {
+            @SuppressWarnings("unchecked")
+            @Override
+            Map<R, V> valueOf(Object key) {
+                return column((C) key);
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (obj instanceof Table) {
+            Table<?, ?, ?> that = (Table<?, ?, ?>) obj;
+            return cellSet().equals(that.cellSet());
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return cellSet().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return rowMap().toString();
+    }
+
+    private abstract static class KeySet<K> extends AbstractSet<K> {
+        @Override
+        public boolean remove(Object o) {
+            Iterator<K> iterator = iterator();
+            while (iterator.hasNext()) {
+                if (Objects.equal(iterator.next(), o)) {
+                    iterator.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A map view over the row or column keys, whose values are the row or column views.
+     */
+    private abstract static class KeyedMap<K, M extends Map<?, ?>> extends AbstractMap<K, M> {
+        private final Set<K> keySet;
+
+        private KeyedMap(Set<K> keySet) {
+            this.keySet = keySet;
+        }
+
+        abstract M valueOf(Object key);
+
+        @Override
+        public boolean containsKey(Object key) {
+            return keySet.contains(key);
+        }
+
+        @Override
+        public M get(Object key) {
+            return keySet.contains(key) ? valueOf(key) : null;
+        }
+
+        @Override
+        public M remove(Object key) {
+            if (!keySet.contains(key)) {
+                return null;
+            }
+            M removed = copyOf(valueOf(key));
+            keySet.remove(key);
+            return removed;
+        }
+
+        @SuppressWarnings("unchecked")
+        private M copyOf(M map) {
+            return (M) Maps.newLinkedHashMap(map);
+        }
+
+        @SuppressWarnings("NullableProblems")
+        @Override
+        public Set<K> keySet() {
+            return keySet;
+        }
+
+        @SuppressWarnings("NullableProblems")
+        @Override
+        public Set<Entry<K, M>> entrySet() {
+            return new AbstractSet<Entry<K, M>>() {
+                @SuppressWarnings("NullableProblems")
+                @Override
+                public Iterator<Entry<K, M>> iterator() {
+                    return Iterators.transform(keySet.iterator(), new Function<K, Entry<K, M>>() {
+                        @Override
+                        public Entry<K, M> apply(K input) {
+                            return Maps.immutableEntry(input, valueOf(input));
+                        }
+                    });
+                }
+
+                @Override
+                public int size() {
+                    return keySet.size();
+                }
+            };
+        }
+    }
+
+    private abstract static class WriteThroughEntry<K, V> extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 0L;
+
+        private WriteThroughEntry(Map.Entry<K, V> entry) {
+            super(entry);
+        }
+
+        abstract V write(K key, V value);
+
+        @Override
+        public V setValue(V value) {
+            write(getKey(), checkNotNull(value));
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A hash table which indexes its cells both by row and by column, so that column(), containsColumn() and columnMap()
+ * cost as much as their row counterparts, in proportion to the cells of the column rather than to the number of rows.
+ * Every write updates both indexes, which makes writes and memory roughly twice as expensive as with a HashBasedTable.
+ * <p/>
+ * Iteration follows the row index. The table is not thread safe, see ReadWriteLockedTable.
+ */
+public class ColumnIndexedTable<R, C, V> extends AbstractBackingTable<R, C, V> {
+    private static final int EXPECTED_CELLS_PER_KEY = 3;
+
+    private final Map<R, Map<C, V>> rows = Maps.newHashMap();
+    private final Map<C, Map<R, V>> columns = Maps.newHashMap();
+    private int size;
+
+    private ColumnIndexedTable() {
+    }
+
+    public static <R, C, V> ColumnIndexedTable<R, C, V> create() {
+        return new ColumnIndexedTable<R, C, V>();
+    }
+
+    public static <R, C, V> ColumnIndexedTable<R, C, V> create(Table<? extends R, ? extends C, ? extends V> table) {
+        ColumnIndexedTable<R, C, V> copy = create();
+        copy.putAll(table);
+        return copy;
+    }
+
+    @Override
+    public V get(Object rowKey, Object columnKey) {
+        Map<C, V> row = rows.get(rowKey);
+        return row == null ? null : row.get(columnKey);
+    }
+
+    @Override
+    public boolean containsRow(Object rowKey) {
+        return rows.containsKey(rowKey);
+    }
+
+    @Override
+    public boolean containsColumn(Object columnKey) {
+        return columns.containsKey(columnKey);
+    }
+
+    @Override
+    public V put(R rowKey, C columnKey, V value) {
+        checkNotNull(rowKey);
+        checkNotNull(columnKey);
+        checkNotNull(value);
+        putInto(columns, columnKey, rowKey, value);
+        V previous = putInto(rows, rowKey, columnKey, value);
+        if (previous == null) {
+            size++;
+        }
+        return previous;
+    }
+
+    @Override
+    public V remove(Object rowKey, Object columnKey) {
+        V previous = removeFrom(rows, rowKey, columnKey);
+        if (previous != null) {
+            removeFrom(columns, columnKey, rowKey);
+            size--;
+        }
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        rows.clear();
+        columns.clear();
+        size = 0;
+    }
+
+    @Override
+    int rowSize(Object rowKey) {
+        Map<C, V> row = rows.get(rowKey);
+        return row == null ? 0 : row.size();
+    }
+
+    @Override
+    int columnSize(Object columnKey) {
+        Map<R, V> column = columns.get(columnKey);
+        return column == null ? 0 : column.size();
+    }
+
+    @Override
+    int rowKeyCount() {
+        return rows.size();
+    }
+
+    @Override
+    int columnKeyCount() {
+        return columns.size();
+    }
+
+    @Override
+    Iterator<Cell<R, C, V>> cellIterator() {
+        return new Iterator<Cell<R, C, V>>() {
+            private final Iterator<Map.Entry<R, Map<C, V>>> rowIterator = rows.entrySet().iterator();
+            private Map.Entry<R, Map<C, V>> row;
+            private Iterator<Map.Entry<C, V>> cellIterator = Iterators.emptyIterator();
+            private Cell<R, C, V> last;
+
+            @Override
+            public boolean hasNext() {
+                return cellIterator.hasNext() || rowIterator.hasNext();
+            }
+
+            @Override
+            public Cell<R, C, V> next() {
+                if (!cellIterator.hasNext()) {
+                    // rows are never empty, so the next row has a cell
+                    row = rowIterator.next();
+                    cellIterator = row.getValue().entrySet().iterator();
+                }
+                Map.Entry<C, V> cell = cellIterator.next();
+                last = Tables.immutableCell(row.getKey(), cell.getKey(), cell.getValue());
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                checkState(last != null, "next() has not been called, or remove() has already been called");
+                cellIterator.remove();
+                if (row.getValue().isEmpty()) {
+                    rowIterator.remove();
+                }
+                removeFrom(columns, last.getColumnKey(), last.getRowKey());
+                size--;
+                last = null;
+            }
+        };
+    }
+
+    @Override
+    Iterator<Map.Entry<C, V>> rowIterator(Object rowKey) {
+        return entryIterator(rows, columns, rowKey);
+    }
+
+    @Override
+    Iterator<Map.Entry<R, V>> columnIterator(Object columnKey) {
+        return entryIterator(columns, rows, columnKey);
+    }
+
+    @Override
+    Iterator<R> rowKeyIterator() {
+        return keyIterator(rows, columns);
+    }
+
+    @Override
+    Iterator<C> columnKeyIterator() {
+        return keyIterator(columns, rows);
+    }
+
+    /**
+     * Iterates over the entries of a row or a column, removing them from both indexes.
+     */
+    private <K1, K2> Iterator<Map.Entry<K2, V>> entryIterator(
+            final Map<K1, Map<K2, V>> index,
+            final Map<K2, Map<K1, V>> otherIndex,
+            final Object key) {
+        final Map<K2, V> entries = index.get(key);
+        if (entries == null) {
+            return Iterators.emptyIterator();
+        }
+        final Iterator<Map.Entry<K2, V>> iterator = entries.entrySet().iterator();
+        return new Iterator<Map.Entry<K2, V>>() {
+            private Map.Entry<K2, V> last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Map.Entry<K2, V> next() {
+                Map.Entry<K2, V> entry = iterator.next();
+                last = Maps.immutableEntry(entry.getKey(), entry.getValue());
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                checkState(last != null, "next() has not been called, or remove() has already been called");
+                iterator.remove();
+                if (entries.isEmpty()) {
+                    index.remove(key);
+                }
+                removeFrom(otherIndex, last.getKey(), key);
+                size--;
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * Iterates over the row or column keys, removing whole rows or columns from both indexes.
+     */
+    private <K1, K2> Iterator<K1> keyIterator(final Map<K1, Map<K2, V>> index, final Map<K2, Map<K1, V>> otherIndex) {
+        final Iterator<Map.Entry<K1, Map<K2, V>>> iterator = index.entrySet().iterator();
+        return new Iterator<K1>() {
+            private Map.Entry<K1, Map<K2, V>> last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public K1 next() {
+                last = iterator.next();
+                return last.getKey();
+            }
+
+            @Override
+            public void remove() {
+                checkState(last != null, "next() has not been called, or remove() has already been called");
+                iterator.remove();
+                for (K2 otherKey : last.getValue().keySet()) {
+                    removeFrom(otherIndex, otherKey, last.getKey());
+                }
+                size -= last.getValue().size();
+                last = null;
+            }
+        };
+    }
+
+    private static <K1, K2, V> V putInto(Map<K1, Map<K2, V>> index, K1 key, K2 otherKey, V value) {
+        Map<K2, V> entries = index.get(key);
+        if (entries == null) {
+            entries = Maps.newHashMapWithExpectedSize(EXPECTED_CELLS_PER_KEY);
+            index.put(key, entries);
+        }
+        return entries.put(otherKey, value);
+    }
+
+    private static <K1, K2, V> V removeFrom(Map<K1, Map<K2, V>> index, Object key, Object otherKey) {
+        Map<K2, V> entries = index.get(key);
+        if (entries == null) {
+            return null;
+        }
+        V removed = entries.remove(otherKey);
+        if (entries.isEmpty()) {
+            index.remove(key);
+        }
+        return removed;
+    }
+}
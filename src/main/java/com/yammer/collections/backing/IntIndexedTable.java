@@ -0,0 +1,418 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A table keyed by int ids in [0, Integer.MAX_VALUE), e.g. those assigned by a KeyDictionary, meant as the backing
+ * table of a dictionary encoded TransformingTable.
+ * <p/>
+ * Rows are held in an array indexed by row id. Each row keeps its column ids in a sorted int array, next to an array of
+ * its values, as in the compressed sparse row format. A cell costs an int and a value reference, a lookup is an array
+ * access followed by a binary search over the contiguous column ids of the row. Puts and removes shift the tail of the
+ * row, so rows should stay moderately sized.
+ * <p/>
+ * Column access scans all rows. The table is not thread safe, see ReadWriteLockedTable.
+ */
+public class IntIndexedTable<V> extends AbstractBackingTable<Integer, Integer, V> {
+    private static final int INITIAL_ROW_CAPACITY = 4;
+
+    private Row[] rows;
+    private int rowCount;
+    private int size;
+
+    private IntIndexedTable(int expectedRows) {
+        rows = new Row[expectedRows];
+    }
+
+    public static <V> IntIndexedTable<V> create() {
+        return create(16);
+    }
+
+    /**
+     * Creates a table with room for row ids below expectedRows, without growing the row array.
+     */
+    public static <V> IntIndexedTable<V> create(int expectedRows) {
+        checkArgument(expectedRows >= 0, "expectedRows cannot be negative, was %s", expectedRows);
+        return new IntIndexedTable<V>(expectedRows);
+    }
+
+    public static <V> IntIndexedTable<V> create(Table<Integer, Integer, ? extends V> table) {
+        IntIndexedTable<V> copy = create();
+        copy.putAll(table);
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object rowKey, Object columnKey) {
+        Row row = rowOf(rowKey);
+        if (row == null || !(columnKey instanceof Integer)) {
+            return null;
+        }
+        int index = row.indexOf((Integer) columnKey);
+        return index < 0 ? null : (V) row.values[index];
+    }
+
+    @Override
+    public boolean contains(Object rowKey, Object columnKey) {
+        Row row = rowOf(rowKey);
+        return row != null && columnKey instanceof Integer && row.indexOf((Integer) columnKey) >= 0;
+    }
+
+    @Override
+    public boolean containsRow(Object rowKey) {
+        return rowOf(rowKey) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V put(Integer rowKey, Integer columnKey, V value) {
+        checkArgument(checkNotNull(rowKey) >= 0, "row ids cannot be negative, was %s", rowKey);
+        checkArgument(checkNotNull(columnKey) >= 0, "column ids cannot be negative, was %s", columnKey);
+        // ids index arrays, and iteration steps past the last one
+        checkArgument(rowKey < Integer.MAX_VALUE, "row ids have to be below Integer.MAX_VALUE, was %s", rowKey);
+        checkArgument(columnKey < Integer.MAX_VALUE,
+                "column ids have to be below Integer.MAX_VALUE, was %s", columnKey);
+        checkNotNull(value);
+
+        if (rowKey >= rows.length) {
+            rows = Arrays.copyOf(rows, (int) Math.min(Math.max(rowKey + 1L, rows.length * 2L), Integer.MAX_VALUE));
+        }
+        Row row = rows[rowKey];
+        if (row == null) {
+            row = new Row();
+            rows[rowKey] = row;
+            rowCount++;
+        }
+        int index = row.indexOf(columnKey);
+        if (index >= 0) {
+            V previous = (V) row.values[index];
+            row.values[index] = value;
+            return previous;
+        }
+        row.insert(-index - 1, columnKey, value);
+        size++;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(Object rowKey, Object columnKey) {
+        Row row = rowOf(rowKey);
+        if (row == null || !(columnKey instanceof Integer)) {
+            return null;
+        }
+        int index = row.indexOf((Integer) columnKey);
+        if (index < 0) {
+            return null;
+        }
+        V previous = (V) row.values[index];
+        removeAt((Integer) rowKey, row, index);
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(rows, null);
+        rowCount = 0;
+        size = 0;
+    }
+
+    @Override
+    int rowSize(Object rowKey) {
+        Row row = rowOf(rowKey);
+        return row == null ? 0 : row.size;
+    }
+
+    @Override
+    int rowKeyCount() {
+        return rowCount;
+    }
+
+    @Override
+    Iterator<Cell<Integer, Integer, V>> cellIterator() {
+        return new CellIterator<Cell<Integer, Integer, V>>(0, rows.length) {
+            @SuppressWarnings("unchecked")
+            @Override
+            Cell<Integer, Integer, V> element(int rowId, Row row, int index) {
+                return Tables.immutableCell(rowId, row.columns[index], (V) row.values[index]);
+            }
+        };
+    }
+
+    @Override
+    Iterator<Map.Entry<Integer, V>> rowIterator(Object rowKey) {
+        if (rowOf(rowKey) == null) {
+            return Iterators.emptyIterator();
+        }
+        int rowId = (Integer) rowKey;
+        return new CellIterator<Map.Entry<Integer, V>>(rowId, rowId + 1) {
+            @SuppressWarnings("unchecked")
+            @Override
+            Map.Entry<Integer, V> element(int rowId, Row row, int index) {
+                return Maps.immutableEntry(row.columns[index], (V) row.values[index]);
+            }
+        };
+    }
+
+    @Override
+    Iterator<Map.Entry<Integer, V>> columnIterator(Object columnKey) {
+        if (!(columnKey instanceof Integer)) {
+            return Iterators.emptyIterator();
+        }
+        final int columnId = (Integer) columnKey;
+        return new Iterator<Map.Entry<Integer, V>>() {
+            private int nextRowId = findNext(0);
+            private int lastRowId = -1;
+
+            @Override
+            public boolean hasNext() {
+                return nextRowId < rows.length;
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public Map.Entry<Integer, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Row row = rows[nextRowId];
+                lastRowId = nextRowId;
+                nextRowId = findNext(nextRowId + 1);
+                return Maps.immutableEntry(lastRowId, (V) row.values[row.indexOf(columnId)]);
+            }
+
+            @Override
+            public void remove() {
+                checkState(lastRowId >= 0, "next() has not been called, or remove() has already been called");
+                IntIndexedTable.this.remove(lastRowId, columnId);
+                lastRowId = -1;
+            }
+
+            private int findNext(int fromRowId) {
+                for (int rowId = fromRowId; rowId < rows.length; rowId++) {
+                    if (rows[rowId] != null && rows[rowId].indexOf(columnId) >= 0) {
+                        return rowId;
+                    }
+                }
+                return rows.length;
+            }
+        };
+    }
+
+    @Override
+    Iterator<Integer> rowKeyIterator() {
+        return new Iterator<Integer>() {
+            private int nextRowId = findNext(0);
+            private int lastRowId = -1;
+
+            @Override
+            public boolean hasNext() {
+                return nextRowId < rows.length;
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                lastRowId = nextRowId;
+                nextRowId = findNext(nextRowId + 1);
+                return lastRowId;
+            }
+
+            @Override
+            public void remove() {
+                checkState(lastRowId >= 0, "next() has not been called, or remove() has already been called");
+                size -= rows[lastRowId].size;
+                rows[lastRowId] = null;
+                rowCount--;
+                lastRowId = -1;
+            }
+
+            private int findNext(int fromRowId) {
+                for (int rowId = fromRowId; rowId < rows.length; rowId++) {
+                    if (rows[rowId] != null) {
+                        return rowId;
+                    }
+                }
+                return rows.length;
+            }
+        };
+    }
+
+    @Override
+    Iterator<Integer> columnKeyIterator() {
+        final BitSet columnIds = new BitSet();
+        for (Row row : rows) {
+            if (row != null) {
+                for (int i = 0; i < row.size; i++) {
+                    columnIds.set(row.columns[i]);
+                }
+            }
+        }
+        return new Iterator<Integer>() {
+            private int nextColumnId = columnIds.nextSetBit(0);
+            private int lastColumnId = -1;
+
+            @Override
+            public boolean hasNext() {
+                return nextColumnId >= 0;
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                lastColumnId = nextColumnId;
+                nextColumnId = columnIds.nextSetBit(nextColumnId + 1);
+                return lastColumnId;
+            }
+
+            @Override
+            public void remove() {
+                checkState(lastColumnId >= 0, "next() has not been called, or remove() has already been called");
+                for (int rowId = 0; rowId < rows.length; rowId++) {
+                    IntIndexedTable.this.remove(rowId, lastColumnId);
+                }
+                lastColumnId = -1;
+            }
+        };
+    }
+
+    private Row rowOf(Object rowKey) {
+        if (!(rowKey instanceof Integer)) {
+            return null;
+        }
+        int rowId = (Integer) rowKey;
+        return rowId >= 0 && rowId < rows.length ? rows[rowId] : null;
+    }
+
+    private void removeAt(int rowId, Row row, int index) {
+        row.removeAt(index);
+        size--;
+        if (row.size == 0) {
+            rows[rowId] = null;
+            rowCount--;
+        }
+    }
+
+    /**
+     * Iterates over the cells of the rows with ids in [fromRowId, toRowId).
+     */
+    private abstract class CellIterator<E> implements Iterator<E> {
+        private final int toRowId;
+        private int rowId;
+        private Row row;
+        private int index;
+        private boolean canRemove;
+
+        private CellIterator(int fromRowId, int toRowId) {
+            this.toRowId = Math.min(toRowId, rows.length);
+            rowId = fromRowId - 1;
+            advanceRow();
+        }
+
+        abstract E element(int rowId, Row row, int index);
+
+        @Override
+        public boolean hasNext() {
+            if (row != null && index >= row.size) {
+                advanceRow();
+            }
+            return row != null;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            canRemove = true;
+            return element(rowId, row, index++);
+        }
+
+        @Override
+        public void remove() {
+            checkState(canRemove, "next() has not been called, or remove() has already been called");
+            canRemove = false;
+            removeAt(rowId, row, --index);
+        }
+
+        private void advanceRow() {
+            row = null;
+            index = 0;
+            while (row == null && ++rowId < toRowId) {
+                row = rows[rowId];
+            }
+        }
+    }
+
+    private static final class Row {
+        private int[] columns = new int[INITIAL_ROW_CAPACITY];
+        private Object[] values = new Object[INITIAL_ROW_CAPACITY];
+        private int size;
+
+        private int indexOf(int columnId) {
+            return Arrays.binarySearch(columns, 0, size, columnId);
+        }
+
+        private void insert(int index, int columnId, Object value) {
+            if (size == columns.length) {
+                int capacity = size + (size >> 1) + 1;
+                columns = Arrays.copyOf(columns, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            System.arraycopy(columns, index, columns, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            columns[index] = columnId;
+            values[index] = value;
+            size++;
+        }
+
+        private void removeAt(int index) {
+            System.arraycopy(columns, index + 1, columns, index, size - index - 1);
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            values[--size] = null;
+            // gives memory back once a row has shrunk to a quarter of its capacity
+            if (size > INITIAL_ROW_CAPACITY && size <= columns.length / 4) {
+                columns = Arrays.copyOf(columns, columns.length / 2);
+                values = Arrays.copyOf(values, values.length / 2);
+            }
+        }
+    }
+}
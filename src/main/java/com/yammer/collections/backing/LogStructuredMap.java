@@ -0,0 +1,771 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A durable map of byte arrays, stored in an append-only log file. Meant as the backing map of a TransformingMap with
+ * byte codecs, e.g. those of com.yammer.collections.codec.
+ * <p/>
+ * Every put and remove appends a record to the end of the log, so writes are sequential. The file is synced after
+ * a configurable number of writes, on {@link #flush()} and on {@link #close()}; writes which were not synced may be
+ * lost on a crash. An in-memory hash index maps each key to the position of its latest record, so a read is a single
+ * positional read of the value. put and remove also read the previous value they return; {@link #set} and
+ * {@link #delete} only append, and so does putAll, also when called through a TransformingMap. On open the index is
+ * rebuilt by scanning the log, and a torn record at its end is truncated, while a corrupt record followed by further
+ * data fails the open rather than dropping them. Compaction syncs the directory after replacing the log.
+ * <p/>
+ * Records made dead by later writes are reclaimed by compaction, which rewrites the live records into a new log and
+ * atomically replaces the old one. Compaction runs on a background thread once dead records make up the configured
+ * share of the log, and can be run explicitly with {@link #compact()}. Writes continue while the live records are
+ * copied and are appended to the new log at the end.
+ * <p/>
+ * Keys are compared by content. Returned keys and values are copies, and so are the stored ones. The map is thread
+ * safe, with all operations serialized on the map. Null keys and values are not permitted. I/O errors are rethrown as
+ * runtime exceptions from the Map methods.
+ */
+public class LogStructuredMap extends AbstractMap<byte[], byte[]> implements Closeable {
+    private static final int HEADER_LENGTH = 12;
+    private static final int TOMBSTONE = -1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int DEFAULT_WRITES_PER_SYNC = 64;
+    private static final double DEFAULT_COMPACTION_RATIO = 0.5;
+    private static final long MIN_COMPACTION_GARBAGE = 1 << 20;
+    private static final String COMPACTION_SUFFIX = ".compact";
+
+    private final File file;
+    private final int writesPerSync;
+    private final double compactionRatio;
+    private final ExecutorService compactor;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private Map<ByteKey, Location> index = Maps.newHashMap();
+    private FileChannel channel;
+    private long end;
+    private long garbage;
+    private int unsyncedWrites;
+    private int generation;
+    private boolean closed;
+
+    private LogStructuredMap(File file, int writesPerSync, double compactionRatio) throws IOException {
+        this.file = file;
+        this.writesPerSync = writesPerSync;
+        this.compactionRatio = compactionRatio;
+        Files.deleteIfExists(compactionFile().toPath());
+        channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        compactor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("log-structured-map-compaction-%d").build()
+        );
+    }
+
+    /**
+     * Opens the log in file, creating it when it does not exist, syncing every 64 writes and compacting once half of
+     * the log is dead.
+     */
+    public static LogStructuredMap open(File file) throws IOException {
+        return open(file, DEFAULT_WRITES_PER_SYNC, DEFAULT_COMPACTION_RATIO);
+    }
+
+    /**
+     * Opens the log in file, creating it when it does not exist.
+     *
+     * @param writesPerSync   number of writes after which the log is synced, 1 syncs every write
+     * @param compactionRatio share of dead records in the log, above which it is compacted in the background
+     */
+    public static LogStructuredMap open(File file, int writesPerSync, double compactionRatio) throws IOException {
+        checkNotNull(file);
+        checkArgument(writesPerSync > 0, "writesPerSync has to be positive, was %s", writesPerSync);
+        checkArgument(compactionRatio > 0 && compactionRatio <= 1,
+                "compactionRatio has to be in (0, 1], was %s", compactionRatio);
+        LogStructuredMap map = new LogStructuredMap(file, writesPerSync, compactionRatio);
+        try {
+            map.rebuildIndex();
+        } catch (IOException e) {
+            map.close();
+            throw e;
+        }
+        return map;
+    }
+
+    @Override
+    public synchronized int size() {
+        checkOpen();
+        return index.size();
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        checkOpen();
+        return key instanceof byte[] && index.containsKey(new ByteKey((byte[]) key));
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (!(value instanceof byte[])) {
+            return false;
+        }
+        for (byte[] candidate : values()) {
+            if (Arrays.equals(candidate, (byte[]) value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized byte[] get(Object key) {
+        checkOpen();
+        if (!(key instanceof byte[])) {
+            return null;
+        }
+        Location location = index.get(new ByteKey((byte[]) key));
+        try {
+            return location == null ? null : read(location);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Returning the previous value costs a read of it, on top of the append.
+     */
+    @Override
+    public synchronized byte[] put(byte[] key, byte[] value) {
+        checkNotNull(key);
+        checkNotNull(value);
+        checkOpen();
+        try {
+            Location previous = index.get(new ByteKey(key));
+            byte[] previousValue = previous == null ? null : read(previous);
+            append(key, value);
+            return previousValue;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Associates value with key without reading the previous value, so that the write is a single append.
+     */
+    public synchronized void set(byte[] key, byte[] value) {
+        checkNotNull(key);
+        checkNotNull(value);
+        checkOpen();
+        try {
+            append(key, value);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Removes the mapping of key without reading its value, so that the write is a single append.
+     *
+     * @return whether key was mapped
+     */
+    public synchronized boolean delete(byte[] key) {
+        checkNotNull(key);
+        checkOpen();
+        if (!index.containsKey(new ByteKey(key))) {
+            return false;
+        }
+        try {
+            append(key, null);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void putAll(Map<? extends byte[], ? extends byte[]> m) {
+        for (Entry<? extends byte[], ? extends byte[]> entry : m.entrySet()) {
+            set(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized byte[] remove(Object key) {
+        checkOpen();
+        if (!(key instanceof byte[])) {
+            return null;
+        }
+        Location previous = index.get(new ByteKey((byte[]) key));
+        if (previous == null) {
+            return null;
+        }
+        try {
+            byte[] previousValue = read(previous);
+            append((byte[]) key, null);
+            return previousValue;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        checkOpen();
+        try {
+            channel.truncate(0);
+            channel.force(false);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        index.clear();
+        end = 0;
+        garbage = 0;
+        unsyncedWrites = 0;
+        // makes a running compaction discard its result
+        generation++;
+    }
+
+    /**
+     * Iterates over the indexed keys without reading the values from the log.
+     */
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<byte[]> keySet() {
+        return new AbstractSet<byte[]>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<byte[]> iterator() {
+                return new KeyIterator(keySnapshot());
+            }
+
+            @Override
+            public int size() {
+                return LogStructuredMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                return o instanceof byte[] && delete((byte[]) o);
+            }
+
+            @Override
+            public void clear() {
+                LogStructuredMap.this.clear();
+            }
+        };
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<Entry<byte[], byte[]>> entrySet() {
+        return new AbstractSet<Entry<byte[], byte[]>>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<Entry<byte[], byte[]>> iterator() {
+                return new EntryIterator(keySnapshot());
+            }
+
+            @Override
+            public int size() {
+                return LogStructuredMap.this.size();
+            }
+
+            @Override
+            public void clear() {
+                LogStructuredMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Syncs the writes made since the last sync to disk.
+     */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        if (unsyncedWrites > 0) {
+            sync();
+        }
+    }
+
+    /**
+     * Rewrites the live records into a new log, unless a compaction is already running. Writes are blocked only while
+     * the records appended during the compaction are copied and the logs are swapped.
+     */
+    public void compact() throws IOException {
+        if (compacting.compareAndSet(false, true)) {
+            try {
+                doCompact();
+            } finally {
+                compacting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Waits for a running background compaction, syncs and closes the log.
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private void checkOpen() {
+        checkState(!closed, "the map has been closed");
+    }
+
+    private File compactionFile() {
+        return new File(file.getPath() + COMPACTION_SUFFIX);
+    }
+
+    private synchronized List<ByteKey> keySnapshot() {
+        checkOpen();
+        return Lists.newArrayList(index.keySet());
+    }
+
+    private void rebuildIndex() throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        CRC32 checksum = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        // the stream is not closed, as that would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(0)), BUFFER_SIZE
+        ));
+        while (offset + HEADER_LENGTH <= size) {
+            int expectedChecksum = in.readInt();
+            int keyLength = in.readInt();
+            int valueLength = in.readInt();
+            if (keyLength < 0 || valueLength < TOMBSTONE) {
+                throw corruptRecord(offset, size);
+            }
+            Location location = new Location(offset, keyLength, valueLength);
+            if (offset + location.length() > size) {
+                // a torn write at the end of the log
+                break;
+            }
+
+            checksum.reset();
+            updateChecksum(checksum, keyLength);
+            updateChecksum(checksum, valueLength);
+            byte[] key = new byte[keyLength];
+            in.readFully(key);
+            checksum.update(key);
+            // values are only checksummed, not kept
+            for (int remaining = Math.max(valueLength, 0); remaining > 0; ) {
+                int chunk = Math.min(remaining, buffer.length);
+                in.readFully(buffer, 0, chunk);
+                checksum.update(buffer, 0, chunk);
+                remaining -= chunk;
+            }
+            if ((int) checksum.getValue() != expectedChecksum) {
+                if (offset + location.length() < size) {
+                    throw corruptRecord(offset, size);
+                }
+                // a torn write of the last record
+                break;
+            }
+
+            index(new ByteKey(key), location);
+            offset += location.length();
+        }
+        if (offset < size) {
+            channel.truncate(offset);
+            channel.force(false);
+        }
+        end = offset;
+    }
+
+    private IOException corruptRecord(long offset, long size) {
+        return new IOException("corrupt record at offset " + offset + " of " + file + ", followed by " +
+                (size - offset) + " bytes which are not truncated");
+    }
+
+    private void append(byte[] key, byte[] value) throws IOException {
+        int valueLength = value == null ? TOMBSTONE : value.length;
+        Location location = new Location(end, key.length, valueLength);
+        ByteBuffer record = ByteBuffer.allocate((int) location.length());
+        record.putInt(0);
+        record.putInt(key.length);
+        record.putInt(valueLength);
+        record.put(key);
+        if (value != null) {
+            record.put(value);
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(record.array(), 4, record.capacity() - 4);
+        record.putInt(0, (int) checksum.getValue());
+        record.flip();
+
+        writeFully(channel, record, end);
+        end += record.capacity();
+        index(new ByteKey(key.clone()), location);
+        if (++unsyncedWrites >= writesPerSync) {
+            sync();
+        }
+        scheduleCompactionIfNeeded();
+    }
+
+    private void index(ByteKey key, Location location) {
+        Location previous = location.isTombstone() ? index.remove(key) : index.put(key, location);
+        if (previous != null) {
+            garbage += previous.length();
+        }
+        if (location.isTombstone()) {
+            garbage += location.length();
+        }
+    }
+
+    private byte[] read(Location location) throws IOException {
+        byte[] value = new byte[location.valueLength];
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        long position = location.valueOffset();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("record at " + location.offset + " is truncated");
+            }
+        }
+        return value;
+    }
+
+    private void sync() throws IOException {
+        channel.force(false);
+        unsyncedWrites = 0;
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        if (garbage >= MIN_COMPACTION_GARBAGE && garbage >= end * compactionRatio
+                && compacting.compareAndSet(false, true)) {
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        doCompact();
+                    } catch (IOException | RuntimeException ignored) {
+                        // the map keeps appending to the uncompacted log, the next write retries the compaction
+                    } finally {
+                        compacting.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    private void doCompact() throws IOException {
+        Map<ByteKey, Location> snapshot;
+        long compactedEnd;
+        int snapshotGeneration;
+        FileChannel source;
+        synchronized (this) {
+            checkOpen();
+            snapshot = Maps.newHashMap(index);
+            compactedEnd = end;
+            snapshotGeneration = generation;
+            source = channel;
+        }
+
+        File compactionFile = compactionFile();
+        FileChannel target = FileChannel.open(
+                compactionFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        boolean swapped = false;
+        try {
+            // copies the live records without holding the lock, positional reads do not interfere with appends
+            Map<ByteKey, Location> compacted = Maps.newHashMapWithExpectedSize(snapshot.size());
+            long targetEnd = 0;
+            for (Entry<ByteKey, Location> entry : snapshot.entrySet()) {
+                Location location = entry.getValue();
+                copy(source, location.offset, location.length(), target);
+                compacted.put(entry.getKey(), location.movedTo(targetEnd));
+                targetEnd += location.length();
+            }
+
+            synchronized (this) {
+                if (closed || generation != snapshotGeneration) {
+                    return;
+                }
+                // the records appended in the meantime are copied as they are, at a shifted offset
+                long shift = targetEnd - compactedEnd;
+                copy(channel, compactedEnd, end - compactedEnd, target);
+                Map<ByteKey, Location> newIndex = Maps.newHashMapWithExpectedSize(index.size());
+                long live = 0;
+                for (Entry<ByteKey, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    newIndex.put(entry.getKey(), location.offset >= compactedEnd
+                            ? location.movedTo(location.offset + shift)
+                            : compacted.get(entry.getKey()));
+                    live += location.length();
+                }
+                target.force(false);
+                Files.move(
+                        compactionFile.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+                );
+                swapped = true;
+
+                FileChannel replaced = channel;
+                channel = target;
+                index = newIndex;
+                end += shift;
+                garbage = end - live;
+                unsyncedWrites = 0;
+                replaced.close();
+                // the rename is durable only once the directory entry is
+                syncDirectory(file.getAbsoluteFile().getParentFile());
+            }
+        } finally {
+            if (!swapped) {
+                target.close();
+                Files.deleteIfExists(compactionFile.toPath());
+            }
+        }
+    }
+
+    private static void syncDirectory(File directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+        } catch (AccessDeniedException ignored) {
+            // directories cannot be opened on some platforms, e.g. Windows, which has no way to sync them
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void copy(FileChannel source, long position, long length, FileChannel target) throws IOException {
+        while (length > 0) {
+            long transferred = source.transferTo(position, length, target);
+            if (transferred <= 0) {
+                throw new EOFException("the log was truncated during compaction");
+            }
+            position += transferred;
+            length -= transferred;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static void updateChecksum(CRC32 checksum, int value) {
+        checksum.update(value >>> 24);
+        checksum.update(value >>> 16);
+        checksum.update(value >>> 8);
+        checksum.update(value);
+    }
+
+    private final class KeyIterator implements Iterator<byte[]> {
+        private final Iterator<ByteKey> keys;
+        private byte[] next;
+        private byte[] lastKey;
+
+        private KeyIterator(List<ByteKey> keys) {
+            this.keys = keys.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            // skips keys removed since the snapshot was taken
+            while (next == null && keys.hasNext()) {
+                byte[] key = keys.next().bytes;
+                if (containsKey(key)) {
+                    next = key.clone();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public byte[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastKey = next;
+            next = null;
+            return lastKey;
+        }
+
+        @Override
+        public void remove() {
+            checkState(lastKey != null, "next() has not been called, or remove() has already been called");
+            delete(lastKey);
+            lastKey = null;
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Entry<byte[], byte[]>> {
+        private final Iterator<ByteKey> keys;
+        private Entry<byte[], byte[]> next;
+        private byte[] lastKey;
+
+        private EntryIterator(List<ByteKey> keys) {
+            this.keys = keys.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            // skips keys removed since the snapshot was taken
+            while (next == null && keys.hasNext()) {
+                byte[] key = keys.next().bytes;
+                byte[] value = get(key);
+                if (value != null) {
+                    next = new LogEntry(key.clone(), value);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Entry<byte[], byte[]> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<byte[], byte[]> result = next;
+            next = null;
+            lastKey = result.getKey();
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            checkState(lastKey != null, "next() has not been called, or remove() has already been called");
+            delete(lastKey);
+            lastKey = null;
+        }
+    }
+
+    private final class LogEntry extends SimpleEntry<byte[], byte[]> {
+        private static final long serialVersionUID = 0L;
+
+        private LogEntry(byte[] key, byte[] value) {
+            super(key, value);
+        }
+
+        @Override
+        public byte[] setValue(byte[] value) {
+            set(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    private static final class Location {
+        private final long offset;
+        private final int keyLength;
+        private final int valueLength;
+
+        private Location(long offset, int keyLength, int valueLength) {
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+        }
+
+        private boolean isTombstone() {
+            return valueLength == TOMBSTONE;
+        }
+
+        private long valueOffset() {
+            return offset + HEADER_LENGTH + keyLength;
+        }
+
+        private long length() {
+            return (long) HEADER_LENGTH + keyLength + Math.max(valueLength, 0);
+        }
+
+        private Location movedTo(long newOffset) {
+            return new Location(newOffset, keyLength, valueLength);
+        }
+    }
+
+    private static final class ByteKey {
+        private final byte[] bytes;
+        private final int hash;
+
+        private ByteKey(byte[] bytes) {
+            this.bytes = bytes;
+            hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ByteKey && Arrays.equals(bytes, ((ByteKey) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
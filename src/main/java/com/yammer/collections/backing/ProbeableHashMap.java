@@ -0,0 +1,425 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Equivalence;
+import com.yammer.collections.codec.HeterogeneousLookup;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A hash map comparing its keys with an {@link Equivalence}, which can also be probed with values of another type
+ * through a {@link HeterogeneousLookup}. Typically the keys are encoded, e.g. UTF-8 byte arrays compared by content,
+ * and the probes are the unencoded keys, so that lookups need not encode, and allocate, the probe:
+ * <pre>
+ * ProbeableHashMap&lt;byte[], V&gt; map = ProbeableHashMap.create(Codecs.byteArrayEquivalence());
+ * V value = map.getByProbe("key", Codecs.utf8Lookup());
+ * </pre>
+ * The map is not thread safe. Null keys and values are not permitted.
+ */
+public class ProbeableHashMap<K, V> extends AbstractMap<K, V> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private final Equivalence<? super K> equivalence;
+    private Node[] table;
+    private int size;
+    private int modCount;
+    private Set<Entry<K, V>> entrySet;
+    private ProbeableSet<K> keySet;
+
+    private ProbeableHashMap(Equivalence<? super K> equivalence, int capacity) {
+        this.equivalence = equivalence;
+        table = newTable(capacity);
+    }
+
+    public static <K, V> ProbeableHashMap<K, V> create(Equivalence<? super K> equivalence) {
+        return new ProbeableHashMap<K, V>(checkNotNull(equivalence), DEFAULT_CAPACITY);
+    }
+
+    public static <K, V> ProbeableHashMap<K, V> create(Equivalence<? super K> equivalence, int expectedSize) {
+        checkArgument(expectedSize >= 0, "expectedSize cannot be negative, was %s", expectedSize);
+        return new ProbeableHashMap<K, V>(checkNotNull(equivalence), capacityFor(expectedSize));
+    }
+
+    /**
+     * Returns the value of the key matching probe, or null when there is none.
+     */
+    public <Q> V getByProbe(Q probe, HeterogeneousLookup<? super Q, ? super K> lookup) {
+        Node node = findByProbe(probe, lookup);
+        return node == null ? null : node.value;
+    }
+
+    public <Q> boolean containsProbe(Q probe, HeterogeneousLookup<? super Q, ? super K> lookup) {
+        return findByProbe(probe, lookup) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        Node node = find(key);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        checkNotNull(key);
+        checkNotNull(value);
+        int hash = spread(equivalence.hash(key));
+        int index = hash & table.length - 1;
+        for (Node node = table[index]; node != null; node = node.next) {
+            if (node.hash == hash && equivalence.equivalent(node.key, key)) {
+                V previous = node.value;
+                node.value = value;
+                return previous;
+            }
+        }
+        table[index] = new Node(hash, key, value, table[index]);
+        modCount++;
+        if (++size > table.length / 4 * 3 && table.length < MAXIMUM_CAPACITY) {
+            resize();
+        }
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        Node node = find(key);
+        if (node == null) {
+            return null;
+        }
+        removeNode(node);
+        return node.value;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(table, null);
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public ProbeableSet<K> keySet() {
+        ProbeableSet<K> result = keySet;
+        if (result == null) {
+            result = new KeySet();
+            keySet = result;
+        }
+        return result;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> result = entrySet;
+        if (result == null) {
+            result = new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new NodeIterator<Entry<K, V>>() {
+                        @Override
+                        Entry<K, V> output(Node node) {
+                            return node;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return findEntry(o) != null;
+                }
+
+                @Override
+                public boolean remove(Object o) {
+                    Node node = findEntry(o);
+                    if (node == null) {
+                        return false;
+                    }
+                    removeNode(node);
+                    return true;
+                }
+
+                @Override
+                public void clear() {
+                    ProbeableHashMap.this.clear();
+                }
+            };
+            entrySet = result;
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node find(Object key) {
+        if (key == null) {
+            return null;
+        }
+        try {
+            K castKey = (K) key;
+            int hash = spread(equivalence.hash(castKey));
+            for (Node node = table[hash & table.length - 1]; node != null; node = node.next) {
+                if (node.hash == hash && equivalence.equivalent(node.key, castKey)) {
+                    return node;
+                }
+            }
+            return null;
+        } catch (ClassCastException ignored) {
+            return null;
+        }
+    }
+
+    private Node findEntry(Object o) {
+        if (!(o instanceof Entry)) {
+            return null;
+        }
+        Entry<?, ?> entry = (Entry<?, ?>) o;
+        Node node = find(entry.getKey());
+        return node != null && node.value.equals(entry.getValue()) ? node : null;
+    }
+
+    private <Q> Node findByProbe(Q probe, HeterogeneousLookup<? super Q, ? super K> lookup) {
+        checkNotNull(lookup);
+        if (probe == null) {
+            return null;
+        }
+        int hash = spread(lookup.hash(probe));
+        for (Node node = table[hash & table.length - 1]; node != null; node = node.next) {
+            if (node.hash == hash && lookup.matches(probe, node.key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void removeNode(Node removed) {
+        int index = removed.hash & table.length - 1;
+        Node previous = null;
+        for (Node node = table[index]; node != null; previous = node, node = node.next) {
+            if (node == removed) {
+                if (previous == null) {
+                    table[index] = node.next;
+                } else {
+                    previous.next = node.next;
+                }
+                size--;
+                modCount++;
+                return;
+            }
+        }
+    }
+
+    private void resize() {
+        Node[] oldTable = table;
+        table = newTable(oldTable.length * 2);
+        for (Node head : oldTable) {
+            Node node = head;
+            while (node != null) {
+                Node next = node.next;
+                int index = node.hash & table.length - 1;
+                node.next = table[index];
+                table[index] = node;
+                node = next;
+            }
+        }
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < MAXIMUM_CAPACITY && capacity / 4 * 3 < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node[] newTable(int capacity) {
+        return (Node[]) new ProbeableHashMap<?, ?>.Node[capacity];
+    }
+
+    private static int spread(int hash) {
+        return hash ^ hash >>> 16;
+    }
+
+    private final class Node implements Entry<K, V> {
+        private final int hash;
+        private final K key;
+        private V value;
+        private Node next;
+
+        private Node(int hash, K key, V value, Node next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V previous = this.value;
+            this.value = checkNotNull(value);
+            return previous;
+        }
+
+        // keys are compared and hashed with the equivalence of the map, values with equals
+        @SuppressWarnings("unchecked")
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            try {
+                return entry.getKey() != null && equivalence.equivalent(key, (K) entry.getKey()) &&
+                        value.equals(entry.getValue());
+            } catch (ClassCastException ignored) {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return equivalence.hash(key) ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    private abstract class NodeIterator<E> implements Iterator<E> {
+        private int index;
+        private Node next;
+        private Node last;
+        private int expectedModCount = modCount;
+
+        private NodeIterator() {
+            advance();
+        }
+
+        abstract E output(Node node);
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = next.next;
+            if (next == null) {
+                advance();
+            }
+            return output(last);
+        }
+
+        @Override
+        public void remove() {
+            checkState(last != null, "next() has not been called, or remove() has already been called");
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeNode(last);
+            expectedModCount = modCount;
+            last = null;
+        }
+
+        private void advance() {
+            while (next == null && index < table.length) {
+                next = table[index++];
+            }
+        }
+    }
+
+    private final class KeySet extends AbstractSet<K> implements ProbeableSet<K> {
+        @Override
+        public <Q> boolean containsProbe(Q probe, HeterogeneousLookup<? super Q, ? super K> lookup) {
+            return ProbeableHashMap.this.containsProbe(probe, lookup);
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return new NodeIterator<K>() {
+                @Override
+                K output(Node node) {
+                    return node.key;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return ProbeableHashMap.this.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            ProbeableHashMap.this.clear();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Equivalence;
+import com.yammer.collections.codec.HeterogeneousLookup;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A hash set comparing its elements with an {@link Equivalence}, backed by a {@link ProbeableHashMap}.
+ */
+public class ProbeableHashSet<E> extends AbstractSet<E> implements ProbeableSet<E> {
+    private final ProbeableHashMap<E, Boolean> map;
+
+    private ProbeableHashSet(ProbeableHashMap<E, Boolean> map) {
+        this.map = map;
+    }
+
+    public static <E> ProbeableHashSet<E> create(Equivalence<? super E> equivalence) {
+        return new ProbeableHashSet<E>(ProbeableHashMap.<E, Boolean>create(equivalence));
+    }
+
+    @Override
+    public <Q> boolean containsProbe(Q probe, HeterogeneousLookup<? super Q, ? super E> lookup) {
+        return map.containsProbe(probe, lookup);
+    }
+
+    @Override
+    public boolean add(E e) {
+        return map.put(checkNotNull(e), Boolean.TRUE) == null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return map.containsKey(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return map.remove(o) != null;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return map.keySet().iterator();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+}
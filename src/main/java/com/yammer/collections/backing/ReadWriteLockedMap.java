@@ -0,0 +1,348 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A thread safe view of a map which is not thread safe itself, e.g. a HashMap. Queries take the read lock, so they run
+ * concurrently with each other, mutations take the write lock.
+ * <p/>
+ * Iteration over keySet(), values() and entrySet() works on a snapshot taken under the read lock. Removal through the
+ * iterators and setValue on the entries write through to the map.
+ * <p/>
+ * Used as the backing map of a TransformingMap, the transforming functions run outside of the critical sections, as the
+ * view transforms keys and values before and after calling the backing map.
+ */
+public class ReadWriteLockedMap<K, V> extends AbstractMap<K, V> {
+    private final Map<K, V> delegate;
+    private final ReadWriteLock lock;
+
+    /* package */ ReadWriteLockedMap(Map<K, V> delegate, ReadWriteLock lock) {
+        this.delegate = checkNotNull(delegate);
+        this.lock = checkNotNull(lock);
+    }
+
+    public static <K, V> Map<K, V> create(Map<K, V> delegate) {
+        return new ReadWriteLockedMap<K, V>(delegate, new ReentrantReadWriteLock());
+    }
+
+    /**
+     * The locked map, e.g. to estimate its footprint. Accessing it directly bypasses the lock.
+     */
+    public Map<K, V> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public int size() {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return delegate.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return delegate.isEmpty();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return delegate.containsKey(key);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return delegate.containsValue(value);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return delegate.get(key);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            return delegate.put(key, value);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            return delegate.remove(key);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            delegate.putAll(map);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            delegate.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<K> iterator() {
+                List<K> keys;
+                Lock readLock = lock.readLock();
+                readLock.lock();
+                try {
+                    keys = Lists.newArrayList(delegate.keySet());
+                } finally {
+                    readLock.unlock();
+                }
+                return new SnapshotIterator<K>(keys) {
+                    @Override
+                    protected void removeFromBacking(K key) {
+                        ReadWriteLockedMap.this.remove(key);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ReadWriteLockedMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                Lock writeLock = lock.writeLock();
+                writeLock.lock();
+                try {
+                    return delegate.keySet().remove(o);
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+
+            @Override
+            public void clear() {
+                ReadWriteLockedMap.this.clear();
+            }
+        };
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<V> iterator() {
+                final Iterator<Entry<K, V>> entries = entrySet().iterator();
+                return new Iterator<V>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public V next() {
+                        return entries.next().getValue();
+                    }
+
+                    @Override
+                    public void remove() {
+                        entries.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ReadWriteLockedMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsValue(o);
+            }
+
+            @Override
+            public void clear() {
+                ReadWriteLockedMap.this.clear();
+            }
+        };
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                List<Entry<K, V>> entries;
+                Lock readLock = lock.readLock();
+                readLock.lock();
+                try {
+                    entries = Lists.newArrayListWithCapacity(delegate.size());
+                    for (Entry<K, V> entry : delegate.entrySet()) {
+                        entries.add(new SnapshotEntry(entry.getKey(), entry.getValue()));
+                    }
+                } finally {
+                    readLock.unlock();
+                }
+                return new SnapshotIterator<Entry<K, V>>(entries) {
+                    @Override
+                    protected void removeFromBacking(Entry<K, V> entry) {
+                        removeEntry(entry.getKey(), entry.getValue());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ReadWriteLockedMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                Lock readLock = lock.readLock();
+                readLock.lock();
+                try {
+                    return delegate.entrySet().contains(o);
+                } finally {
+                    readLock.unlock();
+                }
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                Lock writeLock = lock.writeLock();
+                writeLock.lock();
+                try {
+                    return delegate.entrySet().remove(o);
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+
+            @Override
+            public void clear() {
+                ReadWriteLockedMap.this.clear();
+            }
+        };
+    }
+
+    // removes key only while it is still mapped to value, so that a value put since the snapshot is kept
+    private void removeEntry(K key, V value) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            if (delegate.containsKey(key) && Objects.equal(delegate.get(key), value)) {
+                delegate.remove(key);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private final class SnapshotEntry extends SimpleEntry<K, V> {
+        private static final long serialVersionUID = 0L;
+
+        private SnapshotEntry(K key, V value) {
+            super(key, value);
+        }
+
+        /**
+         * Writes through to the map, and returns the value the map held, which may differ from the snapshot.
+         */
+        @Override
+        public V setValue(V value) {
+            V previous = put(getKey(), value);
+            super.setValue(value);
+            return previous;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A thread safe view of a table which is not thread safe itself, e.g. a HashBasedTable. Queries take the read lock,
+ * mutations take the write lock. The row, column and map views share the lock of the table.
+ * <p/>
+ * Iteration over cellSet() and values() works on a snapshot taken under the read lock, removal through the iterators
+ * writes through to the table.
+ */
+public class ReadWriteLockedTable<R, C, V> implements Table<R, C, V> {
+    private final Table<R, C, V> delegate;
+    private final ReadWriteLock lock;
+    private final Function<Map<C, V>, Map<C, V>> lockRow;
+    private final Function<Map<R, V>, Map<R, V>> lockColumn;
+
+    private ReadWriteLockedTable(Table<R, C, V> delegate, final ReadWriteLock lock) {
+        this.delegate = checkNotNull(delegate);
+        this.lock = checkNotNull(lock);
+        lockRow = new Function<Map<C, V>, Map<C, V>>() {
+            @Override
+            public Map<C, V> apply(Map<C, V> input) {
+                return new ReadWriteLockedMap<C, V>(input, lock);
+            }
+        };
+        lockColumn = new Function<Map<R, V>, Map<R, V>>() {
+            @Override
+            public Map<R, V> apply(Map<R, V> input) {
+                return new ReadWriteLockedMap<R, V>(input, lock);
+            }
+        };
+    }
+
+    public static <R, C, V> Table<R, C, V> create(Table<R, C, V> delegate) {
+        return new ReadWriteLockedTable<R, C, V>(delegate, new ReentrantReadWriteLock());
+    }
+
+    /**
+     * The locked table, e.g. to estimate its footprint. Accessing it directly bypasses the lock.
+     */
+    public Table<R, C, V> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public boolean contains(Object rowKey, Object columnKey) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return delegate.contains(rowKey, columnKey);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsRow(Object rowKey) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return delegate.containsRow(rowKey);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsColumn(Object columnKey) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return delegate.containsColumn(columnKey);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return delegate.containsValue(value);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public V get(Object rowKey, Object columnKey) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return delegate.get(rowKey, columnKey);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return delegate.isEmpty();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return delegate.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            delegate.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public V put(R rowKey, C columnKey, V value) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            return delegate.put(rowKey, columnKey, value);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Table<? extends R, ? extends C, ? extends V> table) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            delegate.putAll(table);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public V remove(Object rowKey, Object columnKey) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            return delegate.remove(rowKey, columnKey);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Map<C, V> row(R rowKey) {
+        return new ReadWriteLockedMap<C, V>(delegate.row(rowKey), lock);
+    }
+
+    @Override
+    public Map<R, V> column(C columnKey) {
+        return new ReadWriteLockedMap<R, V>(delegate.column(columnKey), lock);
+    }
+
+    @Override
+    public Set<Cell<R, C, V>> cellSet() {
+        return new AbstractSet<Cell<R, C, V>>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<Cell<R, C, V>> iterator() {
+                return cellIterator();
+            }
+
+            @Override
+            public int size() {
+                return ReadWriteLockedTable.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                Lock readLock = lock.readLock();
+                readLock.lock();
+                try {
+                    return delegate.cellSet().contains(o);
+                } finally {
+                    readLock.unlock();
+                }
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                Lock writeLock = lock.writeLock();
+                writeLock.lock();
+                try {
+                    return delegate.cellSet().remove(o);
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+
+            @Override
+            public void clear() {
+                ReadWriteLockedTable.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<R> rowKeySet() {
+        return rowMap().keySet();
+    }
+
+    @Override
+    public Set<C> columnKeySet() {
+        return columnMap().keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<V> iterator() {
+                final Iterator<Cell<R, C, V>> cells = cellIterator();
+                return new Iterator<V>() {
+                    @Override
+                    public boolean hasNext() {
+                        return cells.hasNext();
+                    }
+
+                    @Override
+                    public V next() {
+                        return cells.next().getValue();
+                    }
+
+                    @Override
+                    public void remove() {
+                        cells.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ReadWriteLockedTable.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsValue(o);
+            }
+
+            @Override
+            public void clear() {
+                ReadWriteLockedTable.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Map<R, Map<C, V>> rowMap() {
+        return Maps.transformValues(new ReadWriteLockedMap<R, Map<C, V>>(delegate.rowMap(), lock), lockRow);
+    }
+
+    @Override
+    public Map<C, Map<R, V>> columnMap() {
+        return Maps.transformValues(new ReadWriteLockedMap<C, Map<R, V>>(delegate.columnMap(), lock), lockColumn);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (obj instanceof Table) {
+            Table<?, ?, ?> that = (Table<?, ?, ?>) obj;
+            return cellSet().equals(that.cellSet());
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return cellSet().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return rowMap().toString();
+    }
+
+    private Iterator<Cell<R, C, V>> cellIterator() {
+        List<Cell<R, C, V>> cells;
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            cells = Lists.newArrayListWithCapacity(delegate.size());
+            for (Cell<R, C, V> cell : delegate.cellSet()) {
+                cells.add(Tables.immutableCell(cell.getRowKey(), cell.getColumnKey(), cell.getValue()));
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return new SnapshotIterator<Cell<R, C, V>>(cells) {
+            @Override
+            protected void removeFromBacking(Cell<R, C, V> cell) {
+                removeCell(cell);
+            }
+        };
+    }
+
+    // removes the cell only while it still holds the snapshot value, so that a value put since the snapshot is kept
+    private void removeCell(Cell<R, C, V> cell) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            if (Objects.equal(delegate.get(cell.getRowKey(), cell.getColumnKey()), cell.getValue())) {
+                delegate.remove(cell.getRowKey(), cell.getColumnKey());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A thread safe map which spreads its entries by key hash over a fixed number of independently locked shards, so that
+ * writes to different shards do not contend. Each shard is a {@link ReadWriteLockedMap} over a map supplied on
+ * creation.
+ * <p/>
+ * Used as the backing map of a TransformingMap, the shards are chosen by the hash of the encoded keys. Operations on
+ * single keys lock a single shard. size(), clear() and iteration visit the shards one after another, so they are not
+ * atomic with respect to concurrent writes; iteration works on a snapshot of each shard taken when it is reached.
+ */
+public class ShardedMap<K, V> extends AbstractMap<K, V> {
+    private final Map<K, V>[] shards;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ShardedMap(int shardCount, Supplier<? extends Map<K, V>> shardSupplier) {
+        shards = new Map[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new ReadWriteLockedMap<K, V>(
+                    checkNotNull(shardSupplier.get(), "shardSupplier returned null"),
+                    new ReentrantReadWriteLock()
+            );
+        }
+    }
+
+    /**
+     * Creates a map with the given number of HashMap shards.
+     */
+    public static <K, V> Map<K, V> create(int shardCount) {
+        return create(shardCount, new Supplier<Map<K, V>>() {
+            @Override
+            public Map<K, V> get() {
+                return Maps.newHashMap();
+            }
+        });
+    }
+
+    /**
+     * Creates a map with the given number of shards, each of them an empty map returned by shardSupplier.
+     */
+    public static <K, V> Map<K, V> create(int shardCount, Supplier<? extends Map<K, V>> shardSupplier) {
+        checkArgument(shardCount > 0, "shardCount has to be positive, was %s", shardCount);
+        checkNotNull(shardSupplier);
+        return new ShardedMap<K, V>(shardCount, shardSupplier);
+    }
+
+    /**
+     * An unmodifiable list of the shards, each of them a {@link ReadWriteLockedMap}.
+     */
+    public List<Map<K, V>> getShards() {
+        return Collections.unmodifiableList(Arrays.asList(shards));
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Map<K, V> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Map<K, V> shard : shards) {
+            if (!shard.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return shardFor(key).containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (Map<K, V> shard : shards) {
+            if (shard.containsValue(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        return shardFor(key).get(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return shardFor(key).put(key, value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return shardFor(key).remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Map<K, V> shard : shards) {
+            shard.clear();
+        }
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return Iterators.concat(Iterators.transform(
+                        Arrays.asList(shards).iterator(),
+                        new Function<Map<K, V>, Iterator<Entry<K, V>>>() {
+                            @Override
+                            public Iterator<Entry<K, V>> apply(Map<K, V> shard) {
+                                return shard.entrySet().iterator();
+                            }
+                        }
+                ));
+            }
+
+            @Override
+            public int size() {
+                return ShardedMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Entry)) {
+                    return false;
+                }
+                return shardFor(((Entry<?, ?>) o).getKey()).entrySet().contains(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if (!(o instanceof Entry)) {
+                    return false;
+                }
+                return shardFor(((Entry<?, ?>) o).getKey()).entrySet().remove(o);
+            }
+
+            @Override
+            public void clear() {
+                ShardedMap.this.clear();
+            }
+        };
+    }
+
+    private Map<K, V> shardFor(Object key) {
+        if (key == null) {
+            return shards[0];
+        }
+        // spread the hash, so that keys differing only in the high bits land in different shards
+        int hash = key.hashCode() * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return shards[(hash & Integer.MAX_VALUE) % shards.length];
+    }
+}
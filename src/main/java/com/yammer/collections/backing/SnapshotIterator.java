@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Iterates over a snapshot of a collection. Removal is delegated to the subclass, which removes the last returned
+ * element from the live collection.
+ */
+abstract class SnapshotIterator<E> implements Iterator<E> {
+    private final Iterator<E> snapshotIterator;
+    private E last;
+    private boolean canRemove;
+
+    SnapshotIterator(List<E> snapshot) {
+        snapshotIterator = snapshot.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return snapshotIterator.hasNext();
+    }
+
+    @Override
+    public E next() {
+        last = snapshotIterator.next();
+        canRemove = true;
+        return last;
+    }
+
+    @Override
+    public void remove() {
+        checkState(canRemove, "next() has not been called, or remove() has already been called");
+        canRemove = false;
+        removeFromBacking(last);
+    }
+
+    protected abstract void removeFromBacking(E element);
+}
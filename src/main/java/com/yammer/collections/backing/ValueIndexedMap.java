@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A map keeping a reverse index from values to the keys they are mapped from, so that containsValue() and
+ * {@link #keysForValue(Object)} are hash lookups instead of scans. Used as the backing map of a TransformingMap, the
+ * index holds the encoded values, see TransformingViews.keysForValue.
+ * <p/>
+ * The index is maintained on every write through the map and its views, the delegate must not be modified directly.
+ * The index costs an entry per mapping. The map is as thread safe as the delegate is, i.e. not at all for a HashMap.
+ */
+public class ValueIndexedMap<K, V> extends AbstractMap<K, V> {
+    private final Map<K, V> delegate;
+    private final SetMultimap<V, K> index = HashMultimap.create();
+
+    private ValueIndexedMap(Map<K, V> delegate) {
+        this.delegate = delegate;
+        for (Entry<K, V> entry : delegate.entrySet()) {
+            index.put(entry.getValue(), entry.getKey());
+        }
+    }
+
+    /**
+     * Creates an index over the entries of the delegate, which from then on may only be modified through the returned
+     * map.
+     */
+    public static <K, V> ValueIndexedMap<K, V> create(Map<K, V> delegate) {
+        return new ValueIndexedMap<K, V>(checkNotNull(delegate));
+    }
+
+    /**
+     * The indexed map, e.g. to estimate its footprint. Modifying it directly makes the index stale.
+     */
+    public Map<K, V> getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns an immutable copy of the keys mapped to the value.
+     */
+    public ImmutableSet<K> keysForValue(Object value) {
+        return index.containsKey(value) ? ImmutableSet.copyOf(index.get(castValue(value))) : ImmutableSet.<K>of();
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return index.containsKey(value);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return delegate.containsKey(key);
+    }
+
+    @Override
+    public V get(Object key) {
+        return delegate.get(key);
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public V put(K key, V value) {
+        V previous = delegate.put(key, value);
+        index.remove(previous, key);
+        index.put(value, key);
+        return previous;
+    }
+
+    @Override
+    public V remove(Object key) {
+        V previous = delegate.remove(key);
+        index.remove(previous, key);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        index.clear();
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                final Iterator<Entry<K, V>> iterator = delegate.entrySet().iterator();
+                return new Iterator<Entry<K, V>>() {
+                    private Entry<K, V> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        last = new IndexedEntry(iterator.next());
+                        return last;
+                    }
+
+                    @Override
+                    public void remove() {
+                        checkState(last != null, "next() has not been called, or remove() has already been called");
+                        index.remove(last.getValue(), last.getKey());
+                        iterator.remove();
+                        last = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return delegate.size();
+            }
+
+            @Override
+            public void clear() {
+                ValueIndexedMap.this.clear();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private V castValue(Object value) {
+        // only called for values present in the index
+        return (V) value;
+    }
+
+    private final class IndexedEntry implements Entry<K, V> {
+        private final Entry<K, V> entry;
+
+        private IndexedEntry(Entry<K, V> entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public K getKey() {
+            return entry.getKey();
+        }
+
+        @Override
+        public V getValue() {
+            return entry.getValue();
+        }
+
+        @Override
+        public V setValue(V value) {
+            V previous = entry.setValue(value);
+            index.remove(previous, entry.getKey());
+            index.put(value, entry.getKey());
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return entry.equals(obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return entry.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return entry.toString();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Table counterpart of {@link ValueIndexedMap}, keeping a reverse index from values to the cells holding them, so that
+ * containsValue() and {@link #cellsForValue(Object)} are hash lookups instead of scans.
+ * <p/>
+ * The index is maintained on every write through the table and its views, the delegate must not be modified directly.
+ */
+public class ValueIndexedTable<R, C, V> extends AbstractBackingTable<R, C, V> {
+    private final Table<R, C, V> delegate;
+    private final SetMultimap<V, Map.Entry<R, C>> index = HashMultimap.create();
+
+    private ValueIndexedTable(Table<R, C, V> delegate) {
+        this.delegate = delegate;
+        for (Cell<R, C, V> cell : delegate.cellSet()) {
+            index.put(cell.getValue(), Maps.immutableEntry(cell.getRowKey(), cell.getColumnKey()));
+        }
+    }
+
+    /**
+     * Creates an index over the cells of the delegate, which from then on may only be modified through the returned
+     * table.
+     */
+    public static <R, C, V> ValueIndexedTable<R, C, V> create(Table<R, C, V> delegate) {
+        return new ValueIndexedTable<R, C, V>(checkNotNull(delegate));
+    }
+
+    /**
+     * The indexed table, e.g. to estimate its footprint. Modifying it directly makes the index stale.
+     */
+    public Table<R, C, V> getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns an immutable copy of the cells holding the value.
+     */
+    @SuppressWarnings("unchecked")
+    public ImmutableSet<Cell<R, C, V>> cellsForValue(Object value) {
+        if (!index.containsKey(value)) {
+            return ImmutableSet.of();
+        }
+        ImmutableSet.Builder<Cell<R, C, V>> cells = ImmutableSet.builder();
+        for (Map.Entry<R, C> key : index.get((V) value)) {
+            cells.add(Tables.immutableCell(key.getKey(), key.getValue(), (V) value));
+        }
+        return cells.build();
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return index.containsKey(value);
+    }
+
+    @Override
+    public V get(Object rowKey, Object columnKey) {
+        return delegate.get(rowKey, columnKey);
+    }
+
+    @Override
+    public boolean contains(Object rowKey, Object columnKey) {
+        return delegate.contains(rowKey, columnKey);
+    }
+
+    @Override
+    public boolean containsRow(Object rowKey) {
+        return delegate.containsRow(rowKey);
+    }
+
+    @Override
+    public boolean containsColumn(Object columnKey) {
+        return delegate.containsColumn(columnKey);
+    }
+
+    @Override
+    public V put(R rowKey, C columnKey, V value) {
+        V previous = delegate.put(rowKey, columnKey, value);
+        Map.Entry<R, C> key = Maps.immutableEntry(rowKey, columnKey);
+        if (previous != null) {
+            index.remove(previous, key);
+        }
+        index.put(value, key);
+        return previous;
+    }
+
+    @Override
+    public V remove(Object rowKey, Object columnKey) {
+        V previous = delegate.remove(rowKey, columnKey);
+        if (previous != null) {
+            index.remove(previous, Maps.immutableEntry(rowKey, columnKey));
+        }
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        index.clear();
+    }
+
+    @Override
+    int rowSize(Object rowKey) {
+        return delegate.containsRow(rowKey) ? delegate.rowMap().get(rowKey).size() : 0;
+    }
+
+    @Override
+    int columnSize(Object columnKey) {
+        return delegate.containsColumn(columnKey) ? delegate.columnMap().get(columnKey).size() : 0;
+    }
+
+    @Override
+    int rowKeyCount() {
+        return delegate.rowKeySet().size();
+    }
+
+    @Override
+    int columnKeyCount() {
+        return delegate.columnKeySet().size();
+    }
+
+    @Override
+    Iterator<Cell<R, C, V>> cellIterator() {
+        final Iterator<Cell<R, C, V>> iterator = delegate.cellSet().iterator();
+        return new IndexedIterator<Cell<R, C, V>>(iterator) {
+            @Override
+            void unindex(Cell<R, C, V> cell) {
+                index.remove(cell.getValue(), Maps.immutableEntry(cell.getRowKey(), cell.getColumnKey()));
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    Iterator<Map.Entry<C, V>> rowIterator(Object rowKey) {
+        if (!delegate.containsRow(rowKey)) {
+            return Iterators.emptyIterator();
+        }
+        final R row = (R) rowKey;
+        return new IndexedIterator<Map.Entry<C, V>>(delegate.row(row).entrySet().iterator()) {
+            @Override
+            void unindex(Map.Entry<C, V> entry) {
+                index.remove(entry.getValue(), Maps.immutableEntry(row, entry.getKey()));
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    Iterator<Map.Entry<R, V>> columnIterator(Object columnKey) {
+        if (!delegate.containsColumn(columnKey)) {
+            return Iterators.emptyIterator();
+        }
+        final C column = (C) columnKey;
+        // iterates over a copy, as tables do not necessarily support removal through their column iterators
+        List<Map.Entry<R, V>> entries = Lists.newArrayList();
+        for (Map.Entry<R, V> entry : delegate.column(column).entrySet()) {
+            entries.add(Maps.immutableEntry(entry.getKey(), entry.getValue()));
+        }
+        return new SnapshotIterator<Map.Entry<R, V>>(entries) {
+            @Override
+            protected void removeFromBacking(Map.Entry<R, V> entry) {
+                ValueIndexedTable.this.remove(entry.getKey(), column);
+            }
+        };
+    }
+
+    @Override
+    Iterator<R> rowKeyIterator() {
+        return new IndexedIterator<R>(delegate.rowKeySet().iterator()) {
+            @Override
+            void unindex(R rowKey) {
+                for (Map.Entry<C, V> entry : delegate.row(rowKey).entrySet()) {
+                    index.remove(entry.getValue(), Maps.immutableEntry(rowKey, entry.getKey()));
+                }
+            }
+        };
+    }
+
+    @Override
+    Iterator<C> columnKeyIterator() {
+        // iterates over a copy, as tables do not necessarily support removal through their column key iterators
+        return new SnapshotIterator<C>(Lists.newArrayList(delegate.columnKeySet())) {
+            @Override
+            protected void removeFromBacking(C columnKey) {
+                Iterators.removeIf(columnIterator(columnKey), Predicates.alwaysTrue());
+            }
+        };
+    }
+
+    /**
+     * Removes the index entries of an element before it is removed through the delegate iterator.
+     */
+    private abstract static class IndexedIterator<E> implements Iterator<E> {
+        private final Iterator<E> iterator;
+        private E last;
+        private boolean canRemove;
+
+        private IndexedIterator(Iterator<E> iterator) {
+            this.iterator = iterator;
+        }
+
+        abstract void unindex(E element);
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public E next() {
+            last = iterator.next();
+            canRemove = true;
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            checkState(canRemove, "next() has not been called, or remove() has already been called");
+            canRemove = false;
+            unindex(last);
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,477 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A map buffering writes in front of a backing map whose writes are expensive, e.g. a persistent store. Puts and
+ * removes are staged in a concurrent map, where later writes to a key replace the earlier ones, and are written to the
+ * backing map in batches, the puts of a batch with a single putAll. A batch is flushed by the writing thread once
+ * maxPending keys are staged, and every flushInterval on a scheduler, by default one daemon thread shared by all maps.
+ * <p/>
+ * put and remove return the previous value, which costs a read of the backing map unless the key is staged.
+ * {@link #set} and {@link #delete} only stage the write, and never touch the backing map; putAll uses set.
+ * <p/>
+ * Reads look at the staged writes first, so the map always reflects its own writes. Iteration overlays the staged
+ * writes on the entries of the backing map, and removes and sets values through staging. size() flushes first and then
+ * reads the backing map. Writes made directly to the backing map are overwritten by staged writes to the same keys.
+ * <p/>
+ * The scheduled flushes do not keep the map reachable, so a map which is neither closed nor referenced stops flushing
+ * once collected, and loses the writes still staged then. Close the map to flush them.
+ * <p/>
+ * The map is thread safe for any backing map, e.g. a HashMap, as long as the backing map is not accessed directly
+ * unless it is thread safe itself. The map accesses it only under a lock, which also writes the batches one at a time,
+ * so reads of the backing map wait for a running flush. Iteration works on a snapshot of the backing entries taken
+ * under the lock. A staged write is dropped only after it has reached the backing map. A batch failing with an
+ * exception stays staged and is retried by the next flush. Null keys and values are not permitted.
+ */
+public class WriteBehindMap<K, V> extends AbstractMap<K, V> implements Closeable {
+    private static final Object TOMBSTONE = new Object();
+    private static final ScheduledExecutorService DEFAULT_FLUSHER = defaultFlusher();
+
+    private final Map<K, V> backingMap;
+    private final int maxPending;
+    private final ConcurrentMap<K, Object> staged = new ConcurrentHashMap<K, Object>();
+    private final Object flushLock = new Object();
+    private final ScheduledFuture<?> scheduledFlush;
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong coalescedWrites = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private volatile long flushes;
+    private volatile long flushedWrites;
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+
+    private WriteBehindMap(
+            Map<K, V> backingMap,
+            int maxPending,
+            long flushInterval,
+            TimeUnit unit,
+            ScheduledExecutorService flusher) {
+        this.backingMap = backingMap;
+        this.maxPending = maxPending;
+        FlushTask task = new FlushTask(this);
+        scheduledFlush = flusher.scheduleWithFixedDelay(task, flushInterval, flushInterval, unit);
+        task.scheduled = scheduledFlush;
+    }
+
+    /**
+     * Flushes on the default scheduler, a daemon thread shared by all maps.
+     *
+     * @param maxPending    number of staged keys at which the writing thread flushes them
+     * @param flushInterval delay between background flushes
+     */
+    public static <K, V> WriteBehindMap<K, V> create(
+            Map<K, V> backingMap,
+            int maxPending,
+            long flushInterval,
+            TimeUnit unit) {
+        return create(backingMap, maxPending, flushInterval, unit, DEFAULT_FLUSHER);
+    }
+
+    /**
+     * @param maxPending    number of staged keys at which the writing thread flushes them
+     * @param flushInterval delay between background flushes
+     * @param flusher       scheduler of the background flushes, which is not shut down by {@link #close()}
+     */
+    public static <K, V> WriteBehindMap<K, V> create(
+            Map<K, V> backingMap,
+            int maxPending,
+            long flushInterval,
+            TimeUnit unit,
+            ScheduledExecutorService flusher) {
+        checkNotNull(backingMap);
+        checkArgument(maxPending > 0, "maxPending has to be positive, was %s", maxPending);
+        checkArgument(flushInterval > 0, "flushInterval has to be positive, was %s", flushInterval);
+        checkNotNull(unit);
+        checkNotNull(flusher);
+        return new WriteBehindMap<K, V>(backingMap, maxPending, flushInterval, unit, flusher);
+    }
+
+    /**
+     * The map the staged writes are flushed to, e.g. to estimate its footprint. It does not see the staged writes.
+     */
+    public Map<K, V> getBackingMap() {
+        return backingMap;
+    }
+
+    @Override
+    public V get(Object key) {
+        Object value = staged.get(checkNotNull(key));
+        if (value == null) {
+            synchronized (flushLock) {
+                return backingMap.get(key);
+            }
+        }
+        return value == TOMBSTONE ? null : castValue(value);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Object value = staged.get(checkNotNull(key));
+        return value == null ? backingContainsKey(key) : value != TOMBSTONE;
+    }
+
+    /**
+     * Reads the previous value from the backing map unless the key is staged, see {@link #set}.
+     */
+    @Override
+    public V put(K key, V value) {
+        checkNotNull(key);
+        checkNotNull(value);
+        return stage(key, value, true);
+    }
+
+    /**
+     * Reads the backing map unless the key is staged, see {@link #delete}.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(Object key) {
+        checkNotNull(key);
+        // a key which is neither staged nor in the backing map cannot be of type K, and is not staged
+        if (!staged.containsKey(key) && !backingContainsKey(key)) {
+            return null;
+        }
+        return stage((K) key, TOMBSTONE, true);
+    }
+
+    /**
+     * Stages a put without reading the previous value.
+     */
+    public void set(K key, V value) {
+        checkNotNull(key);
+        checkNotNull(value);
+        stage(key, value, false);
+    }
+
+    /**
+     * Stages a remove without reading the backing map, so that a key absent from it is staged as well.
+     */
+    public void delete(K key) {
+        stage(checkNotNull(key), TOMBSTONE, false);
+    }
+
+    /**
+     * Stages the puts without reading the previous values, see {@link #set}.
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            set(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (flushLock) {
+            staged.clear();
+            backingMap.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        synchronized (flushLock) {
+            flush();
+            return backingMap.size();
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return WriteBehindMap.this.size();
+            }
+
+            @Override
+            public void clear() {
+                WriteBehindMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Writes the staged writes to the backing map, and returns once they have reached it.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            if (staged.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            int written = 0;
+            try {
+                List<Entry<K, Object>> batch = Lists.newArrayListWithCapacity(staged.size());
+                Map<K, V> puts = Maps.newLinkedHashMap();
+                for (Entry<K, Object> write : staged.entrySet()) {
+                    batch.add(Maps.immutableEntry(write.getKey(), write.getValue()));
+                }
+                for (Entry<K, Object> write : batch) {
+                    if (write.getValue() == TOMBSTONE) {
+                        backingMap.remove(write.getKey());
+                    } else {
+                        puts.put(write.getKey(), castValue(write.getValue()));
+                    }
+                }
+                backingMap.putAll(puts);
+                for (Entry<K, Object> write : batch) {
+                    // a write staged meanwhile replaced the value, and goes with the next batch
+                    staged.remove(write.getKey(), write.getValue());
+                }
+                written = batch.size();
+            } catch (RuntimeException e) {
+                failedFlushes.incrementAndGet();
+                throw e;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                flushes++;
+                flushedWrites += written;
+                lastFlushNanos = elapsed;
+                maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+            }
+        }
+    }
+
+    /**
+     * Stops the background flushes and flushes the staged writes.
+     */
+    @Override
+    public void close() {
+        scheduledFlush.cancel(false);
+        flush();
+    }
+
+    /**
+     * The number of staged keys, i.e. the depth of the write queue.
+     */
+    public int getPendingCount() {
+        return staged.size();
+    }
+
+    /**
+     * The number of puts and removes made through the map.
+     */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * The number of writes which replaced a staged write to the same key, and so never reached the backing map.
+     */
+    public long getCoalescedWriteCount() {
+        return coalescedWrites.get();
+    }
+
+    public long getFlushCount() {
+        return flushes;
+    }
+
+    /**
+     * The number of writes made to the backing map.
+     */
+    public long getFlushedWriteCount() {
+        return flushedWrites;
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushes.get();
+    }
+
+    public long getLastFlushLatency(TimeUnit unit) {
+        return unit.convert(lastFlushNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxFlushLatency(TimeUnit unit) {
+        return unit.convert(maxFlushNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private V stage(K key, Object value, boolean readPrevious) {
+        writes.incrementAndGet();
+        // read before staging, as a concurrent flush could write the new value to the backing map
+        V backingValue = null;
+        if (readPrevious && !staged.containsKey(key)) {
+            synchronized (flushLock) {
+                backingValue = backingMap.get(key);
+            }
+        }
+        Object previous = staged.put(key, value);
+        V previousValue;
+        if (previous == null) {
+            previousValue = backingValue;
+        } else {
+            coalescedWrites.incrementAndGet();
+            previousValue = previous == TOMBSTONE ? null : castValue(previous);
+        }
+        if (staged.size() >= maxPending) {
+            flush();
+        }
+        return previousValue;
+    }
+
+    private List<Entry<K, V>> backingSnapshot() {
+        synchronized (flushLock) {
+            List<Entry<K, V>> snapshot = Lists.newArrayListWithCapacity(backingMap.size());
+            for (Entry<K, V> entry : backingMap.entrySet()) {
+                snapshot.add(Maps.immutableEntry(entry.getKey(), entry.getValue()));
+            }
+            return snapshot;
+        }
+    }
+
+    private boolean backingContainsKey(Object key) {
+        synchronized (flushLock) {
+            return backingMap.containsKey(key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V castValue(Object value) {
+        return (V) value;
+    }
+
+    private static ScheduledExecutorService defaultFlusher() {
+        ScheduledThreadPoolExecutor flusher = new ScheduledThreadPoolExecutor(
+                1, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("write-behind-map-flush-%d").build()
+        );
+        flusher.setRemoveOnCancelPolicy(true);
+        return flusher;
+    }
+
+    // references the map weakly, and cancels itself once the map has been collected
+    private static final class FlushTask implements Runnable {
+        private final WeakReference<WriteBehindMap<?, ?>> map;
+        private volatile ScheduledFuture<?> scheduled;
+
+        private FlushTask(WriteBehindMap<?, ?> map) {
+            this.map = new WeakReference<WriteBehindMap<?, ?>>(map);
+        }
+
+        @Override
+        public void run() {
+            WriteBehindMap<?, ?> writeBehindMap = map.get();
+            if (writeBehindMap == null) {
+                ScheduledFuture<?> future = scheduled;
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return;
+            }
+            try {
+                writeBehindMap.flush();
+            } catch (RuntimeException ignored) {
+                // counted by flush(), the writes stay staged until the next attempt
+            }
+        }
+    }
+
+    /**
+     * Iterates over a snapshot of the backing entries with the staged writes applied, then over the staged keys absent
+     * from the backing map.
+     */
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        private final Iterator<Entry<K, V>> backingIterator = backingSnapshot().iterator();
+        private Iterator<Entry<K, Object>> stagedIterator;
+        private Entry<K, V> next;
+        private K lastKey;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && backingIterator.hasNext()) {
+                Entry<K, V> backingEntry = backingIterator.next();
+                Object value = staged.get(backingEntry.getKey());
+                if (value == null) {
+                    next = new WriteBehindEntry(backingEntry.getKey(), backingEntry.getValue());
+                } else if (value != TOMBSTONE) {
+                    next = new WriteBehindEntry(backingEntry.getKey(), castValue(value));
+                }
+            }
+            if (next == null && stagedIterator == null) {
+                stagedIterator = staged.entrySet().iterator();
+            }
+            while (next == null && stagedIterator.hasNext()) {
+                Entry<K, Object> write = stagedIterator.next();
+                if (write.getValue() != TOMBSTONE && !backingContainsKey(write.getKey())) {
+                    next = new WriteBehindEntry(write.getKey(), castValue(write.getValue()));
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<K, V> result = next;
+            next = null;
+            lastKey = result.getKey();
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            checkState(lastKey != null, "next() has not been called, or remove() has already been called");
+            delete(lastKey);
+            lastKey = null;
+        }
+    }
+
+    private final class WriteBehindEntry extends SimpleEntry<K, V> {
+        private static final long serialVersionUID = 0L;
+
+        private WriteBehindEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            set(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
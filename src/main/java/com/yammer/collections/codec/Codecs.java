@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.codec;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Converter;
+import com.google.common.base.Equivalence;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Bijective codecs for common types, usable directly with the create() factories of the transforming views:
+ * <pre>
+ * Map&lt;String, Long&gt; map = TransformingMap.create(
+ *         backingMap,
+ *         Codecs.stringToUtf8(), Codecs.stringToUtf8().reverse(),
+ *         Codecs.longToBytes(), Codecs.longToBytes().reverse());
+ * </pre>
+ * The codecs do not allocate beyond their result. Arrays do not implement equals and hashCode, so byte[] keys need a
+ * backing which compares them by content, e.g. a TreeMap ordered by UnsignedBytes.lexicographicalComparator().
+ */
+public final class Codecs {
+    private Codecs() {
+    }
+
+    /**
+     * Encodes longs as 8 big-endian bytes.
+     */
+    public static Converter<Long, byte[]> longToBytes() {
+        return LongToBytes.INSTANCE;
+    }
+
+    /**
+     * Encodes integers as 4 big-endian bytes.
+     */
+    public static Converter<Integer, byte[]> intToBytes() {
+        return IntToBytes.INSTANCE;
+    }
+
+    /**
+     * Encodes strings as UTF-8 bytes. Encoding goes through a thread local scratch buffer, so that the only allocation
+     * is the exactly sized result. Unpaired surrogates are encoded as '?', as String.getBytes does.
+     */
+    public static Converter<String, byte[]> stringToUtf8() {
+        return StringToUtf8.INSTANCE;
+    }
+
+    /**
+     * Compares strings with their UTF-8 encoding as {@link #stringToUtf8()} produces it, hashing like
+     * {@link #byteArrayEquivalence()}. Probing a {@code ProbeableHashMap} of UTF-8 keys with it does not allocate.
+     */
+    public static HeterogeneousLookup<String, byte[]> utf8Lookup() {
+        return Utf8Lookup.INSTANCE;
+    }
+
+    /**
+     * Compares byte arrays by content, for hash structures holding encoded keys.
+     */
+    public static Equivalence<byte[]> byteArrayEquivalence() {
+        return ByteArrayEquivalence.INSTANCE;
+    }
+
+    /**
+     * Encodes UUIDs as 16 bytes, most significant bits first.
+     */
+    public static Converter<UUID, byte[]> uuidToBytes() {
+        return UuidToBytes.INSTANCE;
+    }
+
+    /**
+     * Encodes enum constants as their ordinals. Decoding looks the constant up in a cached array.
+     */
+    public static <E extends Enum<E>> Converter<E, Integer> enumToOrdinal(Class<E> enumClass) {
+        return new EnumToOrdinal<E>(enumClass);
+    }
+
+    /**
+     * Encodes dates as milliseconds since the epoch.
+     */
+    public static Converter<Date, Long> dateToEpochMillis() {
+        return DateToEpochMillis.INSTANCE;
+    }
+
+    /**
+     * Returns a codec applying first and then second when encoding, and the reverse of both in the opposite order when
+     * decoding.
+     */
+    public static <A, B, C> Converter<A, C> chain(Converter<A, B> first, Converter<B, C> second) {
+        return checkNotNull(first).andThen(checkNotNull(second));
+    }
+
+    public static <A, B, C, D> Converter<A, D> chain(
+            Converter<A, B> first,
+            Converter<B, C> second,
+            Converter<C, D> third) {
+        return chain(chain(first, second), third);
+    }
+
+    private static final class LongToBytes extends Converter<Long, byte[]> {
+        private static final LongToBytes INSTANCE = new LongToBytes();
+
+        @Override
+        protected byte[] doForward(Long value) {
+            return Longs.toByteArray(value);
+        }
+
+        @Override
+        protected Long doBackward(byte[] bytes) {
+            return Longs.fromByteArray(bytes);
+        }
+    }
+
+    private static final class IntToBytes extends Converter<Integer, byte[]> {
+        private static final IntToBytes INSTANCE = new IntToBytes();
+
+        @Override
+        protected byte[] doForward(Integer value) {
+            return Ints.toByteArray(value);
+        }
+
+        @Override
+        protected Integer doBackward(byte[] bytes) {
+            return Ints.fromByteArray(bytes);
+        }
+    }
+
+    private static final class StringToUtf8 extends Converter<String, byte[]> {
+        private static final StringToUtf8 INSTANCE = new StringToUtf8();
+        // larger strings are encoded into a temporary buffer, so that no thread retains a huge scratch buffer
+        private static final int MAX_SCRATCH_LENGTH = 1 << 16;
+        private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+            @Override
+            protected byte[] initialValue() {
+                return new byte[256];
+            }
+        };
+
+        @Override
+        protected byte[] doForward(String value) {
+            int maxLength = value.length() * 3;
+            byte[] buffer = SCRATCH.get();
+            if (buffer.length < maxLength) {
+                buffer = new byte[maxLength];
+                if (maxLength <= MAX_SCRATCH_LENGTH) {
+                    SCRATCH.set(buffer);
+                }
+            }
+            return Arrays.copyOf(buffer, Utf8.encode(value, buffer));
+        }
+
+        @Override
+        protected String doBackward(byte[] bytes) {
+            return new String(bytes, Charsets.UTF_8);
+        }
+    }
+
+    private static final class Utf8Lookup implements HeterogeneousLookup<String, byte[]> {
+        private static final Utf8Lookup INSTANCE = new Utf8Lookup();
+
+        @Override
+        public int hash(String value) {
+            return Utf8.hash(value);
+        }
+
+        @Override
+        public boolean matches(String value, byte[] encodedKey) {
+            return Utf8.matches(value, encodedKey);
+        }
+    }
+
+    private static final class ByteArrayEquivalence extends Equivalence<byte[]> {
+        private static final ByteArrayEquivalence INSTANCE = new ByteArrayEquivalence();
+
+        @Override
+        protected boolean doEquivalent(byte[] a, byte[] b) {
+            return Arrays.equals(a, b);
+        }
+
+        @Override
+        protected int doHash(byte[] bytes) {
+            return Arrays.hashCode(bytes);
+        }
+    }
+
+    private static final class UuidToBytes extends Converter<UUID, byte[]> {
+        private static final UuidToBytes INSTANCE = new UuidToBytes();
+
+        @Override
+        protected byte[] doForward(UUID value) {
+            byte[] bytes = new byte[16];
+            writeLong(bytes, 0, value.getMostSignificantBits());
+            writeLong(bytes, 8, value.getLeastSignificantBits());
+            return bytes;
+        }
+
+        @Override
+        protected UUID doBackward(byte[] bytes) {
+            checkArgument(bytes.length == 16, "expected 16 bytes, got %s", bytes.length);
+            return new UUID(readLong(bytes, 0), readLong(bytes, 8));
+        }
+
+        private static void writeLong(byte[] bytes, int offset, long value) {
+            for (int i = 7; i >= 0; i--) {
+                bytes[offset + i] = (byte) value;
+                value >>= 8;
+            }
+        }
+
+        private static long readLong(byte[] bytes, int offset) {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = value << 8 | bytes[offset + i] & 0xFF;
+            }
+            return value;
+        }
+    }
+
+    private static final class EnumToOrdinal<E extends Enum<E>> extends Converter<E, Integer> {
+        private final E[] constants;
+
+        private EnumToOrdinal(Class<E> enumClass) {
+            constants = checkNotNull(enumClass).getEnumConstants();
+        }
+
+        @Override
+        protected Integer doForward(E value) {
+            return value.ordinal();
+        }
+
+        @Override
+        protected E doBackward(Integer ordinal) {
+            return constants[ordinal];
+        }
+    }
+
+    private static final class DateToEpochMillis extends Converter<Date, Long> {
+        private static final DateToEpochMillis INSTANCE = new DateToEpochMillis();
+
+        @Override
+        protected Long doForward(Date value) {
+            return value.getTime();
+        }
+
+        @Override
+        protected Date doBackward(Long millis) {
+            return new Date(millis);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.codec;
+
+import com.google.common.base.Converter;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Multisets;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A codec compressing byte arrays with the JDK Deflater, meant as the value codec of transforming views whose values
+ * dominate the retained heap. Chain it after a codec producing bytes:
+ * <pre>
+ * DeflateCodec compression = DeflateCodec.create(128);
+ * Map&lt;String, String&gt; map = TransformingMap.create(
+ *         backingMap,
+ *         Functions.&lt;String&gt;identity(), Functions.&lt;String&gt;identity(),
+ *         Codecs.chain(Codecs.stringToUtf8(), compression),
+ *         Codecs.chain(Codecs.stringToUtf8(), compression).reverse());
+ * </pre>
+ * Values shorter than the threshold, and values which do not shrink, are stored raw behind a one byte header.
+ * Compressed values carry their original length, so that they are inflated into an exactly sized array.
+ * <p/>
+ * Short values compress poorly on their own. A preset dictionary of content typical for the values, e.g. one built with
+ * {@link #dictionaryOf(Iterable, int)}, improves their compression considerably; values have to be decoded with the
+ * dictionary they were encoded with.
+ * <p/>
+ * Each thread reuses a deflater and an inflater of its own, reset before every call, as creating them for every value
+ * costs more than compressing a short value. They hold native memory until the codec is closed, so call
+ * {@link #close()} once the codec is no longer used. The codec counts the bytes it encodes, see
+ * {@link #getCompressionRatio()}.
+ */
+public final class DeflateCodec extends Converter<byte[], byte[]> implements Closeable {
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final int DEFLATED_HEADER_LENGTH = 5;
+    // deflate encodes a match of at most 258 bytes in no less than two bits
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    private final int threshold;
+    private final byte[] dictionary;
+    private final AtomicLong inputBytes = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+    // every deflater and inflater handed to a thread, so that close can end them
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Deflater> threadDeflater = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            Deflater deflater = new Deflater();
+            deflaters.add(deflater);
+            return deflater;
+        }
+    };
+    private final ThreadLocal<Inflater> threadInflater = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            Inflater inflater = new Inflater();
+            inflaters.add(inflater);
+            return inflater;
+        }
+    };
+    private volatile boolean closed;
+
+    private DeflateCodec(int threshold, byte[] dictionary) {
+        this.threshold = threshold;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Creates a codec compressing values of at least threshold bytes.
+     */
+    public static DeflateCodec create(int threshold) {
+        checkArgument(threshold >= 0, "threshold cannot be negative, was %s", threshold);
+        return new DeflateCodec(threshold, null);
+    }
+
+    /**
+     * Creates a codec compressing values of at least threshold bytes with a preset dictionary.
+     */
+    public static DeflateCodec create(int threshold, byte[] dictionary) {
+        checkArgument(threshold >= 0, "threshold cannot be negative, was %s", threshold);
+        return new DeflateCodec(threshold, checkNotNull(dictionary).clone());
+    }
+
+    /**
+     * Builds a dictionary of at most maxLength bytes from sample values. Deflate finds matches in the dictionary more
+     * cheaply the closer they are to its end, so distinct samples are appended in ascending order of frequency. When
+     * the samples do not fit, the least frequent ones are left out.
+     */
+    public static byte[] dictionaryOf(Iterable<byte[]> samples, int maxLength) {
+        checkArgument(maxLength > 0, "maxLength has to be positive, was %s", maxLength);
+        Multiset<ByteBuffer> counts = HashMultiset.create();
+        for (byte[] sample : samples) {
+            counts.add(ByteBuffer.wrap(sample));
+        }
+
+        // fills the dictionary from its end, so that the most frequent samples end up last
+        byte[] dictionary = new byte[maxLength];
+        int start = maxLength;
+        for (ByteBuffer sample : Multisets.copyHighestCountFirst(counts).elementSet()) {
+            int length = sample.remaining();
+            if (length <= start) {
+                start -= length;
+                sample.duplicate().get(dictionary, start, length);
+            }
+        }
+        return Arrays.copyOfRange(dictionary, start, maxLength);
+    }
+
+    /**
+     * Returns the number of bytes passed for encoding divided by the number of bytes produced, i.e. the factor by which
+     * the encoded values are smaller. 1 when nothing has been encoded yet.
+     */
+    public double getCompressionRatio() {
+        long output = outputBytes.get();
+        return output == 0 ? 1 : (double) inputBytes.get() / output;
+    }
+
+    public long getInputBytes() {
+        return inputBytes.get();
+    }
+
+    public long getOutputBytes() {
+        return outputBytes.get();
+    }
+
+    /**
+     * Ends the deflaters and inflaters of all threads, after which the codec cannot be used. It must not be called
+     * while values are converted.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Deflater deflater = deflaters.poll(); deflater != null; deflater = deflaters.poll()) {
+            deflater.end();
+        }
+        for (Inflater inflater = inflaters.poll(); inflater != null; inflater = inflaters.poll()) {
+            inflater.end();
+        }
+    }
+
+    @Override
+    protected byte[] doForward(byte[] value) {
+        byte[] encoded = value.length < threshold ? null : deflate(value);
+        if (encoded == null) {
+            encoded = new byte[value.length + 1];
+            encoded[0] = RAW;
+            System.arraycopy(value, 0, encoded, 1, value.length);
+        }
+        inputBytes.addAndGet(value.length);
+        outputBytes.addAndGet(encoded.length);
+        return encoded;
+    }
+
+    @Override
+    protected byte[] doBackward(byte[] encoded) {
+        checkArgument(encoded.length > 0, "encoded value is empty");
+        if (encoded[0] == RAW) {
+            return Arrays.copyOfRange(encoded, 1, encoded.length);
+        }
+        checkArgument(encoded[0] == DEFLATED && encoded.length >= DEFLATED_HEADER_LENGTH,
+                "encoded value has an invalid header");
+        return inflate(encoded);
+    }
+
+    /**
+     * Returns null when the deflated value would not be smaller than the raw one.
+     */
+    private byte[] deflate(byte[] value) {
+        checkState(!closed, "codec is closed");
+        Deflater deflater = threadDeflater.get();
+        // resetting before rather than after the use also recovers from a call which failed half way
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        // anything longer than the raw form is of no use, so the output is capped at its length
+        byte[] buffer = new byte[value.length + 1];
+        int length = DEFLATED_HEADER_LENGTH;
+        deflater.setInput(value);
+        deflater.finish();
+        while (!deflater.finished() && length < buffer.length) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        buffer[0] = DEFLATED;
+        ByteBuffer.wrap(buffer, 1, 4).putInt(value.length);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private byte[] inflate(byte[] encoded) {
+        int length = ByteBuffer.wrap(encoded, 1, 4).getInt();
+        int deflatedLength = encoded.length - DEFLATED_HEADER_LENGTH;
+        checkArgument(length >= 0 && length <= (long) deflatedLength * MAX_DEFLATE_RATIO,
+                "encoded value has an invalid length %s", length);
+        byte[] value = new byte[length];
+        int inflated = 0;
+        checkState(!closed, "codec is closed");
+        Inflater inflater = threadInflater.get();
+        inflater.reset();
+        try {
+            inflater.setInput(encoded, DEFLATED_HEADER_LENGTH, deflatedLength);
+            while (!inflater.finished()) {
+                if (inflater.needsDictionary()) {
+                    checkArgument(dictionary != null, "encoded value requires a dictionary");
+                    inflater.setDictionary(dictionary);
+                }
+                int count = inflater.inflate(value, inflated, value.length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflated == value.length) && !inflater.finished()) {
+                    throw new IllegalArgumentException("encoded value is truncated or longer than its header states");
+                }
+                inflated += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("encoded value is corrupted", e);
+        }
+        checkArgument(inflated == length, "encoded value is shorter than its header states");
+        return value;
+    }
+}
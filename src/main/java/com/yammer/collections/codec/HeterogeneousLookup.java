@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.codec;
+
+/**
+ * Compares values with the encoded form a codec gives them, without encoding them. Lets hash structures holding encoded
+ * keys be probed with unencoded ones, so that lookups do not allocate the encoded probe.
+ * <p/>
+ * hash has to return the hash code the structure computes for the encoded value, and matches has to be true exactly
+ * when the encoded value equals the given encoded key.
+ */
+public interface HeterogeneousLookup<Q, K> {
+    int hash(Q value);
+
+    boolean matches(Q value, K encodedKey);
+}
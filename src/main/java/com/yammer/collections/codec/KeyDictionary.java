@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.codec;
+
+import com.google.common.base.Converter;
+import com.google.common.base.Function;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A codec assigning dense int ids to keys, in the order the keys are first encoded. Ids are never reassigned or
+ * released, so a dictionary suits key sets of bounded size, e.g. the column keys of a table, and can be shared by any
+ * number of views.
+ * <p/>
+ * Each id is represented by a single Integer instance, so backing structures holding many copies of an id share it.
+ * Encoding a known key and decoding are lock free, assigning a new id takes a lock.
+ * <p/>
+ * {@link #lookup()} encodes without assigning ids, for queries which should not grow the dictionary.
+ */
+public final class KeyDictionary<K> extends Converter<K, Integer> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ConcurrentMap<K, Integer> ids = Maps.newConcurrentMap();
+    private final Function<K, Integer> lookup = new Function<K, Integer>() {
+        @Override
+        public Integer apply(K key) {
+            return key == null ? null : ids.get(key);
+        }
+    };
+    // written under the lock, and published to lock free readers through ids
+    private volatile Object[] keys = new Object[INITIAL_CAPACITY];
+    private int size;
+
+    private KeyDictionary() {
+    }
+
+    public static <K> KeyDictionary<K> create() {
+        return new KeyDictionary<K>();
+    }
+
+    /**
+     * Returns the id of the key, assigning the next free id to keys which are not in the dictionary yet.
+     */
+    public int idOf(K key) {
+        return encode(key);
+    }
+
+    /**
+     * Returns the key with the given id.
+     *
+     * @throws IllegalArgumentException when no key has the id
+     */
+    @SuppressWarnings("unchecked")
+    public K keyOf(int id) {
+        Object[] currentKeys = keys;
+        K key = id >= 0 && id < currentKeys.length ? (K) currentKeys[id] : null;
+        checkArgument(key != null, "no key has the id %s", id);
+        return key;
+    }
+
+    /**
+     * Returns a function mapping keys to their ids, and keys which are not in the dictionary to null.
+     */
+    public Function<K, Integer> lookup() {
+        return lookup;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    @Override
+    protected Integer doForward(K key) {
+        return encode(key);
+    }
+
+    @Override
+    protected K doBackward(Integer id) {
+        return keyOf(id);
+    }
+
+    private Integer encode(K key) {
+        Integer id = ids.get(checkNotNull(key));
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(key);
+            if (id == null) {
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, size * 2);
+                }
+                keys[size] = key;
+                id = size++;
+                ids.put(key, id);
+            }
+            return id;
+        }
+    }
+}
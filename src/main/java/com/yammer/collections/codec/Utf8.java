@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.codec;
+
+/**
+ * Allocation free UTF-8 encoding, producing the same bytes as String.getBytes(UTF_8), and hashing and comparison of
+ * the encoded form without producing it.
+ */
+final class Utf8 {
+    private static final byte REPLACEMENT = (byte) '?';
+    private static final int[] LEADING_BYTES = {0, 0, 0xC0, 0xE0, 0xF0};
+
+    private Utf8() {
+    }
+
+    /**
+     * Encodes value into buffer, which has to hold at least 3 bytes per char, and returns the number of bytes written.
+     */
+    static int encode(CharSequence value, byte[] buffer) {
+        int position = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | c >> 6);
+                buffer[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | codePoint >> 18);
+                    buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    buffer[position++] = (byte) (0x80 | codePoint & 0x3F);
+                } else {
+                    buffer[position++] = REPLACEMENT;
+                }
+            } else {
+                buffer[position++] = (byte) (0xE0 | c >> 12);
+                buffer[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Returns the hash code of the encoded bytes, as computed by Arrays.hashCode, without encoding value.
+     */
+    static int hash(CharSequence value) {
+        int hash = 1;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            int codePoint = codePointAt(value, i);
+            if (codePoint > Character.MAX_VALUE) {
+                i++;
+            }
+            int byteCount = byteCount(codePoint);
+            for (int j = 0; j < byteCount; j++) {
+                hash = 31 * hash + byteAt(codePoint, byteCount, j);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Tells whether bytes are the encoding of value, without encoding value.
+     */
+    static boolean matches(CharSequence value, byte[] bytes) {
+        int position = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            int codePoint = codePointAt(value, i);
+            if (codePoint > Character.MAX_VALUE) {
+                i++;
+            }
+            int byteCount = byteCount(codePoint);
+            if (position + byteCount > bytes.length) {
+                return false;
+            }
+            for (int j = 0; j < byteCount; j++) {
+                if (bytes[position++] != byteAt(codePoint, byteCount, j)) {
+                    return false;
+                }
+            }
+        }
+        return position == bytes.length;
+    }
+
+    // the code point starting at index, or the replacement for an unpaired surrogate
+    private static int codePointAt(CharSequence value, int index) {
+        char c = value.charAt(index);
+        if (!Character.isSurrogate(c)) {
+            return c;
+        }
+        if (Character.isHighSurrogate(c) && index + 1 < value.length() &&
+                Character.isLowSurrogate(value.charAt(index + 1))) {
+            return Character.toCodePoint(c, value.charAt(index + 1));
+        }
+        return REPLACEMENT;
+    }
+
+    private static int byteCount(int codePoint) {
+        if (codePoint < 0x80) {
+            return 1;
+        }
+        if (codePoint < 0x800) {
+            return 2;
+        }
+        return codePoint <= Character.MAX_VALUE ? 3 : 4;
+    }
+
+    private static byte byteAt(int codePoint, int byteCount, int index) {
+        if (byteCount == 1) {
+            return (byte) codePoint;
+        }
+        int shift = 6 * (byteCount - 1 - index);
+        if (index == 0) {
+            return (byte) (LEADING_BYTES[byteCount] | codePoint >> shift);
+        }
+        return (byte) (0x80 | codePoint >> shift & 0x3F);
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.yammer.collections.transforming.TransformationUtil.safeTransform;
+
+/**
+ * Asynchronous counterpart of {@link TransformingMap}.
+ * <p/>
+ * Lookups in the backing map happen on the calling thread, the conversion of the found values with fromValueFunction
+ * is run on the supplied executor. Puts are run on the executor as a whole, so the backing map has to be thread safe
+ * when putAsync is used.
+ * <p/>
+ * At most maxInFlight conversions are submitted to the executor at any given time. Conversions beyond that limit are
+ * queued, and submitted as the running ones complete, so callers never block. The future of a conversion which the
+ * executor rejects fails with the RejectedExecutionException, whether it was submitted directly or had been queued.
+ * <p/>
+ * The same bijection requirements as for {@link TransformingMap} apply.
+ */
+public class AsyncTransformingMap<K, V, K1, V1> {
+    private final Map<K1, V1> backingMap;
+    private final Function<K, K1> toKeyFunction;
+    private final Function<V, V1> toValueFunction;
+    private final Function<V1, V> fromValueFunction;
+    private final Executor executor;
+    private final Semaphore inFlight;
+    private final Queue<Task<?>> queued = new ConcurrentLinkedQueue<Task<?>>();
+    private final Map<K, V> synchronousView;
+
+    private AsyncTransformingMap(
+            Map<K1, V1> backingMap,
+            Function<K, K1> toKeyFunction,
+            Function<K1, K> fromKeyFunction,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction,
+            Executor executor,
+            int maxInFlight
+    ) {
+        checkArgument(maxInFlight > 0, "maxInFlight has to be positive");
+        this.backingMap = checkNotNull(backingMap);
+        this.toKeyFunction = checkNotNull(toKeyFunction);
+        this.toValueFunction = checkNotNull(toValueFunction);
+        this.fromValueFunction = checkNotNull(fromValueFunction);
+        this.executor = checkNotNull(executor);
+        inFlight = new Semaphore(maxInFlight);
+        synchronousView = TransformingMap.create(
+                backingMap,
+                toKeyFunction, checkNotNull(fromKeyFunction),
+                toValueFunction, fromValueFunction
+        );
+    }
+
+    public static <K, V, K1, V1> AsyncTransformingMap<K, V, K1, V1> create(
+            Map<K1, V1> backingMap,
+            Function<K, K1> toKeyFunction,
+            Function<K1, K> fromKeyFunction,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction,
+            Executor executor,
+            int maxInFlight
+    ) {
+        return new AsyncTransformingMap<K, V, K1, V1>(
+                backingMap,
+                toKeyFunction, fromKeyFunction,
+                toValueFunction, fromValueFunction,
+                executor, maxInFlight
+        );
+    }
+
+    /**
+     * The synchronous {@link TransformingMap} view of the same backing map.
+     */
+    public Map<K, V> asMap() {
+        return synchronousView;
+    }
+
+    @SuppressWarnings("unchecked")
+    public ListenableFuture<V> getAsync(Object key) {
+        final V1 backingValue;
+        try {
+            backingValue = key == null ? null : backingMap.get(safeTransform((K) key, toKeyFunction));
+        } catch (ClassCastException ignored) {
+            return Futures.immediateFuture(null);
+        }
+        if (backingValue == null) {
+            return Futures.immediateFuture(null);
+        }
+
+        return submit(new Callable<V>() {
+            @Override
+            public V call() {
+                return fromValueFunction.apply(backingValue);
+            }
+        });
+    }
+
+    /**
+     * Returns a future of a map containing the mappings found for the given keys. Keys without a mapping are not
+     * present in the resulting map.
+     */
+    public ListenableFuture<Map<K, V>> getAllAsync(Iterable<? extends K> keys) {
+        final Set<K> distinctKeys = Sets.newLinkedHashSet(checkNotNull(keys));
+        List<ListenableFuture<V>> values = Lists.newArrayListWithCapacity(distinctKeys.size());
+        for (K key : distinctKeys) {
+            values.add(getAsync(key));
+        }
+
+        return Futures.transform(
+                Futures.allAsList(values),
+                new Function<List<V>, Map<K, V>>() {
+                    @Override
+                    public Map<K, V> apply(List<V> input) {
+                        ImmutableMap.Builder<K, V> result = ImmutableMap.builder();
+                        Iterator<V> valueIterator = input.iterator();
+                        for (K key : distinctKeys) {
+                            V value = valueIterator.next();
+                            if (value != null) {
+                                result.put(key, value);
+                            }
+                        }
+                        return result.build();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Returns a future of the previous value associated with the key, or null if there was none.
+     */
+    public ListenableFuture<V> putAsync(final K key, final V value) {
+        checkNotNull(key);
+        checkNotNull(value);
+
+        return submit(new Callable<V>() {
+            @Override
+            public V call() {
+                return safeTransform(
+                        backingMap.put(toKeyFunction.apply(key), toValueFunction.apply(value)),
+                        fromValueFunction
+                );
+            }
+        });
+    }
+
+    private <T> ListenableFuture<T> submit(Callable<T> callable) {
+        Task<T> task = new Task<T>(callable);
+        if (inFlight.tryAcquire()) {
+            dispatch(task);
+        } else {
+            queued.add(task);
+            // a conversion may have completed since the permit was tried, with nothing left to submit the queued ones
+            dispatchQueued();
+        }
+        return task.future;
+    }
+
+    /**
+     * Submits a task holding one of the permits, which is released, and the next queued task submitted, once it
+     * completes. A rejected task releases its permit and fails with the RejectedExecutionException.
+     */
+    private void dispatch(final Task<?> task) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        inFlight.release();
+                        dispatchQueued();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            task.future.setException(e);
+        }
+    }
+
+    private void dispatchQueued() {
+        while (!queued.isEmpty() && inFlight.tryAcquire()) {
+            Task<?> task = queued.poll();
+            if (task == null) {
+                inFlight.release();
+            } else {
+                dispatch(task);
+            }
+        }
+    }
+
+    private static final class Task<T> {
+        private final Callable<T> callable;
+        private final SettableFuture<T> future = SettableFuture.create();
+
+        private Task(Callable<T> callable) {
+            this.callable = callable;
+        }
+
+        void run() {
+            // a future cancelled by its caller needs no conversion
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.set(callable.call());
+            } catch (Throwable t) {
+                future.setException(t);
+            }
+        }
+    }
+}
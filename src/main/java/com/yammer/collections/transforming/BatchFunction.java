@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+
+import java.util.List;
+
+/**
+ * A function which can transform many inputs at once, for codecs with a setup cost worth sharing between elements,
+ * e.g. a decompression context or parser state.
+ * <p/>
+ * When the fromFunction of a {@link TransformingCollection} or {@link TransformingSet} is a BatchFunction, their
+ * iterators pull chunks of {@link #getBatchSize()} backing elements and transform each chunk with a single call to
+ * applyAll, and so does toArray for slices of the backing elements.
+ * <p/>
+ * Like any function of a view, apply and applyAll are called concurrently when the view is read from several threads,
+ * and the snapshots of {@link TransformingViews} call them from several threads for large views. Setup state such as a
+ * decompression context has to be created per call, or be thread confined, e.g. in a ThreadLocal.
+ */
+public interface BatchFunction<F, T> extends Function<F, T> {
+    /**
+     * Returns the results of applying the function to each of the inputs, in the same order. The inputs are never null,
+     * null backing elements are transformed to null without calling the function. The returned list is not modified by
+     * the caller, and must not change when inputs is modified later.
+     */
+    List<T> applyAll(List<F> inputs);
+
+    /**
+     * The number of elements the iterators of the views pull from the backing collection and pass to a single applyAll
+     * call. Larger batches amortize the setup cost better, at the cost of transforming elements which an iteration
+     * stopped early never returns. Has to be positive.
+     */
+    int getBatchSize();
+}
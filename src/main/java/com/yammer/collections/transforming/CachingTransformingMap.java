@@ -0,0 +1,462 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link TransformingMap} which keeps the decoded values of frequently read keys, for backing maps from which every
+ * read has to decode, e.g. maps off the heap or on disk.
+ * <p/>
+ * At most maximumSize values are cached, under a W-TinyLFU policy: new values enter a small LRU window, and a value
+ * leaving the window is admitted to the main segmented LRU only when a frequency sketch estimates it to be read more
+ * often than the value it would evict. Thus one-off reads, e.g. scans, do not displace the hot keys.
+ * <p/>
+ * Writes through the map invalidate the cached value of the key, writes made directly to the backing map are not
+ * seen until the value is evicted. Iteration, size() and the other bulk operations go to the backing map; iterating the
+ * keys does not decode any value, and the entries decode their values only when asked for them. The map is
+ * thread safe when the backing map is; the cache is guarded by a lock, and values are decoded outside of it.
+ * <p/>
+ * The same bijection requirements as for {@link TransformingMap} apply.
+ */
+public class CachingTransformingMap<K, V, K1, V1> extends AbstractMap<K, V> {
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final Map<K, V> map;
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+    private final FrequencySketch sketch;
+    // access ordered, least recently used first
+    private final LinkedHashMap<Object, V> window = accessOrdered();
+    private final LinkedHashMap<Object, V> probation = accessOrdered();
+    private final LinkedHashMap<Object, V> protectedSegment = accessOrdered();
+    // the token of the latest load of each key, dropped by writes to the key so that the loaded value is not admitted
+    private final Map<Object, Object> loads = Maps.newHashMap();
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private CachingTransformingMap(Map<K, V> map, int maximumSize) {
+        this.map = map;
+        windowCapacity = Math.max(1, maximumSize * WINDOW_PERCENT / 100);
+        mainCapacity = maximumSize - windowCapacity;
+        protectedCapacity = mainCapacity * PROTECTED_PERCENT / 100;
+        sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * @param maximumSize the maximum number of cached values
+     */
+    public static <K, V, K1, V1> CachingTransformingMap<K, V, K1, V1> create(
+            Map<K1, V1> backingMap,
+            Function<K, K1> toKeyFunction,
+            Function<K1, K> fromKeyFunction,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction,
+            int maximumSize
+    ) {
+        checkArgument(maximumSize > 0, "maximumSize has to be positive, was %s", maximumSize);
+        return new CachingTransformingMap<K, V, K1, V1>(
+                TransformingMap.create(
+                        checkNotNull(backingMap),
+                        toKeyFunction, fromKeyFunction,
+                        toValueFunction, fromValueFunction
+                ),
+                maximumSize
+        );
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            return map.get(null);
+        }
+        Object load;
+        synchronized (this) {
+            sketch.increment(key);
+            V value = getCached(key);
+            if (value != null) {
+                hits++;
+                return value;
+            }
+            misses++;
+            load = new Object();
+            loads.put(key, load);
+        }
+
+        V value = null;
+        try {
+            value = map.get(key);
+        } finally {
+            synchronized (this) {
+                // a write to the key, or a later load of it, since the load started may have made the value stale
+                if (loads.get(key) == load) {
+                    loads.remove(key);
+                    if (value != null && !isCached(key)) {
+                        admit(key, value);
+                    }
+                }
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        synchronized (this) {
+            if (key != null && isCached(key)) {
+                return true;
+            }
+        }
+        return map.containsKey(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        try {
+            return map.put(key, value);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        try {
+            return map.remove(key);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        try {
+            map.clear();
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator(map.entrySet().iterator());
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+
+            @Override
+            public void clear() {
+                CachingTransformingMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Iterates over the keys of the backing map without decoding its values.
+     */
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new KeyIterator(map.keySet().iterator());
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                try {
+                    return map.keySet().remove(o);
+                } finally {
+                    invalidate(o);
+                }
+            }
+
+            @Override
+            public void clear() {
+                CachingTransformingMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * The number of cached values.
+     */
+    public synchronized int getCachedCount() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * The share of reads served from the cache, or 1 when there were none.
+     */
+    public synchronized double getHitRate() {
+        long reads = hits + misses;
+        return reads == 0 ? 1.0 : (double) hits / reads;
+    }
+
+    /**
+     * The number of values dropped from the cache to make room, not counting invalidations by writes.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /* package */ Map<K, V> getMap() {
+        return map;
+    }
+
+    private V getCached(Object key) {
+        // get() moves the entry to the back of its access ordered segment
+        V value = window.get(key);
+        if (value != null) {
+            return value;
+        }
+        value = protectedSegment.get(key);
+        if (value != null) {
+            return value;
+        }
+        value = probation.remove(key);
+        if (value != null) {
+            protectedSegment.put(key, value);
+            if (protectedSegment.size() > protectedCapacity) {
+                Entry<Object, V> demoted = removeEldest(protectedSegment);
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+        }
+        return value;
+    }
+
+    private boolean isCached(Object key) {
+        return window.containsKey(key) || probation.containsKey(key) || protectedSegment.containsKey(key);
+    }
+
+    private void admit(Object key, V value) {
+        window.put(key, value);
+        if (window.size() <= windowCapacity) {
+            return;
+        }
+        Entry<Object, V> candidate = removeEldest(window);
+        if (probation.size() + protectedSegment.size() < mainCapacity) {
+            probation.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        LinkedHashMap<Object, V> victimSegment = probation.isEmpty() ? protectedSegment : probation;
+        if (!victimSegment.isEmpty()) {
+            Object victim = victimSegment.keySet().iterator().next();
+            if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim)) {
+                victimSegment.remove(victim);
+                probation.put(candidate.getKey(), candidate.getValue());
+            }
+        }
+        evictions++;
+    }
+
+    private synchronized void invalidate(Object key) {
+        if (key == null) {
+            return;
+        }
+        loads.remove(key);
+        if (window.remove(key) == null && probation.remove(key) == null) {
+            protectedSegment.remove(key);
+        }
+    }
+
+    private synchronized void invalidateAll() {
+        loads.clear();
+        // the frequencies of the removed keys would bias the admission of the new ones
+        sketch.clear();
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+    }
+
+    private static <V> LinkedHashMap<Object, V> accessOrdered() {
+        return new LinkedHashMap<Object, V>(16, 0.75f, true);
+    }
+
+    private static <V> Entry<Object, V> removeEldest(LinkedHashMap<Object, V> segment) {
+        Iterator<Entry<Object, V>> iterator = segment.entrySet().iterator();
+        Entry<Object, V> eldest = iterator.next();
+        Entry<Object, V> removed = Maps.immutableEntry(eldest.getKey(), eldest.getValue());
+        iterator.remove();
+        return removed;
+    }
+
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        private final Iterator<Entry<K, V>> delegate;
+        private Entry<K, V> last;
+
+        private EntryIterator(Iterator<Entry<K, V>> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            last = delegate.next();
+            return new CachingEntry(last);
+        }
+
+        @Override
+        public void remove() {
+            checkState(last != null, "next() has not been called, or remove() has already been called");
+            K key = last.getKey();
+            last = null;
+            try {
+                delegate.remove();
+            } finally {
+                invalidate(key);
+            }
+        }
+    }
+
+    private final class KeyIterator implements Iterator<K> {
+        private final Iterator<K> delegate;
+        private K last;
+        private boolean removable;
+
+        private KeyIterator(Iterator<K> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public K next() {
+            last = delegate.next();
+            removable = true;
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            checkState(removable, "next() has not been called, or remove() has already been called");
+            removable = false;
+            try {
+                delegate.remove();
+            } finally {
+                invalidate(last);
+            }
+        }
+    }
+
+    /**
+     * Decodes the value only when it is asked for, and invalidates the cached value of the key when it is set.
+     */
+    private final class CachingEntry implements Entry<K, V> {
+        private final Entry<K, V> entry;
+
+        private CachingEntry(Entry<K, V> entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public K getKey() {
+            return entry.getKey();
+        }
+
+        @Override
+        public V getValue() {
+            return entry.getValue();
+        }
+
+        @Override
+        public V setValue(V value) {
+            try {
+                return entry.setValue(value);
+            } finally {
+                invalidate(entry.getKey());
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> other = (Entry<?, ?>) o;
+            return Objects.equal(getKey(), other.getKey()) && Objects.equal(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            K key = getKey();
+            V value = getValue();
+            return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
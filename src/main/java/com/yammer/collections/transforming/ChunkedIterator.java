@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.yammer.collections.transforming.TransformationUtil.safeApplyAll;
+import static com.yammer.collections.transforming.TransformationUtil.safeTransform;
+
+/**
+ * Iterates over a backing collection, transforming its elements in chunks of the batch size of a {@link BatchFunction}.
+ * <p/>
+ * Chunks are pulled by a lookahead iterator, while a second backing iterator trails the returned elements, so that
+ * remove always removes the returned element by position, also in collections holding duplicates. The trailing
+ * iterator decides which element next returns, and the element is returned from the chunk only when it equals the
+ * chunk element in the same position; so next never returns another element than remove would remove.
+ * <p/>
+ * A removal invalidates the lookahead iterator, but not the chunk it pulled. Once the chunk is used up, a new lookahead
+ * iterator is positioned at the trailing one, in constant time for random access lists, by skipping the elements
+ * before it otherwise. When the two iterators disagree, e.g. as the collection reorders on removal like a
+ * PriorityQueue, or is modified concurrently through a weakly consistent iterator, the rest of the elements is
+ * transformed one at a time.
+ */
+final class ChunkedIterator<F, T> implements Iterator<F> {
+    private final Collection<T> backingCollection;
+    private final BatchFunction<T, F> fromFunction;
+    private final int chunkSize;
+    // trails the returned elements, next and remove go through it
+    private final Iterator<T> iterator;
+    // runs ahead to pull the chunks, null after a removal until the next chunk is pulled
+    private Iterator<T> lookahead;
+    // false once the lookahead disagreed with the trailing iterator
+    private boolean chunked = true;
+    private List<T> chunk = Collections.emptyList();
+    private List<F> transformedChunk = Collections.emptyList();
+    private int next;
+    // the number of elements before the trailing iterator in a new iteration of the collection
+    private int position;
+    private boolean removable;
+
+    /* package */ ChunkedIterator(Collection<T> backingCollection, BatchFunction<T, F> fromFunction) {
+        this.backingCollection = backingCollection;
+        this.fromFunction = fromFunction;
+        chunkSize = fromFunction.getBatchSize();
+        checkArgument(chunkSize > 0, "the batch size has to be positive, was %s", chunkSize);
+        iterator = backingCollection.iterator();
+        lookahead = backingCollection.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return iterator.hasNext();
+    }
+
+    @Override
+    public F next() {
+        T element = iterator.next();
+        position++;
+        removable = true;
+        if (next == chunk.size() && chunked) {
+            pullChunk();
+        }
+        if (next < chunk.size() && Objects.equal(element, chunk.get(next))) {
+            return transformedChunk.get(next++);
+        }
+        chunked = false;
+        lookahead = null;
+        chunk = Collections.emptyList();
+        transformedChunk = Collections.emptyList();
+        next = 0;
+        return safeTransform(element, fromFunction);
+    }
+
+    @Override
+    public void remove() {
+        checkState(removable, "next() has not been called, or remove() has already been called");
+        iterator.remove();
+        position--;
+        removable = false;
+        // the removal invalidates the lookahead, while the rest of the chunk it pulled still follows the trailing one
+        lookahead = null;
+    }
+
+    /**
+     * Pulls the chunk starting with the element the trailing iterator has just returned.
+     */
+    private void pullChunk() {
+        if (lookahead == null) {
+            lookahead = iteratorAt(position - 1);
+        }
+        List<T> pulled = Lists.newArrayListWithCapacity(chunkSize);
+        while (pulled.size() < chunkSize && lookahead.hasNext()) {
+            pulled.add(lookahead.next());
+        }
+        chunk = pulled;
+        transformedChunk = safeApplyAll(fromFunction, pulled);
+        next = 0;
+    }
+
+    private Iterator<T> iteratorAt(int index) {
+        if (backingCollection instanceof List) {
+            try {
+                return ((List<T>) backingCollection).listIterator(index);
+            } catch (IndexOutOfBoundsException ignored) {
+                // the list shrank concurrently, next() transforms the rest one at a time
+                return Collections.<T>emptyList().iterator();
+            }
+        }
+        Iterator<T> result = backingCollection.iterator();
+        Iterators.advance(result, index);
+        return result;
+    }
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A copy-on-write counterpart of {@link TransformingMap}, for maps which are read far more often than they are updated.
+ * <p/>
+ * The map keeps an immutable backing map together with an immutable map of its decoded entries, both published through
+ * a single volatile reference. Reads go to the decoded map and neither lock nor transform. Every write encodes the
+ * written entries and builds a new pair of maps, so writes are expensive; a {@link Batch} applies many puts and removals
+ * with a single copy.
+ * <p/>
+ * Iterators work on the state at the time they were created. Entries are immutable, removal through the iterators and
+ * key sets writes through to the map. Null keys and values are not permitted.
+ * <p/>
+ * The same bijection requirements as for {@link TransformingMap} apply.
+ */
+public class CopyOnWriteTransformingMap<K, V, K1, V1> extends AbstractMap<K, V> {
+    private final Function<K, K1> toKeyFunction;
+    private final Function<V, V1> toValueFunction;
+    private final Object writeLock = new Object();
+    private volatile State<K, V, K1, V1> state;
+
+    private CopyOnWriteTransformingMap(
+            Map<K1, V1> backingMap,
+            Function<K, K1> toKeyFunction,
+            Function<K1, K> fromKeyFunction,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction
+    ) {
+        this.toKeyFunction = checkNotNull(toKeyFunction);
+        this.toValueFunction = checkNotNull(toValueFunction);
+        checkNotNull(fromKeyFunction);
+        checkNotNull(fromValueFunction);
+
+        ImmutableMap<K1, V1> immutableBackingMap = ImmutableMap.copyOf(backingMap);
+        ImmutableMap.Builder<K, V> decoded = ImmutableMap.builder();
+        for (Entry<K1, V1> entry : immutableBackingMap.entrySet()) {
+            decoded.put(fromKeyFunction.apply(entry.getKey()), fromValueFunction.apply(entry.getValue()));
+        }
+        state = new State<K, V, K1, V1>(immutableBackingMap, decoded.build());
+    }
+
+    /**
+     * Creates a map holding the decoded entries of backingMap. The backing map is copied, later changes to it are not
+     * reflected by the created map.
+     */
+    public static <K, V, K1, V1> CopyOnWriteTransformingMap<K, V, K1, V1> create(
+            Map<K1, V1> backingMap,
+            Function<K, K1> toKeyFunction,
+            Function<K1, K> fromKeyFunction,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction
+    ) {
+        return new CopyOnWriteTransformingMap<K, V, K1, V1>(
+                checkNotNull(backingMap),
+                toKeyFunction, fromKeyFunction,
+                toValueFunction, fromValueFunction
+        );
+    }
+
+    /**
+     * Returns the current backing map, in encoded form.
+     */
+    public ImmutableMap<K1, V1> getBackingSnapshot() {
+        return state.backingMap;
+    }
+
+    /**
+     * Returns a batch of updates, which are applied to the map with a single copy when the batch is committed.
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+
+    /* package */ ImmutableMap<K, V> getSnapshot() {
+        return state.map;
+    }
+
+    @Override
+    public int size() {
+        return state.map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return state.map.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return state.map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return state.map.containsValue(value);
+    }
+
+    @Override
+    public V get(Object key) {
+        return state.map.get(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        synchronized (writeLock) {
+            V previous = state.map.get(key);
+            batch().put(key, value).commit();
+            return previous;
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        synchronized (writeLock) {
+            V previous = state.map.get(key);
+            if (previous != null) {
+                batch().remove(key).commit();
+            }
+            return previous;
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        batch().putAll(map).commit();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (writeLock) {
+            state = new State<K, V, K1, V1>(ImmutableMap.<K1, V1>of(), ImmutableMap.<K, V>of());
+        }
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                final Iterator<Entry<K, V>> snapshotIterator = state.map.entrySet().iterator();
+                return new Iterator<Entry<K, V>>() {
+                    private Entry<K, V> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return snapshotIterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        last = snapshotIterator.next();
+                        return last;
+                    }
+
+                    @Override
+                    public void remove() {
+                        checkState(last != null, "next() has not been called, or remove() has already been called");
+                        CopyOnWriteTransformingMap.this.remove(last.getKey());
+                        last = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CopyOnWriteTransformingMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return state.map.entrySet().contains(o);
+            }
+
+            @Override
+            public void clear() {
+                CopyOnWriteTransformingMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || state.map.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return state.map.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return state.map.toString();
+    }
+
+    private void apply(Map<K, V> puts, Set<Object> removals) {
+        synchronized (writeLock) {
+            State<K, V, K1, V1> current = state;
+            Map<K1, V1> backingMap = Maps.newLinkedHashMap(current.backingMap);
+            Map<K, V> map = Maps.newLinkedHashMap(current.map);
+            for (Object key : removals) {
+                // only keys present in the map are known to be of type K
+                if (map.containsKey(key)) {
+                    @SuppressWarnings("unchecked")
+                    K presentKey = (K) key;
+                    map.remove(presentKey);
+                    backingMap.remove(toKeyFunction.apply(presentKey));
+                }
+            }
+            for (Entry<K, V> entry : puts.entrySet()) {
+                backingMap.put(toKeyFunction.apply(entry.getKey()), toValueFunction.apply(entry.getValue()));
+                map.put(entry.getKey(), entry.getValue());
+            }
+            state = new State<K, V, K1, V1>(ImmutableMap.copyOf(backingMap), ImmutableMap.copyOf(map));
+        }
+    }
+
+    /**
+     * Updates collected for a single copy of the map. Later updates of a key override earlier ones. A batch is not
+     * thread safe and may be committed only once.
+     */
+    public final class Batch {
+        private final Map<K, V> puts = Maps.newLinkedHashMap();
+        private final Set<Object> removals = Sets.newHashSet();
+        private boolean committed;
+
+        private Batch() {
+        }
+
+        public Batch put(K key, V value) {
+            checkNotNull(key);
+            checkNotNull(value);
+            removals.remove(key);
+            puts.put(key, value);
+            return this;
+        }
+
+        public Batch putAll(Map<? extends K, ? extends V> map) {
+            for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        public Batch remove(Object key) {
+            checkNotNull(key);
+            puts.remove(key);
+            removals.add(key);
+            return this;
+        }
+
+        public void commit() {
+            checkState(!committed, "the batch has already been committed");
+            committed = true;
+            if (!puts.isEmpty() || !removals.isEmpty()) {
+                apply(puts, removals);
+            }
+        }
+    }
+
+    private static final class State<K, V, K1, V1> {
+        private final ImmutableMap<K1, V1> backingMap;
+        private final ImmutableMap<K, V> map;
+
+        private State(ImmutableMap<K1, V1> backingMap, ImmutableMap<K, V> map) {
+            this.backingMap = backingMap;
+            this.map = map;
+        }
+    }
+}
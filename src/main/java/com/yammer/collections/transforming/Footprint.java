@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Objects;
+
+/**
+ * An estimate of the heap retained by a map or a table, split into keys, values and the structure holding them.
+ * Objects referenced more than once, e.g. a row key shared by the cells of a row, are counted once.
+ */
+public final class Footprint {
+    private final int entries;
+    private final long keyBytes;
+    private final long valueBytes;
+    private final long structureBytes;
+
+    /* package */ Footprint(int entries, long keyBytes, long valueBytes, long structureBytes) {
+        this.entries = entries;
+        this.keyBytes = keyBytes;
+        this.valueBytes = valueBytes;
+        this.structureBytes = structureBytes;
+    }
+
+    /**
+     * The number of entries of a map, or of cells of a table.
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    public long getKeyBytes() {
+        return keyBytes;
+    }
+
+    public long getValueBytes() {
+        return valueBytes;
+    }
+
+    /**
+     * The bytes of the maps, nodes and arrays holding the keys and values.
+     */
+    public long getStructureBytes() {
+        return structureBytes;
+    }
+
+    public long getTotalBytes() {
+        return keyBytes + valueBytes + structureBytes;
+    }
+
+    /**
+     * The total bytes per entry, or 0 when there are no entries.
+     */
+    public double getBytesPerEntry() {
+        return entries == 0 ? 0 : (double) getTotalBytes() / entries;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("entries", entries)
+                .add("keyBytes", keyBytes)
+                .add("valueBytes", valueBytes)
+                .add("structureBytes", structureBytes)
+                .toString();
+    }
+}
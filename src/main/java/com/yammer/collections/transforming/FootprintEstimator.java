@@ -0,0 +1,453 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.google.common.collect.TreeBasedTable;
+import com.yammer.collections.backing.ColumnIndexedTable;
+import com.yammer.collections.backing.IntIndexedTable;
+import com.yammer.collections.backing.LogStructuredMap;
+import com.yammer.collections.backing.ReadWriteLockedMap;
+import com.yammer.collections.backing.ReadWriteLockedTable;
+import com.yammer.collections.backing.ShardedMap;
+import com.yammer.collections.backing.ValueIndexedMap;
+import com.yammer.collections.backing.ValueIndexedTable;
+import com.yammer.collections.backing.WriteBehindMap;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Estimates the heap retained by maps and tables, to compare backings and codecs by numbers:
+ * <pre>
+ * Footprint footprint = FootprintEstimator.create().estimate(transformingTable);
+ * </pre>
+ * Transforming views are estimated by their backing structures, as the decoded keys and values are not retained, and
+ * the locked, sharded, indexed and write behind backings of this library by the structures they wrap. The keys and
+ * values are measured by the size estimator registered for their class or its nearest superclass, and the structure by
+ * the estimator registered for the class of the backing. Estimators are provided for strings, arrays of primitives,
+ * boxed primitives, enums, UUIDs and dates, for the JDK hash and tree maps, the Guava immutable maps and tables, and
+ * for the backings of this library. Objects of other classes are counted as a bare object header, and
+ * other structures by a fixed overhead per entry; register estimators for them to get exact figures.
+ * <p/>
+ * The estimates assume a 64 bit JVM with compressed references, and ignore the slack of tables which have shrunk.
+ * Estimators are immutable and thread safe, but estimating a structure which is being modified may fail.
+ */
+public final class FootprintEstimator {
+    /**
+     * Estimates the bytes retained by an object, excluding the objects it shares with others.
+     */
+    public interface SizeEstimator<T> {
+        long bytesOf(T object);
+    }
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int REFERENCE = 4;
+    private static final int ARRAY_HEADER = 16;
+    private static final int HASH_MAP = 48;
+    private static final int HASH_MAP_NODE = 32;
+    private static final int LINKED_HASH_MAP = 56;
+    private static final int LINKED_HASH_MAP_NODE = 40;
+    private static final int CONCURRENT_HASH_MAP = 64;
+    private static final int TREE_MAP = 48;
+    private static final int TREE_MAP_NODE = 40;
+    private static final int IMMUTABLE_MAP = 32;
+    private static final int IMMUTABLE_MAP_ENTRY = 24;
+    private static final int IMMUTABLE_TABLE_CELL = 64;
+    private static final int DEFAULT_ENTRY_OVERHEAD = 48;
+    private static final int DEFAULT_CELL_OVERHEAD = 64;
+    // the wrapper, its ReentrantReadWriteLock with the sync, read and write lock objects
+    private static final int READ_WRITE_LOCKED = 144;
+    // a key wrapping its byte array, and the offset and lengths of a record
+    private static final int LOG_INDEX_KEY = 24;
+    private static final int LOG_INDEX_LOCATION = 32;
+    private static final boolean COMPACT_STRINGS =
+            !System.getProperty("java.specification.version", "").startsWith("1.");
+
+    private static final FootprintEstimator DEFAULT = new FootprintEstimator(
+            defaultSizeEstimators(),
+            defaultStructureEstimators()
+    );
+
+    private final Map<Class<?>, SizeEstimator<?>> sizeEstimators;
+    private final Map<Class<?>, SizeEstimator<?>> structureEstimators;
+
+    private FootprintEstimator(
+            Map<Class<?>, SizeEstimator<?>> sizeEstimators,
+            Map<Class<?>, SizeEstimator<?>> structureEstimators) {
+        this.sizeEstimators = sizeEstimators;
+        this.structureEstimators = structureEstimators;
+    }
+
+    public static FootprintEstimator create() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns an estimator which measures keys and values of the given type, and of its subclasses without an
+     * estimator of their own, with sizeEstimator.
+     */
+    public <T> FootprintEstimator withSizeEstimator(Class<T> type, SizeEstimator<? super T> sizeEstimator) {
+        Map<Class<?>, SizeEstimator<?>> estimators = new HashMap<Class<?>, SizeEstimator<?>>(sizeEstimators);
+        estimators.put(checkNotNull(type), checkNotNull(sizeEstimator));
+        return new FootprintEstimator(estimators, structureEstimators);
+    }
+
+    /**
+     * Returns an estimator which measures maps or tables of the given type, and of its subclasses without an estimator
+     * of their own, with structureEstimator. It has to count the bytes of the structure only, without keys and values.
+     */
+    public <T> FootprintEstimator withStructureEstimator(Class<T> type, SizeEstimator<? super T> structureEstimator) {
+        Map<Class<?>, SizeEstimator<?>> estimators = new HashMap<Class<?>, SizeEstimator<?>>(structureEstimators);
+        estimators.put(checkNotNull(type), checkNotNull(structureEstimator));
+        return new FootprintEstimator(sizeEstimators, estimators);
+    }
+
+    public Footprint estimate(Map<?, ?> map) {
+        Tally tally = new Tally();
+        addMap(checkNotNull(map), tally);
+        return tally.toFootprint();
+    }
+
+    public Footprint estimate(Table<?, ?, ?> table) {
+        Tally tally = new Tally();
+        addTable(checkNotNull(table), tally);
+        return tally.toFootprint();
+    }
+
+    private void addMap(Map<?, ?> map, Tally tally) {
+        if (map instanceof TransformingMap) {
+            addMap(((TransformingMap<?, ?, ?, ?>) map).getBackingMap(), tally);
+        } else if (map instanceof CachingTransformingMap) {
+            // the cached values are not counted
+            addMap(((CachingTransformingMap<?, ?, ?, ?>) map).getMap(), tally);
+        } else if (map instanceof CopyOnWriteTransformingMap) {
+            CopyOnWriteTransformingMap<?, ?, ?, ?> copyOnWriteMap = (CopyOnWriteTransformingMap<?, ?, ?, ?>) map;
+            addMap(copyOnWriteMap.getBackingSnapshot(), tally);
+            // the decoded entries are retained next to the backing ones
+            Map<?, ?> decodedMap = copyOnWriteMap.getSnapshot();
+            addEntries(decodedMap, tally);
+            tally.structureBytes += structureBytesOf(decodedMap, DEFAULT_ENTRY_OVERHEAD, decodedMap.size());
+        } else if (map instanceof ReadWriteLockedMap) {
+            tally.structureBytes += READ_WRITE_LOCKED;
+            addMap(((ReadWriteLockedMap<?, ?>) map).getDelegate(), tally);
+        } else if (map instanceof WriteBehindMap) {
+            WriteBehindMap<?, ?> writeBehindMap = (WriteBehindMap<?, ?>) map;
+            // the staged writes are counted by their nodes only, as they are about to replace backing entries
+            tally.structureBytes += hashMapBytes(CONCURRENT_HASH_MAP, HASH_MAP_NODE, writeBehindMap.getPendingCount());
+            addMap(writeBehindMap.getBackingMap(), tally);
+        } else if (map instanceof ShardedMap) {
+            List<? extends Map<?, ?>> shards = ((ShardedMap<?, ?>) map).getShards();
+            tally.structureBytes += align(OBJECT_HEADER + REFERENCE) + referenceArrayBytes(shards.size());
+            for (Map<?, ?> shard : shards) {
+                addMap(shard, tally);
+            }
+        } else if (map instanceof ValueIndexedMap) {
+            Map<?, ?> delegate = ((ValueIndexedMap<?, ?>) map).getDelegate();
+            tally.structureBytes += valueIndexBytes(delegate.values(), 0);
+            addMap(delegate, tally);
+        } else if (map instanceof LogStructuredMap) {
+            // the values are on disk, the index holds the keys and the locations of their records
+            int size = 0;
+            for (byte[] key : ((LogStructuredMap) map).keySet()) {
+                tally.keyBytes += bytesOf(key, tally.seen);
+                size++;
+            }
+            tally.entries += size;
+            tally.structureBytes += hashMapBytes(HASH_MAP, HASH_MAP_NODE, size) +
+                    (long) (LOG_INDEX_KEY + LOG_INDEX_LOCATION) * size;
+        } else {
+            tally.entries += map.size();
+            addEntries(map, tally);
+            tally.structureBytes += structureBytesOf(map, DEFAULT_ENTRY_OVERHEAD, map.size());
+        }
+    }
+
+    private void addEntries(Map<?, ?> map, Tally tally) {
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            tally.keyBytes += bytesOf(entry.getKey(), tally.seen);
+            tally.valueBytes += bytesOf(entry.getValue(), tally.seen);
+        }
+    }
+
+    private void addTable(Table<?, ?, ?> table, Tally tally) {
+        if (table instanceof TransformingTable) {
+            addTable(((TransformingTable<?, ?, ?, ?, ?, ?>) table).getBackingTable(), tally);
+        } else if (table instanceof ReadWriteLockedTable) {
+            tally.structureBytes += READ_WRITE_LOCKED;
+            addTable(((ReadWriteLockedTable<?, ?, ?>) table).getDelegate(), tally);
+        } else if (table instanceof ValueIndexedTable) {
+            Table<?, ?, ?> delegate = ((ValueIndexedTable<?, ?, ?>) table).getDelegate();
+            // the index holds the row and column key of each cell in an entry
+            tally.structureBytes += valueIndexBytes(delegate.values(), align(OBJECT_HEADER + REFERENCE * 2));
+            addTable(delegate, tally);
+        } else {
+            for (Table.Cell<?, ?, ?> cell : table.cellSet()) {
+                if (!(table instanceof IntIndexedTable)) {
+                    // the int ids of an IntIndexedTable are boxed by its views only
+                    tally.keyBytes += bytesOf(cell.getRowKey(), tally.seen) +
+                            bytesOf(cell.getColumnKey(), tally.seen);
+                }
+                tally.valueBytes += bytesOf(cell.getValue(), tally.seen);
+            }
+            tally.entries += table.size();
+            tally.structureBytes += structureBytesOf(table, DEFAULT_CELL_OVERHEAD, table.size());
+        }
+    }
+
+    /**
+     * The bytes of a reverse index holding a hash set of keys per distinct value, with elementBytes per indexed key.
+     */
+    private static long valueIndexBytes(Collection<?> values, long elementBytes) {
+        int distinctValues = Sets.newHashSet(values).size();
+        return hashMapBytes(HASH_MAP, HASH_MAP_NODE, distinctValues) +
+                (long) distinctValues * (align(OBJECT_HEADER + REFERENCE) + HASH_MAP) +
+                (HASH_MAP_NODE + elementBytes) * values.size();
+    }
+
+    private long bytesOf(Object object, Set<Object> seen) {
+        if (object == null || !seen.add(object)) {
+            return 0;
+        }
+        SizeEstimator<Object> estimator = find(sizeEstimators, object.getClass());
+        return estimator == null ? align(OBJECT_HEADER) : estimator.bytesOf(object);
+    }
+
+    private long structureBytesOf(Object structure, int defaultOverhead, int entries) {
+        SizeEstimator<Object> estimator = find(structureEstimators, structure.getClass());
+        return estimator == null ? (long) defaultOverhead * entries : estimator.bytesOf(structure);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SizeEstimator<Object> find(Map<Class<?>, SizeEstimator<?>> estimators, Class<?> type) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            SizeEstimator<?> estimator = estimators.get(current);
+            if (estimator != null) {
+                return (SizeEstimator<Object>) estimator;
+            }
+        }
+        return null;
+    }
+
+    private static Map<Class<?>, SizeEstimator<?>> defaultSizeEstimators() {
+        Map<Class<?>, SizeEstimator<?>> estimators = new HashMap<Class<?>, SizeEstimator<?>>();
+        estimators.put(String.class, new SizeEstimator<String>() {
+            @Override
+            public long bytesOf(String object) {
+                // the string and its array, of chars up to Java 8, of bytes in Latin-1 or UTF-16 since Java 9
+                int bytesPerChar = COMPACT_STRINGS && isLatin1(object) ? 1 : 2;
+                return align(OBJECT_HEADER + REFERENCE + 4) +
+                        align(ARRAY_HEADER + (long) bytesPerChar * object.length());
+            }
+        });
+        estimators.put(byte[].class, new SizeEstimator<byte[]>() {
+            @Override
+            public long bytesOf(byte[] object) {
+                return align(ARRAY_HEADER + (long) object.length);
+            }
+        });
+        estimators.put(char[].class, new SizeEstimator<char[]>() {
+            @Override
+            public long bytesOf(char[] object) {
+                return align(ARRAY_HEADER + 2L * object.length);
+            }
+        });
+        estimators.put(int[].class, new SizeEstimator<int[]>() {
+            @Override
+            public long bytesOf(int[] object) {
+                return align(ARRAY_HEADER + 4L * object.length);
+            }
+        });
+        estimators.put(long[].class, new SizeEstimator<long[]>() {
+            @Override
+            public long bytesOf(long[] object) {
+                return align(ARRAY_HEADER + 8L * object.length);
+            }
+        });
+        SizeEstimator<Object> boxed4 = fixedSize(align(OBJECT_HEADER + 4));
+        SizeEstimator<Object> boxed8 = fixedSize(align(OBJECT_HEADER + 8));
+        // the two instances are shared
+        estimators.put(Boolean.class, fixedSize(0));
+        estimators.put(Byte.class, boxed4);
+        estimators.put(Short.class, boxed4);
+        estimators.put(Character.class, boxed4);
+        estimators.put(Integer.class, boxed4);
+        estimators.put(Float.class, boxed4);
+        estimators.put(Long.class, boxed8);
+        estimators.put(Double.class, boxed8);
+        estimators.put(Date.class, boxed8);
+        estimators.put(UUID.class, fixedSize(align(OBJECT_HEADER + 16)));
+        // enum constants are shared with the enum class
+        estimators.put(Enum.class, fixedSize(0));
+        return estimators;
+    }
+
+    private static Map<Class<?>, SizeEstimator<?>> defaultStructureEstimators() {
+        Map<Class<?>, SizeEstimator<?>> estimators = new HashMap<Class<?>, SizeEstimator<?>>();
+        estimators.put(HashMap.class, new SizeEstimator<Map<?, ?>>() {
+            @Override
+            public long bytesOf(Map<?, ?> object) {
+                return hashMapBytes(HASH_MAP, HASH_MAP_NODE, object.size());
+            }
+        });
+        estimators.put(LinkedHashMap.class, new SizeEstimator<Map<?, ?>>() {
+            @Override
+            public long bytesOf(Map<?, ?> object) {
+                return hashMapBytes(LINKED_HASH_MAP, LINKED_HASH_MAP_NODE, object.size());
+            }
+        });
+        estimators.put(ConcurrentHashMap.class, new SizeEstimator<Map<?, ?>>() {
+            @Override
+            public long bytesOf(Map<?, ?> object) {
+                return hashMapBytes(CONCURRENT_HASH_MAP, HASH_MAP_NODE, object.size());
+            }
+        });
+        estimators.put(TreeMap.class, new SizeEstimator<Map<?, ?>>() {
+            @Override
+            public long bytesOf(Map<?, ?> object) {
+                return TREE_MAP + (long) TREE_MAP_NODE * object.size();
+            }
+        });
+        estimators.put(ImmutableMap.class, new SizeEstimator<Map<?, ?>>() {
+            @Override
+            public long bytesOf(Map<?, ?> object) {
+                int size = object.size();
+                return IMMUTABLE_MAP + (long) IMMUTABLE_MAP_ENTRY * size +
+                        referenceArrayBytes(size) + referenceArrayBytes(tableCapacity(size));
+            }
+        });
+        estimators.put(HashBasedTable.class, new SizeEstimator<Table<?, ?, ?>>() {
+            @Override
+            public long bytesOf(Table<?, ?, ?> object) {
+                // Guava 16 backs the table and its rows with hash maps
+                return OBJECT_HEADER + REFERENCE * 2 +
+                        nestedMapBytes(object.rowMap(), HASH_MAP, HASH_MAP_NODE);
+            }
+        });
+        estimators.put(TreeBasedTable.class, new SizeEstimator<Table<?, ?, ?>>() {
+            @Override
+            public long bytesOf(Table<?, ?, ?> object) {
+                return OBJECT_HEADER + REFERENCE * 2 +
+                        TREE_MAP + (long) (TREE_MAP + TREE_MAP_NODE) * object.rowKeySet().size() +
+                        (long) TREE_MAP_NODE * object.size();
+            }
+        });
+        estimators.put(ImmutableTable.class, new SizeEstimator<Table<?, ?, ?>>() {
+            @Override
+            public long bytesOf(Table<?, ?, ?> object) {
+                return (long) IMMUTABLE_TABLE_CELL * object.size();
+            }
+        });
+        estimators.put(ColumnIndexedTable.class, new SizeEstimator<Table<?, ?, ?>>() {
+            @Override
+            public long bytesOf(Table<?, ?, ?> object) {
+                return OBJECT_HEADER + REFERENCE * 2 + 4 +
+                        nestedMapBytes(object.rowMap(), HASH_MAP, HASH_MAP_NODE) +
+                        nestedMapBytes(object.columnMap(), HASH_MAP, HASH_MAP_NODE);
+            }
+        });
+        estimators.put(IntIndexedTable.class, new SizeEstimator<Table<?, ?, ?>>() {
+            @Override
+            public long bytesOf(Table<?, ?, ?> object) {
+                int maxRowId = -1;
+                long bytes = 0;
+                for (Map.Entry<?, ? extends Map<?, ?>> row : object.rowMap().entrySet()) {
+                    maxRowId = Math.max(maxRowId, (Integer) row.getKey());
+                    // a row object with arrays of column ids and values, a quarter of which is unused on average
+                    long capacity = row.getValue().size() * 5L / 4 + 1;
+                    bytes += align(OBJECT_HEADER + REFERENCE * 2 + 4) +
+                            align(ARRAY_HEADER + 4 * capacity) + align(ARRAY_HEADER + REFERENCE * capacity);
+                }
+                return bytes + OBJECT_HEADER + REFERENCE + 8 + referenceArrayBytes(maxRowId + 1);
+            }
+        });
+        return estimators;
+    }
+
+    private static boolean isLatin1(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long nestedMapBytes(Map<?, ? extends Map<?, ?>> map, int mapBytes, int nodeBytes) {
+        long bytes = hashMapBytes(mapBytes, nodeBytes, map.size());
+        for (Map<?, ?> inner : map.values()) {
+            bytes += hashMapBytes(mapBytes, nodeBytes, inner.size());
+        }
+        return bytes;
+    }
+
+    private static long hashMapBytes(int mapBytes, int nodeBytes, int size) {
+        return mapBytes + (long) nodeBytes * size + (size == 0 ? 0 : referenceArrayBytes(tableCapacity(size)));
+    }
+
+    private static int tableCapacity(int size) {
+        // the smallest power of two keeping the load factor at or below 0.75
+        int capacity = 1;
+        while (capacity * 3L < size * 4L) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long referenceArrayBytes(long length) {
+        return align(ARRAY_HEADER + REFERENCE * length);
+    }
+
+    private static long align(long bytes) {
+        return bytes + 7 & ~7L;
+    }
+
+    private static final class Tally {
+        private final Set<Object> seen = Sets.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        private int entries;
+        private long keyBytes;
+        private long valueBytes;
+        private long structureBytes;
+
+        private Footprint toFootprint() {
+            return new Footprint(entries, keyBytes, valueBytes, structureBytes);
+        }
+    }
+
+    private static SizeEstimator<Object> fixedSize(final long bytes) {
+        return new SizeEstimator<Object>() {
+            @Override
+            public long bytesOf(Object object) {
+                return bytes;
+            }
+        };
+    }
+}
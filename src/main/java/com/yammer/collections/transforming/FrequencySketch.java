@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A count-min sketch estimating how often keys were seen recently, in 4 bit counters. All counters are halved once
+ * the number of recorded occurrences reaches ten times the capacity, so that the estimates follow changes of the access
+ * pattern. The sketch is not thread safe.
+ */
+final class FrequencySketch {
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+    private static final int MAX_TABLE_LENGTH = 1 << 24;
+
+    private final long[] table;
+    private final int sampleSize;
+    private int size;
+
+    /* package */ FrequencySketch(int capacity) {
+        checkArgument(capacity > 0, "capacity has to be positive, was %s", capacity);
+        // sixteen counters per long, so that each key of a full cache has four counters of its own on average
+        table = new long[Math.max(8, Integer.highestOneBit(Math.min(capacity, MAX_TABLE_LENGTH) - 1) << 1)];
+        sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+    }
+
+    /* package */ int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int seed : SEEDS) {
+            int h = rehash(hash, seed);
+            frequency = Math.min(frequency, (int) (table[slot(h)] >>> offset(h)) & MAX_COUNT);
+        }
+        return frequency;
+    }
+
+    /* package */ void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean incremented = false;
+        for (int seed : SEEDS) {
+            int h = rehash(hash, seed);
+            int slot = slot(h);
+            int offset = offset(h);
+            if ((table[slot] >>> offset & MAX_COUNT) < MAX_COUNT) {
+                table[slot] += 1L << offset;
+                incremented = true;
+            }
+        }
+        if (incremented && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    /* package */ void clear() {
+        Arrays.fill(table, 0L);
+        size = 0;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = table[i] >>> 1 & RESET_MASK;
+        }
+        size >>>= 1;
+    }
+
+    private int slot(int h) {
+        return (h >>> 6) & (table.length - 1);
+    }
+
+    private static int offset(int h) {
+        return (h & 15) << 2;
+    }
+
+    private static int rehash(int hash, int seed) {
+        int h = hash * seed;
+        return h ^ h >>> 16;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x45D9F3B;
+        return h ^ h >>> 16;
+    }
+}
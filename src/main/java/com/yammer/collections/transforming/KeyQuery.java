@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A query on the keys of a transforming view. A key matches when it satisfies the predicate, and its backing form
+ * satisfies the optional encoded predicate and lies within the optional encoded range.
+ * <p/>
+ * The encoded conditions are evaluated against the backing structure without transforming the keys, and an encoded
+ * range becomes a range scan on sorted backings. They have to be implied by the predicate, i.e. they may only exclude
+ * keys which the predicate excludes too. When they are exact, pass {@link Predicates#alwaysTrue()} as the predicate
+ * and no key is transformed at all.
+ * <p/>
+ * Encoded ranges are compared with the comparator of sorted backings, and with the natural ordering otherwise.
+ */
+public final class KeyQuery<K, K1> {
+    private final Predicate<? super K> predicate;
+    private final Predicate<? super K1> encodedPredicate;
+    private final K1 lowerBound;
+    private final BoundType lowerBoundType;
+    private final K1 upperBound;
+    private final BoundType upperBoundType;
+
+    private KeyQuery(
+            Predicate<? super K> predicate,
+            Predicate<? super K1> encodedPredicate,
+            K1 lowerBound,
+            BoundType lowerBoundType,
+            K1 upperBound,
+            BoundType upperBoundType) {
+        this.predicate = checkNotNull(predicate);
+        this.encodedPredicate = checkNotNull(encodedPredicate);
+        this.lowerBound = lowerBound;
+        this.lowerBoundType = lowerBoundType;
+        this.upperBound = upperBound;
+        this.upperBoundType = upperBoundType;
+    }
+
+    public static <K, K1> KeyQuery<K, K1> matching(Predicate<? super K> predicate) {
+        return new KeyQuery<K, K1>(predicate, Predicates.alwaysTrue(), null, null, null, null);
+    }
+
+    public KeyQuery<K, K1> withEncodedPredicate(Predicate<? super K1> encodedPredicate) {
+        return new KeyQuery<K, K1>(
+                predicate, encodedPredicate,
+                lowerBound, lowerBoundType,
+                upperBound, upperBoundType
+        );
+    }
+
+    /**
+     * A null bound leaves the corresponding side of the range unbounded.
+     */
+    public KeyQuery<K, K1> withEncodedRange(
+            K1 lowerBound,
+            BoundType lowerBoundType,
+            K1 upperBound,
+            BoundType upperBoundType) {
+        checkArgument(lowerBound == null || lowerBoundType != null, "lowerBoundType is required for a lower bound");
+        checkArgument(upperBound == null || upperBoundType != null, "upperBoundType is required for an upper bound");
+        return new KeyQuery<K, K1>(
+                predicate, encodedPredicate,
+                lowerBound, lowerBoundType,
+                upperBound, upperBoundType
+        );
+    }
+
+    /* package */ Predicate<? super K> getPredicate() {
+        return predicate;
+    }
+
+    /* package */ boolean hasTrivialPredicate() {
+        return predicate == Predicates.alwaysTrue();
+    }
+
+    /**
+     * Returns a live view of the entries of backingMap whose keys satisfy the encoded conditions.
+     */
+    /* package */ <V1> Map<K1, V1> narrow(Map<K1, V1> backingMap) {
+        Map<K1, V1> narrowed = narrowToRange(backingMap);
+        return encodedPredicate == Predicates.alwaysTrue() ? narrowed : Maps.filterKeys(narrowed, encodedPredicate);
+    }
+
+    /**
+     * Removes the entries of backingMap whose keys do not satisfy the encoded conditions.
+     */
+    /* package */ <V1> void removeNotNarrowed(Map<K1, V1> backingMap) {
+        if (hasRange()) {
+            if (backingMap instanceof NavigableMap) {
+                NavigableMap<K1, V1> navigableMap = (NavigableMap<K1, V1>) backingMap;
+                if (lowerBound != null) {
+                    navigableMap.headMap(lowerBound, lowerBoundType == BoundType.OPEN).clear();
+                }
+                if (upperBound != null) {
+                    navigableMap.tailMap(upperBound, upperBoundType == BoundType.OPEN).clear();
+                }
+            } else {
+                Maps.filterKeys(backingMap, Predicates.not(inRange(comparatorOf(backingMap)))).clear();
+            }
+        }
+        if (encodedPredicate != Predicates.alwaysTrue()) {
+            Maps.filterKeys(narrowToRange(backingMap), Predicates.not(encodedPredicate)).clear();
+        }
+    }
+
+    private boolean hasRange() {
+        return lowerBound != null || upperBound != null;
+    }
+
+    private <V1> Map<K1, V1> narrowToRange(Map<K1, V1> backingMap) {
+        if (!hasRange()) {
+            return backingMap;
+        }
+        if (backingMap instanceof NavigableMap) {
+            NavigableMap<K1, V1> navigableMap = (NavigableMap<K1, V1>) backingMap;
+            if (lowerBound == null) {
+                return navigableMap.headMap(upperBound, upperBoundType == BoundType.CLOSED);
+            }
+            if (upperBound == null) {
+                return navigableMap.tailMap(lowerBound, lowerBoundType == BoundType.CLOSED);
+            }
+            return navigableMap.subMap(
+                    lowerBound, lowerBoundType == BoundType.CLOSED,
+                    upperBound, upperBoundType == BoundType.CLOSED
+            );
+        }
+
+        Map<K1, V1> candidates = backingMap;
+        if (backingMap instanceof SortedMap) {
+            // a sorted map only offers inclusive lower and exclusive upper bounds, the exact range is checked below
+            SortedMap<K1, V1> sortedMap = (SortedMap<K1, V1>) backingMap;
+            if (lowerBound != null) {
+                sortedMap = sortedMap.tailMap(lowerBound);
+            }
+            if (upperBound != null && upperBoundType == BoundType.OPEN) {
+                sortedMap = sortedMap.headMap(upperBound);
+            }
+            candidates = sortedMap;
+        }
+        return Maps.filterKeys(candidates, inRange(comparatorOf(backingMap)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K1> Comparator<? super K1> comparatorOf(Map<K1, ?> backingMap) {
+        if (backingMap instanceof SortedMap && ((SortedMap<K1, ?>) backingMap).comparator() != null) {
+            return ((SortedMap<K1, ?>) backingMap).comparator();
+        }
+        return (Comparator<? super K1>) (Comparator<?>) Ordering.natural();
+    }
+
+    private Predicate<K1> inRange(final Comparator<? super K1> comparator) {
+        return new Predicate<K1>() {
+            @Override
+            public boolean apply(K1 input) {
+                if (lowerBound != null) {
+                    int comparison = comparator.compare(input, lowerBound);
+                    if (comparison < 0 || comparison == 0 && lowerBoundType == BoundType.OPEN) {
+                        return false;
+                    }
+                }
+                if (upperBound != null) {
+                    int comparison = comparator.compare(input, upperBound);
+                    if (comparison > 0 || comparison == 0 && upperBoundType == BoundType.OPEN) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.yammer.collections.transforming.TransformationUtil.safeApplyAll;
+import static com.yammer.collections.transforming.TransformationUtil.safeTransform;
+
+/**
+ * Transforms arrays in slices, which a {@link BatchFunction} transforms with a single call each. {@link #transform}
+ * transforms the slices of large arrays in parallel on a shared pool, and so applies the function from multiple
+ * threads at once; it is only used where the caller asked for it, i.e. by the snapshots of {@link TransformingViews}.
+ * Null elements are transformed to null, and are not passed to the function.
+ */
+final class ParallelTransform {
+    static final int SLICE_SIZE = 1 << 13;
+
+    private ParallelTransform() {
+    }
+
+    /**
+     * Returns the elements of the collection in an array of runtime type Object[], which any transformed element can be
+     * stored into. toArray() may return an array of a narrower type on Java 7 and 8, e.g. that of Arrays.asList.
+     */
+    static Object[] toObjectArray(Collection<?> collection) {
+        Object[] elements = collection.toArray();
+        return elements.getClass() == Object[].class ?
+                elements :
+                Arrays.copyOf(elements, elements.length, Object[].class);
+    }
+
+    static void transformInPlace(Object[] array, Function<?, ?> function) {
+        transform(array, array, function);
+    }
+
+    /**
+     * Stores the transformed elements of source in the same positions of target, which is at least as long.
+     */
+    static void transform(Object[] source, Object[] target, Function<?, ?> function) {
+        if (source.length <= SLICE_SIZE) {
+            transformSlice(source, target, 0, source.length, function);
+        } else {
+            PoolHolder.POOL.invoke(new TransformSliceAction(source, target, 0, source.length, function));
+        }
+    }
+
+    /**
+     * Like {@link #transform}, but transforms all slices on the calling thread.
+     */
+    static void transformSequentially(Object[] source, Object[] target, Function<?, ?> function) {
+        for (int from = 0; from < source.length; from += SLICE_SIZE) {
+            transformSlice(source, target, from, Math.min(from + SLICE_SIZE, source.length), function);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void transformSlice(Object[] source, Object[] target, int from, int to, Function<?, ?> function) {
+        if (function instanceof BatchFunction) {
+            List<Object> results = safeApplyAll(
+                    (BatchFunction<Object, Object>) function, Arrays.asList(source).subList(from, to)
+            );
+            for (int i = from; i < to; i++) {
+                target[i] = results.get(i - from);
+            }
+            return;
+        }
+        Function<Object, Object> castFunction = (Function<Object, Object>) function;
+        for (int i = from; i < to; i++) {
+            target[i] = safeTransform(source[i], castFunction);
+        }
+    }
+
+    // created lazily, the worker threads are daemons
+    private static final class PoolHolder {
+        private static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    private static final class TransformSliceAction extends RecursiveAction {
+        private static final long serialVersionUID = 0L;
+        private final Object[] source;
+        private final Object[] target;
+        private final int from;
+        private final int to;
+        private final Function<?, ?> function;
+
+        private TransformSliceAction(Object[] source, Object[] target, int from, int to, Function<?, ?> function) {
+            this.source = source;
+            this.target = target;
+            this.from = from;
+            this.to = to;
+            this.function = function;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SLICE_SIZE) {
+                transformSlice(source, target, from, to, function);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                    new TransformSliceAction(source, target, from, middle, function),
+                    new TransformSliceAction(source, target, middle, to, function)
+            );
+        }
+    }
+}
@@ -15,7 +15,15 @@
  */
 package com.yammer.collections.transforming;
 
+import com.google.common.base.Converter;
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.Lists;
+
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkState;
 
 final class TransformationUtil {
     private TransformationUtil() {
@@ -25,4 +33,98 @@ final class TransformationUtil {
         return from == null ? null : conversionFunction.apply(from);
     }
 
+    /**
+     * Applies function to the non-null inputs with a single applyAll call, and maps null inputs to null, as
+     * safeTransform does.
+     */
+    static <F, T> List<T> safeApplyAll(BatchFunction<F, T> function, List<F> inputs) {
+        if (!inputs.contains(null)) {
+            return checkedApplyAll(function, inputs);
+        }
+        List<F> nonNullInputs = Lists.newArrayListWithCapacity(inputs.size());
+        for (F input : inputs) {
+            if (input != null) {
+                nonNullInputs.add(input);
+            }
+        }
+        Iterator<T> results = checkedApplyAll(function, nonNullInputs).iterator();
+        List<T> merged = Lists.newArrayListWithCapacity(inputs.size());
+        for (F input : inputs) {
+            merged.add(input == null ? null : results.next());
+        }
+        return merged;
+    }
+
+    private static <F, T> List<T> checkedApplyAll(BatchFunction<F, T> function, List<F> inputs) {
+        List<T> results = function.applyAll(inputs);
+        checkState(results.size() == inputs.size(),
+                "applyAll returned %s results for %s inputs", results.size(), inputs.size());
+        return results;
+    }
+
+    static boolean isIdentity(Function<?, ?> function) {
+        return function == Functions.identity() || function == Converter.identity();
+    }
+
+    /**
+     * Returns a function applying first and then second, skipping identities so that fused views do not accumulate
+     * layers of composition.
+     */
+    @SuppressWarnings("unchecked")
+    static <A, B, C> Function<A, C> andThen(Function<A, B> first, Function<B, C> second) {
+        if (isIdentity(first)) {
+            return (Function<A, C>) second;
+        }
+        if (isIdentity(second)) {
+            return (Function<A, C>) first;
+        }
+        if (first instanceof BatchFunction || second instanceof BatchFunction) {
+            return new ComposedBatchFunction<>(first, second);
+        }
+        return Functions.compose(second, first);
+    }
+
+    /**
+     * Keeps fused views able to transform in batches when one of the fused functions can.
+     */
+    private static final class ComposedBatchFunction<A, B, C> implements BatchFunction<A, C> {
+        private final Function<A, B> first;
+        private final Function<B, C> second;
+
+        private ComposedBatchFunction(Function<A, B> first, Function<B, C> second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public C apply(A input) {
+            return second.apply(first.apply(input));
+        }
+
+        @Override
+        public List<C> applyAll(List<A> inputs) {
+            return applyAll(second, applyAll(first, inputs));
+        }
+
+        @Override
+        public int getBatchSize() {
+            return Math.max(batchSize(first), batchSize(second));
+        }
+
+        private static int batchSize(Function<?, ?> function) {
+            return function instanceof BatchFunction ? ((BatchFunction<?, ?>) function).getBatchSize() : 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <F, T> List<T> applyAll(Function<F, T> function, List<F> inputs) {
+            if (function instanceof BatchFunction) {
+                return safeApplyAll((BatchFunction<F, T>) function, inputs);
+            }
+            List<T> results = Lists.newArrayListWithCapacity(inputs.size());
+            for (F input : inputs) {
+                results.add(safeTransform(input, function));
+            }
+            return results;
+        }
+    }
 }
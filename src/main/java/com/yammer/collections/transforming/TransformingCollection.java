@@ -18,12 +18,15 @@ package com.yammer.collections.transforming;
 import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.ObjectArrays;
 
 import java.util.AbstractCollection;
 import java.util.Collection;
 import java.util.Iterator;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.yammer.collections.transforming.TransformationUtil.andThen;
+import static com.yammer.collections.transforming.TransformationUtil.isIdentity;
 import static com.yammer.collections.transforming.TransformationUtil.safeTransform;
 
 /**
@@ -48,14 +51,88 @@ public class TransformingCollection<F, T> extends AbstractCollection<F> {
         this.fromFunction = checkNotNull(fromFunction);
     }
 
+    /**
+     * When both functions are identities the backing collection itself is returned. When the backing collection is a
+     * TransformingCollection the two layers are fused into a single view over its backing collection.
+     */
+    @SuppressWarnings("unchecked")
     public static <F, T> Collection<F> create(
             Collection<T> backingCollection,
             Function<F, T> toFunction,
             Function<T, F> fromFunction
     ) {
+        checkNotNull(backingCollection);
+        if (isIdentity(checkNotNull(toFunction)) && isIdentity(checkNotNull(fromFunction))) {
+            return (Collection<F>) backingCollection;
+        }
+        if (backingCollection.getClass() == TransformingCollection.class) {
+            return fuse((TransformingCollection<T, ?>) backingCollection, toFunction, fromFunction);
+        }
         return new TransformingCollection<>(backingCollection, toFunction, fromFunction);
     }
 
+    private static <F, T, T1> Collection<F> fuse(
+            TransformingCollection<T, T1> backingCollection,
+            Function<F, T> toFunction,
+            Function<T, F> fromFunction
+    ) {
+        return create(
+                backingCollection.getBackingCollection(),
+                andThen(toFunction, backingCollection.getToFunction()),
+                andThen(backingCollection.getFromFunction(), fromFunction)
+        );
+    }
+
+    /* package */ Collection<T> getBackingCollection() {
+        return backingCollection;
+    }
+
+    /* package */ Function<F, T> getToFunction() {
+        return toFunction;
+    }
+
+    /* package */ Function<T, F> getFromFunction() {
+        return fromFunction;
+    }
+
+    /**
+     * Returns an array of exactly size() transformed elements. The backing elements are copied out in a single pass,
+     * large arrays are transformed in parallel slices, so fromFunction is applied from several threads at once. Only
+     * used by the snapshots of {@link TransformingViews}, which document it.
+     */
+    /* package */ Object[] toTransformedArray() {
+        Object[] result = ParallelTransform.toObjectArray(backingCollection);
+        ParallelTransform.transformInPlace(result, fromFunction);
+        return result;
+    }
+
+    /**
+     * Returns an exactly sized array, filled in a single pass on the calling thread.
+     */
+    @Override
+    public Object[] toArray() {
+        Object[] result = ParallelTransform.toObjectArray(backingCollection);
+        ParallelTransform.transformSequentially(result, result, fromFunction);
+        return result;
+    }
+
+    /**
+     * Decodes straight into the given array when it is large enough, or into a new array of exactly size() elements.
+     */
+    @SuppressWarnings({"NullableProblems", "SuspiciousToArrayCall"})
+    @Override
+    public <E> E[] toArray(E[] array) {
+        Object[] backingElements = backingCollection.toArray();
+        E[] result = array.length >= backingElements.length ?
+                array :
+                ObjectArrays.newArray(array, backingElements.length);
+        ParallelTransform.transformSequentially(backingElements, result, fromFunction);
+        if (result.length > backingElements.length) {
+            result[backingElements.length] = null;
+        }
+        return result;
+    }
+
     @Override
     public int size() {
         return backingCollection.size();
@@ -77,9 +154,16 @@ public class TransformingCollection<F, T> extends AbstractCollection<F> {
         }
     }
 
-    @SuppressWarnings("NullableProblems")
+    /**
+     * When fromFunction is a {@link BatchFunction} the backing elements are transformed in chunks, see
+     * {@link ChunkedIterator}.
+     */
+    @SuppressWarnings({"NullableProblems", "unchecked"})
     @Override
     public Iterator<F> iterator() {
+        if (fromFunction instanceof BatchFunction) {
+            return new ChunkedIterator<>(backingCollection, (BatchFunction<T, F>) fromFunction);
+        }
         return Iterators.transform(backingCollection.iterator(), fromFunction);
     }
 
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Decorators for the transforming functions passed to the create() factories of the transforming views.
+ */
+public final class TransformingFunctions {
+    private TransformingFunctions() {
+    }
+
+    /**
+     * Returns a function which interns the results of fromFunction in a new weak interner, so that equal results share
+     * a single instance for as long as any of them is strongly reachable.
+     * <p/>
+     * Intended for the from-key functions of {@link TransformingMap} and the from-row/column functions of
+     * {@link TransformingTable}, whose results are often retained by long lived consumers.
+     */
+    public static <F, T> Function<F, T> interning(Function<F, T> fromFunction) {
+        return interning(fromFunction, Interners.<T>newWeakInterner());
+    }
+
+    /**
+     * Returns a function which interns the results of fromFunction in the given interner. Sharing an interner between
+     * several views makes them share the transformed instances too.
+     */
+    public static <F, T> Function<F, T> interning(Function<F, T> fromFunction, Interner<T> interner) {
+        return new InterningFunction<F, T>(fromFunction, interner);
+    }
+
+    private static final class InterningFunction<F, T> implements Function<F, T> {
+        private final Function<F, T> fromFunction;
+        private final Interner<T> interner;
+
+        private InterningFunction(Function<F, T> fromFunction, Interner<T> interner) {
+            this.fromFunction = checkNotNull(fromFunction);
+            this.interner = checkNotNull(interner);
+        }
+
+        @Override
+        public T apply(F input) {
+            return interner.intern(fromFunction.apply(input));
+        }
+    }
+}
@@ -17,13 +17,18 @@ package com.yammer.collections.transforming;
 
 
 import com.google.common.base.Function;
+import com.yammer.collections.backing.ProbeableHashMap;
+import com.yammer.collections.codec.HeterogeneousLookup;
 
 import java.util.AbstractMap;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.yammer.collections.transforming.TransformationUtil.andThen;
+import static com.yammer.collections.transforming.TransformationUtil.isIdentity;
 import static com.yammer.collections.transforming.TransformationUtil.safeTransform;
 
 public class TransformingMap<K, V, K1, V1> extends AbstractMap<K, V> {
@@ -34,15 +39,22 @@ public class TransformingMap<K, V, K1, V1> extends AbstractMap<K, V> {
     private final Function<V1, V> fromValueFunction;
     private final Function<Entry<K, V>, Entry<K1, V1>> toEntryFunction;
     private final Function<Entry<K1, V1>, Entry<K, V>> fromEntryFunction;
+    private final boolean memoizeEntries;
+    // the views are stateless, so racing threads may create them more than once
+    private Set<Entry<K, V>> entrySet;
+    private Set<K> keySet;
+    private Collection<V> values;
 
     private TransformingMap(
             Map<K1, V1> backingMap,
             final Function<K, K1> toKeyFunction,
             final Function<K1, K> fromKeyFunction,
             final Function<V, V1> toValueFunction,
-            final Function<V1, V> fromValueFunction
+            final Function<V1, V> fromValueFunction,
+            final boolean memoizeEntries
     ) {
         this.backingMap = checkNotNull(backingMap);
+        this.memoizeEntries = memoizeEntries;
         this.toKeyFunction = checkNotNull(toKeyFunction);
         this.fromKeyFunction = checkNotNull(fromKeyFunction);
         this.toValueFunction = checkNotNull(toValueFunction);
@@ -63,16 +75,27 @@ public class TransformingMap<K, V, K1, V1> extends AbstractMap<K, V> {
                 Function<Entry<K1, V1>, Entry<K, V>>() {
                     @Override
                     public Entry<K, V> apply(Entry<K1, V1> kvEntry) {
-                        return new TransformingEntry<K, V, K1, V1>(
-                                kvEntry,
-                                fromKeyFunction,
-                                toValueFunction,
-                                fromValueFunction
-                        );
+                        return memoizeEntries ?
+                                new MemoizingTransformingEntry<K, V, K1, V1>(
+                                        kvEntry,
+                                        fromKeyFunction,
+                                        toValueFunction,
+                                        fromValueFunction
+                                ) :
+                                new TransformingEntry<K, V, K1, V1>(
+                                        kvEntry,
+                                        fromKeyFunction,
+                                        toValueFunction,
+                                        fromValueFunction
+                                );
                     }
                 };
     }
 
+    /**
+     * When all functions are identities the backing map itself is returned. When the backing map is a TransformingMap
+     * the two layers are fused into a single view over its backing map.
+     */
     public static <K, V, K1, V1> Map<K, V> create(
             Map<K1, V1> backingMap,
             Function<K, K1> toKeyFunction,
@@ -80,7 +103,109 @@ public class TransformingMap<K, V, K1, V1> extends AbstractMap<K, V> {
             Function<V, V1> toValueFunction,
             Function<V1, V> fromValueFunction
     ) {
-        return new TransformingMap<K, V, K1, V1>(backingMap, toKeyFunction, fromKeyFunction, toValueFunction, fromValueFunction);
+        return create(backingMap, toKeyFunction, fromKeyFunction, toValueFunction, fromValueFunction, false);
+    }
+
+    /**
+     * Like {@link #create}, but the entries of entrySet() transform their key at most once, and their value at most
+     * once per backing value, so that e.g. sorting the entries by key does not transform the keys on every comparison.
+     * Pays off when the entries are read repeatedly; when the backing entries return a new value object on every
+     * read, it only adds a cache object per read.
+     */
+    public static <K, V, K1, V1> Map<K, V> createWithMemoizingEntries(
+            Map<K1, V1> backingMap,
+            Function<K, K1> toKeyFunction,
+            Function<K1, K> fromKeyFunction,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction
+    ) {
+        return create(backingMap, toKeyFunction, fromKeyFunction, toValueFunction, fromValueFunction, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V, K1, V1> Map<K, V> create(
+            Map<K1, V1> backingMap,
+            Function<K, K1> toKeyFunction,
+            Function<K1, K> fromKeyFunction,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction,
+            boolean memoizeEntries
+    ) {
+        checkNotNull(backingMap);
+        if (isIdentity(checkNotNull(toKeyFunction)) && isIdentity(checkNotNull(fromKeyFunction)) &&
+                isIdentity(checkNotNull(toValueFunction)) && isIdentity(checkNotNull(fromValueFunction))) {
+            return (Map<K, V>) backingMap;
+        }
+        if (backingMap.getClass() == TransformingMap.class) {
+            return fuse(
+                    (TransformingMap<K1, V1, ?, ?>) backingMap,
+                    toKeyFunction, fromKeyFunction,
+                    toValueFunction, fromValueFunction,
+                    memoizeEntries
+            );
+        }
+        return new TransformingMap<K, V, K1, V1>(
+                backingMap, toKeyFunction, fromKeyFunction, toValueFunction, fromValueFunction, memoizeEntries
+        );
+    }
+
+    /**
+     * Creates a view whose get and containsKey probe the backing map with the untransformed key through lookup, instead
+     * of transforming it, so that they do not allocate the transformed key. The lookup has to agree with toKeyFunction
+     * and with the equivalence of the backing map. The view is never fused with an enclosing TransformingMap.
+     */
+    public static <K, V, K1, V1> Map<K, V> createWithLookup(
+            ProbeableHashMap<K1, V1> backingMap,
+            HeterogeneousLookup<K, K1> lookup,
+            Function<K, K1> toKeyFunction,
+            Function<K1, K> fromKeyFunction,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction
+    ) {
+        return new ProbingTransformingMap<K, V, K1, V1>(
+                backingMap, checkNotNull(lookup),
+                toKeyFunction, fromKeyFunction,
+                toValueFunction, fromValueFunction
+        );
+    }
+
+    private static <K, V, K1, V1, K2, V2> Map<K, V> fuse(
+            TransformingMap<K1, V1, K2, V2> backingMap,
+            Function<K, K1> toKeyFunction,
+            Function<K1, K> fromKeyFunction,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction,
+            boolean memoizeEntries
+    ) {
+        // the fused entries are memoized when the entries of either layer were
+        return create(
+                backingMap.getBackingMap(),
+                andThen(toKeyFunction, backingMap.getToKeyFunction()),
+                andThen(backingMap.getFromKeyFunction(), fromKeyFunction),
+                andThen(toValueFunction, backingMap.getToValueFunction()),
+                andThen(backingMap.getFromValueFunction(), fromValueFunction),
+                memoizeEntries || backingMap.memoizeEntries
+        );
+    }
+
+    /* package */ Map<K1, V1> getBackingMap() {
+        return backingMap;
+    }
+
+    /* package */ Function<K, K1> getToKeyFunction() {
+        return toKeyFunction;
+    }
+
+    /* package */ Function<K1, K> getFromKeyFunction() {
+        return fromKeyFunction;
+    }
+
+    /* package */ Function<V, V1> getToValueFunction() {
+        return toValueFunction;
+    }
+
+    /* package */ Function<V1, V> getFromValueFunction() {
+        return fromValueFunction;
     }
 
     @Override
@@ -96,11 +221,16 @@ public class TransformingMap<K, V, K1, V1> extends AbstractMap<K, V> {
     @SuppressWarnings("NullableProblems")
     @Override
     public Set<Entry<K, V>> entrySet() {
-        return TransformingSet.create(
-                backingMap.entrySet(),
-                toEntryFunction,
-                fromEntryFunction
-        );
+        Set<Entry<K, V>> result = entrySet;
+        if (result == null) {
+            result = TransformingSet.create(
+                    backingMap.entrySet(),
+                    toEntryFunction,
+                    fromEntryFunction
+            );
+            entrySet = result;
+        }
+        return result;
     }
 
     @SuppressWarnings("unchecked")
@@ -149,6 +279,22 @@ public class TransformingMap<K, V, K1, V1> extends AbstractMap<K, V> {
         );
     }
 
+    /**
+     * Encodes the entries and writes them with a single putAll on the backing map, which does not have to read the
+     * previous values as put does, e.g. a LogStructuredMap only appends them.
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        Map<K1, V1> encoded = new LinkedHashMap<K1, V1>();
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            encoded.put(
+                    safeTransform(checkNotNull(entry.getKey()), toKeyFunction),
+                    safeTransform(checkNotNull(entry.getValue()), toValueFunction)
+            );
+        }
+        backingMap.putAll(encoded);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public V remove(Object key) {
@@ -171,24 +317,34 @@ public class TransformingMap<K, V, K1, V1> extends AbstractMap<K, V> {
     @SuppressWarnings("NullableProblems")
     @Override
     public Set<K> keySet() {
-        return TransformingSet.create(
-                backingMap.keySet(), toKeyFunction, fromKeyFunction
-        );
+        Set<K> result = keySet;
+        if (result == null) {
+            result = TransformingSet.create(
+                    backingMap.keySet(), toKeyFunction, fromKeyFunction
+            );
+            keySet = result;
+        }
+        return result;
     }
 
     @SuppressWarnings("NullableProblems")
     @Override
     public Collection<V> values() {
-        return TransformingCollection.create(
-                backingMap.values(), toValueFunction, fromValueFunction
-        );
+        Collection<V> result = values;
+        if (result == null) {
+            result = TransformingCollection.create(
+                    backingMap.values(), toValueFunction, fromValueFunction
+            );
+            values = result;
+        }
+        return result;
     }
 
     private static class TransformingEntry<K, V, K1, V1> implements Entry<K, V> {
-        private final Entry<K1, V1> backingEntry;
-        private final Function<K1, K> fromKeyFunction;
-        private final Function<V, V1> toValueFunction;
-        private final Function<V1, V> fromValueFunction;
+        final Entry<K1, V1> backingEntry;
+        final Function<K1, K> fromKeyFunction;
+        final Function<V, V1> toValueFunction;
+        final Function<V1, V> fromValueFunction;
 
         public TransformingEntry(Entry<K1, V1> backingEntry,
                                  Function<K1, K> fromKeyFunction,
@@ -218,4 +374,123 @@ public class TransformingMap<K, V, K1, V1> extends AbstractMap<K, V> {
             );
         }
     }
+
+    /**
+     * Transforms the key at most once, and the value at most once per backing value. The backing value is compared by
+     * reference, so changes made through the backing entry or through setValue are always observed.
+     */
+    private static final class MemoizingTransformingEntry<K, V, K1, V1> extends TransformingEntry<K, V, K1, V1> {
+        private Transformed<K1, K> key;
+        private Transformed<V1, V> value;
+
+        private MemoizingTransformingEntry(Entry<K1, V1> backingEntry,
+                                           Function<K1, K> fromKeyFunction,
+                                           Function<V, V1> toValueFunction,
+                                           Function<V1, V> fromValueFunction) {
+            super(backingEntry, fromKeyFunction, toValueFunction, fromValueFunction);
+        }
+
+        @Override
+        public K getKey() {
+            Transformed<K1, K> cachedKey = key;
+            if (cachedKey == null) {
+                K1 backingKey = backingEntry.getKey();
+                cachedKey = new Transformed<K1, K>(backingKey, safeTransform(backingKey, fromKeyFunction));
+                key = cachedKey;
+            }
+            return cachedKey.transformed;
+        }
+
+        @Override
+        public V getValue() {
+            V1 backingValue = backingEntry.getValue();
+            if (backingValue == null) {
+                return null;
+            }
+            Transformed<V1, V> cachedValue = value;
+            if (cachedValue != null && cachedValue.backing == backingValue) {
+                return cachedValue.transformed;
+            }
+            V transformedValue = fromValueFunction.apply(backingValue);
+            value = new Transformed<V1, V>(backingValue, transformedValue);
+            return transformedValue;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V1 backingValue = safeTransform(checkNotNull(value), toValueFunction);
+            V1 previousBackingValue = backingEntry.setValue(backingValue);
+            Transformed<V1, V> cachedValue = this.value;
+            V previousValue = cachedValue != null && cachedValue.backing == previousBackingValue ?
+                    cachedValue.transformed :
+                    safeTransform(previousBackingValue, fromValueFunction);
+            this.value = new Transformed<V1, V>(backingValue, value);
+            return previousValue;
+        }
+    }
+
+    // published as a whole through final fields, so that a racing reader either sees no transformation or a complete
+    // one, and never pairs a backing value with another value's transformation
+    private static final class Transformed<T, F> {
+        private final T backing;
+        private final F transformed;
+
+        private Transformed(T backing, F transformed) {
+            this.backing = backing;
+            this.transformed = transformed;
+        }
+    }
+
+    private static final class ProbingTransformingMap<K, V, K1, V1> extends TransformingMap<K, V, K1, V1> {
+        private final ProbeableHashMap<K1, V1> probeableMap;
+        private final HeterogeneousLookup<K, K1> lookup;
+        private Set<K> keySet;
+
+        private ProbingTransformingMap(
+                ProbeableHashMap<K1, V1> backingMap,
+                HeterogeneousLookup<K, K1> lookup,
+                Function<K, K1> toKeyFunction,
+                Function<K1, K> fromKeyFunction,
+                Function<V, V1> toValueFunction,
+                Function<V1, V> fromValueFunction
+        ) {
+            super(backingMap, toKeyFunction, fromKeyFunction, toValueFunction, fromValueFunction, false);
+            this.probeableMap = backingMap;
+            this.lookup = lookup;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public boolean containsKey(Object key) {
+            try {
+                return key != null && probeableMap.containsProbe((K) key, lookup);
+            } catch (ClassCastException ignored) {
+                return false;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V get(Object key) {
+            try {
+                return key == null ? null :
+                        safeTransform(probeableMap.getByProbe((K) key, lookup), getFromValueFunction());
+            } catch (ClassCastException ignored) {
+                return null;
+            }
+        }
+
+        @SuppressWarnings("NullableProblems")
+        @Override
+        public Set<K> keySet() {
+            Set<K> result = keySet;
+            if (result == null) {
+                result = TransformingSet.createWithLookup(
+                        probeableMap.keySet(), lookup, getToKeyFunction(), getFromKeyFunction()
+                );
+                keySet = result;
+            }
+            return result;
+        }
+    }
 }
@@ -16,9 +16,15 @@
 package com.yammer.collections.transforming;
 
 import com.google.common.base.Function;
+import com.yammer.collections.backing.ProbeableSet;
+import com.yammer.collections.codec.HeterogeneousLookup;
 
 import java.util.Set;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.yammer.collections.transforming.TransformationUtil.andThen;
+import static com.yammer.collections.transforming.TransformationUtil.isIdentity;
+
 /**
  * This implementation will break if the following is not satisfied:
  * <p/>
@@ -31,14 +37,52 @@ import java.util.Set;
  */
 public class TransformingSet<F, T> extends TransformingCollection<F, T> implements Set<F> {
 
+    /**
+     * When both functions are identities the backing set itself is returned. When the backing set is a
+     * TransformingSet the two layers are fused into a single view over its backing set.
+     */
+    @SuppressWarnings("unchecked")
     public static <F,T> Set<F> create(
             Set<T> backingCollection,
             Function<F, T> toFunction,
             Function<T, F> fromFunction
     ) {
+        checkNotNull(backingCollection);
+        if (isIdentity(checkNotNull(toFunction)) && isIdentity(checkNotNull(fromFunction))) {
+            return (Set<F>) backingCollection;
+        }
+        if (backingCollection.getClass() == TransformingSet.class) {
+            return fuse((TransformingSet<T, ?>) backingCollection, toFunction, fromFunction);
+        }
         return new TransformingSet<F,T>(backingCollection, toFunction, fromFunction);
     }
 
+    /**
+     * Creates a view whose contains probes the backing set with the untransformed element through lookup, instead of
+     * transforming it. The lookup has to agree with toFunction. The view is never fused with an enclosing
+     * TransformingSet.
+     */
+    public static <F, T> Set<F> createWithLookup(
+            ProbeableSet<T> backingSet,
+            HeterogeneousLookup<F, T> lookup,
+            Function<F, T> toFunction,
+            Function<T, F> fromFunction
+    ) {
+        return new ProbingTransformingSet<F, T>(backingSet, checkNotNull(lookup), toFunction, fromFunction);
+    }
+
+    private static <F, T, T1> Set<F> fuse(
+            TransformingSet<T, T1> backingSet,
+            Function<F, T> toFunction,
+            Function<T, F> fromFunction
+    ) {
+        return create(
+                (Set<T1>) backingSet.getBackingCollection(),
+                andThen(toFunction, backingSet.getToFunction()),
+                andThen(backingSet.getFromFunction(), fromFunction)
+        );
+    }
+
 
     private TransformingSet(Set<T> backingSet, Function<F, T> toFunction, Function<T, F> fromFunction) {
         super(backingSet, toFunction, fromFunction);
@@ -53,4 +97,30 @@ public class TransformingSet<F, T> extends TransformingCollection<F, T> implemen
     public int hashCode() {
         return super.hashCode();
     }
+
+    private static final class ProbingTransformingSet<F, T> extends TransformingSet<F, T> {
+        private final ProbeableSet<T> probeableSet;
+        private final HeterogeneousLookup<F, T> lookup;
+
+        private ProbingTransformingSet(
+                ProbeableSet<T> backingSet,
+                HeterogeneousLookup<F, T> lookup,
+                Function<F, T> toFunction,
+                Function<T, F> fromFunction
+        ) {
+            super(backingSet, toFunction, fromFunction);
+            this.probeableSet = backingSet;
+            this.lookup = lookup;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public boolean contains(Object o) {
+            try {
+                return o != null && probeableSet.containsProbe((F) o, lookup);
+            } catch (ClassCastException ignored) {
+                return false;
+            }
+        }
+    }
 }
@@ -19,16 +19,22 @@ import com.google.common.base.Function;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Table;
 import com.google.common.collect.Tables;
+import com.yammer.collections.backing.ColumnIndexedTable;
+import com.yammer.collections.codec.KeyDictionary;
 
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.yammer.collections.transforming.TransformationUtil.andThen;
+import static com.yammer.collections.transforming.TransformationUtil.isIdentity;
 import static com.yammer.collections.transforming.TransformationUtil.safeTransform;
 
 @SuppressWarnings({"ClassWithTooManyFields", "ClassWithTooManyMethods"})
 public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
+    private static final int VIEW_CACHE_SIZE = 8;
+
     private final Function<Cell<R, C, V>, Cell<R1, C1, V1>> toBackingCellFunction = new Function<Cell<R, C, V>, Cell<R1, C1, V1>>() {
         @Override
         public Cell<R1, C1, V1> apply(Cell<R, C, V> input) {
@@ -53,6 +59,8 @@ public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
     private final Function<C, C1> toColumnFunction;
     private final Function<C1, C> fromColumnFunction;
     private final Function<R, R1> toRowFunction;
+    private final Function<R, R1> rowLookupFunction;
+    private final Function<C, C1> columnLookupFunction;
     private final Function<R1, R> fromRowFunction;
     private final Function<V, V1> toValueFunction;
     private final Function<V1, V> fromValueFunction;
@@ -61,17 +69,32 @@ public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
     private final Function<Map<C1, V1>, Map<C, V>> fromRowMapValueFunction;
     private final Function<Map<R, V>, Map<R1, V1>> toColumnMapValueFunction;
     private final Function<Map<R1, V1>, Map<R, V>> fromColumnMapValueFunction;
-
+    // the views are stateless, so racing threads may create them more than once
+    private Set<Cell<R, C, V>> cellSet;
+    private Set<R> rowKeySet;
+    private Set<C> columnKeySet;
+    private Collection<V> values;
+    private Map<R, Map<C, V>> rowMap;
+    private Map<C, Map<R, V>> columnMap;
+    // direct mapped caches of recently requested row and column views, see CachedView
+    private final Object[] rowViews = new Object[VIEW_CACHE_SIZE];
+    private final Object[] columnViews = new Object[VIEW_CACHE_SIZE];
+
+    @SuppressWarnings("MethodWithTooManyParameters")
     private TransformingTable(
             Table<R1, C1, V1> backingTable,
             Function<R, R1> toRowFunction,
             Function<R1, R> fromRowFunction,
+            Function<R, R1> rowLookupFunction,
             Function<C, C1> toColumnFunction,
             Function<C1, C> fromColumnFunction,
+            Function<C, C1> columnLookupFunction,
             Function<V, V1> toValueFunction,
             Function<V1, V> fromValueFunction) {
         this.backingTable = checkNotNull(backingTable);
         this.toRowFunction = checkNotNull(toRowFunction);
+        this.rowLookupFunction = checkNotNull(rowLookupFunction);
+        this.columnLookupFunction = checkNotNull(columnLookupFunction);
         this.fromRowFunction = checkNotNull(fromRowFunction);
         this.toColumnFunction = checkNotNull(toColumnFunction);
         this.fromColumnFunction = checkNotNull(fromColumnFunction);
@@ -95,6 +118,11 @@ public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
         );
     }
 
+    /**
+     * When all functions are identities the backing table itself is returned. When the backing table is a
+     * TransformingTable the two layers are fused into a single view over its backing table.
+     */
+    @SuppressWarnings("unchecked")
     public static <R, C, V, R1, C1, V1> Table<R, C, V> create(
             Table<R1, C1, V1> backingTable,
             Function<R, R1> toRowFunction,
@@ -103,14 +131,131 @@ public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
             Function<C1, C> fromColumnFunction,
             Function<V, V1> toValueFunction,
             Function<V1, V> fromValueFunction) {
-        return new TransformingTable<R, C, V, R1, C1, V1>(
+        return create(
+                backingTable,
+                toRowFunction, fromRowFunction, toRowFunction,
+                toColumnFunction, fromColumnFunction, toColumnFunction,
+                toValueFunction, fromValueFunction
+        );
+    }
+
+    /**
+     * Creates a view which stores dense int ids of the row and column keys in the backing table, instead of the keys
+     * themselves. The dictionaries may be shared between tables.
+     * <p/>
+     * Queries through the methods of the table, e.g. get() and contains(), do not assign ids to unknown keys. Keys passed
+     * to row(), column() and to the map views are assigned ids, as these views may write.
+     */
+    public static <R, C, V, V1> Table<R, C, V> createDictionaryEncoded(
+            Table<Integer, Integer, V1> backingTable,
+            KeyDictionary<R> rowDictionary,
+            KeyDictionary<C> columnDictionary,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction) {
+        return create(
                 backingTable,
+                rowDictionary, rowDictionary.reverse(), rowDictionary.lookup(),
+                columnDictionary, columnDictionary.reverse(), columnDictionary.lookup(),
+                toValueFunction, fromValueFunction
+        );
+    }
+
+    /**
+     * Creates a view over a new, empty ColumnIndexedTable, for tables which are read by column about as often as by row.
+     * column(), containsColumn() and columnMap() then cost in proportion to the cells of a column rather than to the
+     * number of rows, at the price of a second index updated on every write.
+     */
+    public static <R, C, V, R1, C1, V1> Table<R, C, V> createColumnIndexed(
+            Function<R, R1> toRowFunction,
+            Function<R1, R> fromRowFunction,
+            Function<C, C1> toColumnFunction,
+            Function<C1, C> fromColumnFunction,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction) {
+        return create(
+                ColumnIndexedTable.<R1, C1, V1>create(),
                 toRowFunction, fromRowFunction,
                 toColumnFunction, fromColumnFunction,
                 toValueFunction, fromValueFunction
         );
     }
 
+    /**
+     * The lookup functions transform keys passed to queries, and may return null for keys which cannot be in the backing
+     * table.
+     */
+    @SuppressWarnings({"unchecked", "MethodWithTooManyParameters"})
+    private static <R, C, V, R1, C1, V1> Table<R, C, V> create(
+            Table<R1, C1, V1> backingTable,
+            Function<R, R1> toRowFunction,
+            Function<R1, R> fromRowFunction,
+            Function<R, R1> rowLookupFunction,
+            Function<C, C1> toColumnFunction,
+            Function<C1, C> fromColumnFunction,
+            Function<C, C1> columnLookupFunction,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction) {
+        checkNotNull(backingTable);
+        if (isIdentity(checkNotNull(toRowFunction)) && isIdentity(checkNotNull(fromRowFunction)) &&
+                isIdentity(checkNotNull(rowLookupFunction)) &&
+                isIdentity(checkNotNull(toColumnFunction)) && isIdentity(checkNotNull(fromColumnFunction)) &&
+                isIdentity(checkNotNull(columnLookupFunction)) &&
+                isIdentity(checkNotNull(toValueFunction)) && isIdentity(checkNotNull(fromValueFunction))) {
+            return (Table<R, C, V>) backingTable;
+        }
+        if (backingTable.getClass() == TransformingTable.class) {
+            return fuse(
+                    (TransformingTable<R1, C1, V1, ?, ?, ?>) backingTable,
+                    toRowFunction, fromRowFunction, rowLookupFunction,
+                    toColumnFunction, fromColumnFunction, columnLookupFunction,
+                    toValueFunction, fromValueFunction
+            );
+        }
+        return new TransformingTable<R, C, V, R1, C1, V1>(
+                backingTable,
+                toRowFunction, fromRowFunction, rowLookupFunction,
+                toColumnFunction, fromColumnFunction, columnLookupFunction,
+                toValueFunction, fromValueFunction
+        );
+    }
+
+    @SuppressWarnings("MethodWithTooManyParameters")
+    private static <R, C, V, R1, C1, V1, R2, C2, V2> Table<R, C, V> fuse(
+            TransformingTable<R1, C1, V1, R2, C2, V2> backingTable,
+            Function<R, R1> toRowFunction,
+            Function<R1, R> fromRowFunction,
+            Function<R, R1> rowLookupFunction,
+            Function<C, C1> toColumnFunction,
+            Function<C1, C> fromColumnFunction,
+            Function<C, C1> columnLookupFunction,
+            Function<V, V1> toValueFunction,
+            Function<V1, V> fromValueFunction) {
+        return create(
+                backingTable.backingTable,
+                andThen(toRowFunction, backingTable.toRowFunction),
+                andThen(backingTable.fromRowFunction, fromRowFunction),
+                andThen(rowLookupFunction, nullSafe(backingTable.rowLookupFunction)),
+                andThen(toColumnFunction, backingTable.toColumnFunction),
+                andThen(backingTable.fromColumnFunction, fromColumnFunction),
+                andThen(columnLookupFunction, nullSafe(backingTable.columnLookupFunction)),
+                andThen(toValueFunction, backingTable.toValueFunction),
+                andThen(backingTable.fromValueFunction, fromValueFunction)
+        );
+    }
+
+    // an outer lookup function may return null, which the inner one has to pass on
+    private static <F, T> Function<F, T> nullSafe(final Function<F, T> function) {
+        if (isIdentity(function)) {
+            return function;
+        }
+        return new Function<F, T>() {
+            @Override
+            public T apply(F input) {
+                return safeTransform(input, function);
+            }
+        };
+    }
+
     private static <K, V, K1, V1> Function<Map<K, V>, Map<K1, V1>> createFromMapTransformation(
             final Function<K1, K> toKeyFunction,
             final Function<K, K1> fromKeyFunction,
@@ -147,6 +292,18 @@ public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
         };
     }
 
+    /* package */ Table<R1, C1, V1> getBackingTable() {
+        return backingTable;
+    }
+
+    /* package */ Function<Cell<R1, C1, V1>, Cell<R, C, V>> getFromBackingCellFunction() {
+        return fromBackingCellFunction;
+    }
+
+    /* package */ Function<V, V1> getToValueFunction() {
+        return toValueFunction;
+    }
+
     @SuppressWarnings("unchecked")
     private static <F, T> T tryTransforming(Object o, Function<F, T> transfromingFunction) {
         try {
@@ -161,8 +318,8 @@ public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
         if (rowKey == null || columnKey == null) {
             return false;
         }
-        R1 mRowKey = tryTransforming(rowKey, toRowFunction);
-        C1 mColumnKey = tryTransforming(columnKey, toColumnFunction);
+        R1 mRowKey = tryTransforming(rowKey, rowLookupFunction);
+        C1 mColumnKey = tryTransforming(columnKey, columnLookupFunction);
         return mRowKey != null &&
                 mColumnKey != null &&
                 backingTable.contains(mRowKey, mColumnKey);
@@ -173,7 +330,7 @@ public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
         if(rowKey == null) {
             return false;
         }
-        R1 mRowKey = tryTransforming(rowKey, toRowFunction);
+        R1 mRowKey = tryTransforming(rowKey, rowLookupFunction);
         return mRowKey != null && backingTable.containsRow(mRowKey);
     }
 
@@ -182,7 +339,7 @@ public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
         if(columnKey == null) {
             return false;
         }
-        C1 mColumnKey = tryTransforming(columnKey, toColumnFunction);
+        C1 mColumnKey = tryTransforming(columnKey, columnLookupFunction);
         return mColumnKey != null && backingTable.containsColumn(mColumnKey);
     }
 
@@ -201,8 +358,8 @@ public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
             return null;
         }
 
-        R1 mRowKey = tryTransforming(rowKey, toRowFunction);
-        C1 mColumnKey = tryTransforming(columnKey, toColumnFunction);
+        R1 mRowKey = tryTransforming(rowKey, rowLookupFunction);
+        C1 mColumnKey = tryTransforming(columnKey, columnLookupFunction);
 
         if (mRowKey == null || mColumnKey == null) {
             return null;
@@ -254,8 +411,8 @@ public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
             return null;
         }
 
-        R1 mRowKey = tryTransforming(rowKey, toRowFunction);
-        C1 mColumnKey = tryTransforming(columnKey, toColumnFunction);
+        R1 mRowKey = tryTransforming(rowKey, rowLookupFunction);
+        C1 mColumnKey = tryTransforming(columnKey, columnLookupFunction);
 
         if (mRowKey == null || mColumnKey == null) {
             return null;
@@ -264,60 +421,111 @@ public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
         return safeTransform(backingTable.remove(mRowKey, mColumnKey), fromValueFunction);
     }
 
+    /**
+     * Row views are live, so the views of recently requested rows are reused instead of encoding the key again.
+     */
+    @SuppressWarnings("unchecked")
     @Override
     public Map<C, V> row(R rowKey) {
         checkNotNull(rowKey);
-        return TransformingMap.create(
+        int slot = viewSlot(rowKey);
+        CachedView<R, Map<C, V>> cached = (CachedView<R, Map<C, V>>) rowViews[slot];
+        if (cached != null && cached.key.equals(rowKey)) {
+            return cached.view;
+        }
+        Map<C, V> view = TransformingMap.create(
                 backingTable.row(toRowFunction.apply(rowKey)),
                 toColumnFunction, fromColumnFunction,
                 toValueFunction, fromValueFunction
         );
+        rowViews[slot] = new CachedView<R, Map<C, V>>(rowKey, view);
+        return view;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public Map<R, V> column(C columnKey) {
         checkNotNull(columnKey);
-        return TransformingMap.create(
+        int slot = viewSlot(columnKey);
+        CachedView<C, Map<R, V>> cached = (CachedView<C, Map<R, V>>) columnViews[slot];
+        if (cached != null && cached.key.equals(columnKey)) {
+            return cached.view;
+        }
+        Map<R, V> view = TransformingMap.create(
                 backingTable.column(toColumnFunction.apply(columnKey)),
                 toRowFunction, fromRowFunction,
                 toValueFunction, fromValueFunction
         );
+        columnViews[slot] = new CachedView<C, Map<R, V>>(columnKey, view);
+        return view;
     }
 
     @Override
     public Set<Cell<R, C, V>> cellSet() {
-        return TransformingSet.create(
-                backingTable.cellSet(),
-                toBackingCellFunction,
-                fromBackingCellFunction
-        );
+        Set<Cell<R, C, V>> result = cellSet;
+        if (result == null) {
+            result = TransformingSet.create(
+                    backingTable.cellSet(),
+                    toBackingCellFunction,
+                    fromBackingCellFunction
+            );
+            cellSet = result;
+        }
+        return result;
     }
 
     @Override
     public Set<R> rowKeySet() {
-        return TransformingSet.create(
-                backingTable.rowKeySet(), toRowFunction, fromRowFunction
-        );
+        Set<R> result = rowKeySet;
+        if (result == null) {
+            result = TransformingSet.create(
+                    backingTable.rowKeySet(), toRowFunction, fromRowFunction
+            );
+            rowKeySet = result;
+        }
+        return result;
     }
 
     @Override
     public Set<C> columnKeySet() {
-        return TransformingSet.create(
-                backingTable.columnKeySet(), toColumnFunction, fromColumnFunction
-        );
+        Set<C> result = columnKeySet;
+        if (result == null) {
+            result = TransformingSet.create(
+                    backingTable.columnKeySet(), toColumnFunction, fromColumnFunction
+            );
+            columnKeySet = result;
+        }
+        return result;
     }
 
     @Override
     public Collection<V> values() {
-        return TransformingCollection.create(
-                backingTable.values(), toValueFunction, fromValueFunction
-        );
+        Collection<V> result = values;
+        if (result == null) {
+            result = TransformingCollection.create(
+                    backingTable.values(), toValueFunction, fromValueFunction
+            );
+            values = result;
+        }
+        return result;
     }
 
     @Override
     public Map<R, Map<C, V>> rowMap() {
+        Map<R, Map<C, V>> result = rowMap;
+        if (result == null) {
+            result = transformRowMap(backingTable.rowMap());
+            rowMap = result;
+        }
+        return result;
+    }
+
+    /**
+     * Transforms a live view of a subset of the backing row map, as rowMap() does with the whole of it.
+     */
+    /* package */ Map<R, Map<C, V>> transformRowMap(Map<R1, Map<C1, V1>> backingRowMap) {
         return TransformingMap.create(
-                backingTable.rowMap(),
+                backingRowMap,
                 toRowFunction,
                 fromRowFunction,
                 toRowMapValueFunction,
@@ -327,12 +535,36 @@ public class TransformingTable<R, C, V, R1, C1, V1> implements Table<R, C, V> {
 
     @Override
     public Map<C, Map<R, V>> columnMap() {
-        return TransformingMap.create(
-                backingTable.columnMap(),
-                toColumnFunction,
-                fromColumnFunction,
-                toColumnMapValueFunction,
-                fromColumnMapValueFunction
-        );
+        Map<C, Map<R, V>> result = columnMap;
+        if (result == null) {
+            result = TransformingMap.create(
+                    backingTable.columnMap(),
+                    toColumnFunction,
+                    fromColumnFunction,
+                    toColumnMapValueFunction,
+                    fromColumnMapValueFunction
+            );
+            columnMap = result;
+        }
+        return result;
+    }
+
+    private static int viewSlot(Object key) {
+        int hash = key.hashCode();
+        return (hash ^ hash >>> 16) & VIEW_CACHE_SIZE - 1;
+    }
+
+    /**
+     * A view together with the key it was created for. The fields are final, so a view read by another thread without
+     * synchronization is seen fully constructed.
+     */
+    private static final class CachedView<K, M> {
+        private final K key;
+        private final M view;
+
+        private CachedView(K key, M view) {
+            this.key = key;
+            this.view = view;
+        }
     }
 }
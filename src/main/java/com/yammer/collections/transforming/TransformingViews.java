@@ -0,0 +1,393 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import com.yammer.collections.backing.ValueIndexedMap;
+import com.yammer.collections.backing.ValueIndexedTable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.yammer.collections.transforming.TransformationUtil.safeTransform;
+
+/**
+ * Operations on the views created by {@link TransformingCollection}, {@link TransformingSet}, {@link TransformingMap}
+ * and {@link TransformingTable}. All of them accept any collection and fall back to the generic behaviour when the
+ * argument is not a transforming view.
+ * <p/>
+ * The snapshots of large views are transformed in parallel slices on a shared pool, so the functions of a view passed
+ * to them have to be safe to call from several threads at once.
+ */
+public final class TransformingViews {
+    private TransformingViews() {
+    }
+
+    /**
+     * Returns an immutable copy of the set. For transforming views the copy is made from an exactly sized array of
+     * backing elements, which is transformed in parallel slices when large.
+     */
+    @SuppressWarnings("unchecked")
+    public static <F> ImmutableSet<F> snapshot(Set<F> set) {
+        checkNotNull(set);
+        if (set instanceof TransformingCollection) {
+            return ImmutableSet.copyOf((F[]) ((TransformingCollection<F, ?>) set).toTransformedArray());
+        }
+        return ImmutableSet.copyOf(set);
+    }
+
+    /**
+     * Returns an immutable copy of the map. For transforming views the copy is made from an exactly sized array of
+     * backing entries, which is transformed in parallel slices when large. Copy-on-write maps return their current state
+     * without copying.
+     */
+    public static <K, V> ImmutableMap<K, V> snapshot(Map<K, V> map) {
+        checkNotNull(map);
+        if (map instanceof TransformingMap) {
+            return transformingMapSnapshot((TransformingMap<K, V, ?, ?>) map);
+        }
+        if (map instanceof CopyOnWriteTransformingMap) {
+            return ((CopyOnWriteTransformingMap<K, V, ?, ?>) map).getSnapshot();
+        }
+        return ImmutableMap.copyOf(map);
+    }
+
+    /**
+     * Returns an immutable copy of the table. For transforming views the backing cells are transformed in parallel
+     * slices when large.
+     */
+    @SuppressWarnings("unchecked")
+    public static <R, C, V> ImmutableTable<R, C, V> snapshot(Table<R, C, V> table) {
+        checkNotNull(table);
+        if (!(table instanceof TransformingTable)) {
+            return ImmutableTable.copyOf(table);
+        }
+
+        TransformingTable<R, C, V, ?, ?, ?> transformingTable = (TransformingTable<R, C, V, ?, ?, ?>) table;
+        Object[] cells = ParallelTransform.toObjectArray(transformingTable.getBackingTable().cellSet());
+        ParallelTransform.transformInPlace(cells, transformingTable.getFromBackingCellFunction());
+
+        ImmutableTable.Builder<R, C, V> builder = ImmutableTable.builder();
+        for (Object cell : cells) {
+            builder.put((Table.Cell<? extends R, ? extends C, ? extends V>) cell);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns a live view of the elements of the collection whose backing form satisfies encodedPredicate. The
+     * predicate is evaluated against the backing collection, so only the elements which pass it are ever transformed.
+     * <p/>
+     * The backing form is the one of the innermost backing collection, as nested views are fused on creation. For
+     * collections which are not transforming views the predicate is applied to the elements themselves.
+     */
+    @SuppressWarnings("unchecked")
+    public static <F, T> Collection<F> filterEncoded(Collection<F> collection, Predicate<? super T> encodedPredicate) {
+        checkNotNull(collection);
+        checkNotNull(encodedPredicate);
+        if (collection instanceof TransformingSet) {
+            return filterEncoded((Set<F>) collection, encodedPredicate);
+        }
+        if (collection instanceof TransformingCollection) {
+            TransformingCollection<F, T> view = (TransformingCollection<F, T>) collection;
+            return TransformingCollection.create(
+                    Collections2.filter(view.getBackingCollection(), encodedPredicate),
+                    view.getToFunction(),
+                    view.getFromFunction()
+            );
+        }
+        return (Collection<F>) Collections2.filter((Collection<T>) collection, encodedPredicate);
+    }
+
+    /**
+     * Set counterpart of {@link #filterEncoded(java.util.Collection, com.google.common.base.Predicate)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <F, T> Set<F> filterEncoded(Set<F> set, Predicate<? super T> encodedPredicate) {
+        checkNotNull(set);
+        checkNotNull(encodedPredicate);
+        if (set instanceof TransformingSet) {
+            TransformingSet<F, T> view = (TransformingSet<F, T>) set;
+            return TransformingSet.create(
+                    Sets.filter((Set<T>) view.getBackingCollection(), encodedPredicate),
+                    view.getToFunction(),
+                    view.getFromFunction()
+            );
+        }
+        return (Set<F>) Sets.filter((Set<T>) set, encodedPredicate);
+    }
+
+    /**
+     * Returns a live view of the entries of the map whose keys match the query. The encoded conditions of the query are
+     * pushed down to the backing map, where an encoded range becomes a range scan on sorted backings.
+     * <p/>
+     * For maps which are not transforming views the encoded conditions are applied to the keys themselves.
+     */
+    public static <K, V, K1> Map<K, V> filterKeys(Map<K, V> map, KeyQuery<K, K1> query) {
+        checkNotNull(query);
+        Map<K, V> narrowed = narrowMap(checkNotNull(map), query);
+        return query.hasTrivialPredicate() ? narrowed : Maps.filterKeys(narrowed, query.getPredicate());
+    }
+
+    /**
+     * Removes the entries of the map whose keys match the query, returns true if any were removed.
+     */
+    public static <K, V, K1> boolean removeIf(Map<K, V> map, KeyQuery<K, K1> query) {
+        int size = map.size();
+        filterKeys(map, query).clear();
+        return size != map.size();
+    }
+
+    /**
+     * Removes the entries of the map whose keys do not match the query, returns true if any were removed.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V, K1> boolean retainIf(Map<K, V> map, KeyQuery<K, K1> query) {
+        checkNotNull(query);
+        int size = map.size();
+        if (map instanceof TransformingMap) {
+            retainMatching((TransformingMap<K, V, K1, ?>) map, query);
+        } else {
+            query.removeNotNarrowed((Map<K1, V>) map);
+            removeNotMatching((Map<K, V>) query.narrow((Map<K1, V>) map), query);
+        }
+        return size != map.size();
+    }
+
+    /**
+     * Returns a live view of the rows of the table whose keys match the query, as in
+     * {@link #filterKeys(java.util.Map, KeyQuery)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <R, C, V, R1> Map<R, Map<C, V>> filterRows(Table<R, C, V> table, KeyQuery<R, R1> query) {
+        checkNotNull(table);
+        checkNotNull(query);
+        if (!(table instanceof TransformingTable)) {
+            return filterKeys(table.rowMap(), query);
+        }
+        Map<R, Map<C, V>> narrowed = narrowRows((TransformingTable<R, C, V, R1, ?, ?>) table, query);
+        return query.hasTrivialPredicate() ? narrowed : Maps.filterKeys(narrowed, query.getPredicate());
+    }
+
+    /**
+     * Removes the rows of the table whose keys match the query, returns true if any were removed.
+     */
+    public static <R, C, V, R1> boolean removeRowsIf(Table<R, C, V> table, KeyQuery<R, R1> query) {
+        int size = table.size();
+        filterRows(table, query).clear();
+        return size != table.size();
+    }
+
+    /**
+     * Removes the rows of the table whose keys do not match the query, returns true if any were removed.
+     */
+    @SuppressWarnings("unchecked")
+    public static <R, C, V, R1> boolean retainRowsIf(Table<R, C, V> table, KeyQuery<R, R1> query) {
+        checkNotNull(table);
+        checkNotNull(query);
+        int size = table.size();
+        if (table instanceof TransformingTable) {
+            retainMatchingRows((TransformingTable<R, C, V, R1, ?, ?>) table, query);
+        } else {
+            retainIf(table.rowMap(), query);
+        }
+        return size != table.size();
+    }
+
+    /**
+     * Returns the keys mapped to the value. When the map, or the backing map of a transforming view, is a
+     * {@link ValueIndexedMap} the keys are looked up in its index, otherwise all entries are scanned.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> ImmutableSet<K> keysForValue(Map<K, V> map, Object value) {
+        checkNotNull(map);
+        if (value == null) {
+            return ImmutableSet.of();
+        }
+        if (map instanceof ValueIndexedMap) {
+            return ((ValueIndexedMap<K, V>) map).keysForValue(value);
+        }
+        if (map instanceof TransformingMap
+                && ((TransformingMap<K, V, ?, ?>) map).getBackingMap() instanceof ValueIndexedMap) {
+            return indexedKeysForValue((TransformingMap<K, V, ?, ?>) map, value);
+        }
+        ImmutableSet.Builder<K> keys = ImmutableSet.builder();
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            if (value.equals(entry.getValue())) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys.build();
+    }
+
+    /**
+     * Returns the cells holding the value. When the table, or the backing table of a transforming view, is a
+     * {@link ValueIndexedTable} the cells are looked up in its index, otherwise all cells are scanned.
+     */
+    @SuppressWarnings("unchecked")
+    public static <R, C, V> ImmutableSet<Table.Cell<R, C, V>> cellsForValue(Table<R, C, V> table, Object value) {
+        checkNotNull(table);
+        if (value == null) {
+            return ImmutableSet.of();
+        }
+        if (table instanceof ValueIndexedTable) {
+            return ((ValueIndexedTable<R, C, V>) table).cellsForValue(value);
+        }
+        if (table instanceof TransformingTable
+                && ((TransformingTable<R, C, V, ?, ?, ?>) table).getBackingTable() instanceof ValueIndexedTable) {
+            return indexedCellsForValue((TransformingTable<R, C, V, ?, ?, ?>) table, value);
+        }
+        ImmutableSet.Builder<Table.Cell<R, C, V>> cells = ImmutableSet.builder();
+        for (Table.Cell<R, C, V> cell : table.cellSet()) {
+            if (value.equals(cell.getValue())) {
+                cells.add(Tables.immutableCell(cell.getRowKey(), cell.getColumnKey(), cell.getValue()));
+            }
+        }
+        return cells.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V, K1, V1> ImmutableSet<K> indexedKeysForValue(TransformingMap<K, V, K1, V1> map, Object value) {
+        V1 encodedValue;
+        try {
+            encodedValue = map.getToValueFunction().apply((V) value);
+        } catch (ClassCastException ignored) {
+            return ImmutableSet.of();
+        }
+        ImmutableSet.Builder<K> keys = ImmutableSet.builder();
+        for (K1 encodedKey : ((ValueIndexedMap<K1, V1>) map.getBackingMap()).keysForValue(encodedValue)) {
+            keys.add(map.getFromKeyFunction().apply(encodedKey));
+        }
+        return keys.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R, C, V, R1, C1, V1> ImmutableSet<Table.Cell<R, C, V>> indexedCellsForValue(
+            TransformingTable<R, C, V, R1, C1, V1> table,
+            Object value) {
+        V1 encodedValue;
+        try {
+            encodedValue = table.getToValueFunction().apply((V) value);
+        } catch (ClassCastException ignored) {
+            return ImmutableSet.of();
+        }
+        ImmutableSet.Builder<Table.Cell<R, C, V>> cells = ImmutableSet.builder();
+        for (Table.Cell<R1, C1, V1> cell
+                : ((ValueIndexedTable<R1, C1, V1>) table.getBackingTable()).cellsForValue(encodedValue)) {
+            cells.add(table.getFromBackingCellFunction().apply(cell));
+        }
+        return cells.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V, K1, V1> Map<K, V> narrowMap(Map<K, V> map, KeyQuery<K, K1> query) {
+        if (!(map instanceof TransformingMap)) {
+            return (Map<K, V>) query.narrow((Map<K1, V>) map);
+        }
+        TransformingMap<K, V, K1, V1> view = (TransformingMap<K, V, K1, V1>) map;
+        return TransformingMap.create(
+                query.narrow(view.getBackingMap()),
+                view.getToKeyFunction(), view.getFromKeyFunction(),
+                view.getToValueFunction(), view.getFromValueFunction()
+        );
+    }
+
+    private static <K, V, K1, V1> void retainMatching(TransformingMap<K, V, K1, V1> view, KeyQuery<K, K1> query) {
+        query.removeNotNarrowed(view.getBackingMap());
+        if (!query.hasTrivialPredicate()) {
+            removeNotMatching(narrowMap(view, query), query);
+        }
+    }
+
+    private static <R, C, V, R1, C1, V1> Map<R, Map<C, V>> narrowRows(
+            TransformingTable<R, C, V, R1, C1, V1> table,
+            KeyQuery<R, R1> query) {
+        return table.transformRowMap(query.narrow(table.getBackingTable().rowMap()));
+    }
+
+    private static <R, C, V, R1, C1, V1> void retainMatchingRows(
+            TransformingTable<R, C, V, R1, C1, V1> table,
+            KeyQuery<R, R1> query) {
+        query.removeNotNarrowed(table.getBackingTable().rowMap());
+        if (!query.hasTrivialPredicate()) {
+            removeNotMatching(narrowRows(table, query), query);
+        }
+    }
+
+    private static <K, V> void removeNotMatching(Map<K, V> map, KeyQuery<K, ?> query) {
+        if (!query.hasTrivialPredicate()) {
+            Maps.filterKeys(map, Predicates.not(query.getPredicate())).clear();
+        }
+    }
+
+    private static <K, V, K1, V1> ImmutableMap<K, V> transformingMapSnapshot(TransformingMap<K, V, K1, V1> map) {
+        final Function<K1, K> fromKeyFunction = map.getFromKeyFunction();
+        final Function<V1, V> fromValueFunction = map.getFromValueFunction();
+        final Object[] entries = ParallelTransform.toObjectArray(map.getBackingMap().entrySet());
+        ParallelTransform.transformInPlace(entries, new Function<Map.Entry<K1, V1>, Map.Entry<K, V>>() {
+            @Override
+            public Map.Entry<K, V> apply(Map.Entry<K1, V1> input) {
+                return Maps.immutableEntry(
+                        safeTransform(input.getKey(), fromKeyFunction),
+                        safeTransform(input.getValue(), fromValueFunction)
+                );
+            }
+        });
+        // ImmutableMap.copyOf sizes its hash table from the entry count of the copied map
+        return ImmutableMap.copyOf(new EntryArrayMap<K, V>(entries));
+    }
+
+    private static final class EntryArrayMap<K, V> extends AbstractMap<K, V> {
+        private final Object[] entries;
+
+        private EntryArrayMap(Object[] entries) {
+            this.entries = entries;
+        }
+
+        @SuppressWarnings("NullableProblems")
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+                @SuppressWarnings({"unchecked", "NullableProblems"})
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return (Iterator<Entry<K, V>>) (Iterator<?>) Iterators.forArray(entries);
+                }
+
+                @Override
+                public int size() {
+                    return entries.length;
+                }
+            };
+        }
+    }
+}
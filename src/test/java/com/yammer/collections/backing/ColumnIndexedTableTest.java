@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ColumnIndexedTableTest {
+    private ColumnIndexedTable<String, String, Integer> table;
+
+    @Before
+    public void setUp() {
+        table = ColumnIndexedTable.create();
+        table.put("r1", "c1", 1);
+        table.put("r1", "c2", 2);
+        table.put("r2", "c1", 3);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void values_cannot_be_null() {
+        table.put("r1", "c1", null);
+    }
+
+    @Test
+    public void get_finds_cells() {
+        assertThat(table.get("r1", "c2"), is(equalTo(2)));
+        assertThat(table.get("r2", "c2"), is(nullValue()));
+        assertThat(table.get("r3", "c1"), is(nullValue()));
+        assertThat(table.size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void column_reads_column_index() {
+        assertThat(table.column("c1"), is(equalTo((Map<String, Integer>) ImmutableMap.of("r1", 1, "r2", 3))));
+        assertThat(table.column("c3").isEmpty(), is(equalTo(true)));
+        assertThat(table.containsColumn("c2"), is(equalTo(true)));
+        assertThat(table.columnKeySet(), containsInAnyOrder("c1", "c2"));
+    }
+
+    @Test
+    public void remove_updates_both_indexes() {
+        assertThat(table.remove("r1", "c2"), is(equalTo(2)));
+        assertThat(table.remove("r1", "c2"), is(nullValue()));
+
+        assertThat(table.containsColumn("c2"), is(equalTo(false)));
+        assertThat(table.row("r1"), is(equalTo((Map<String, Integer>) ImmutableMap.of("c1", 1))));
+        assertThat(table.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void column_writes_through_to_rows() {
+        table.column("c3").put("r3", 4);
+        table.column("c1").remove("r1");
+
+        assertThat(table.row("r3"), is(equalTo((Map<String, Integer>) ImmutableMap.of("c3", 4))));
+        assertThat(table.row("r1"), is(equalTo((Map<String, Integer>) ImmutableMap.of("c2", 2))));
+    }
+
+    @Test
+    public void column_iterator_remove_updates_rows() {
+        Iterator<Map.Entry<String, Integer>> iterator = table.column("c1").entrySet().iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+
+        assertThat(table.containsColumn("c1"), is(equalTo(false)));
+        assertThat(table.containsRow("r2"), is(equalTo(false)));
+        assertThat(table.cellSet(), contains(Tables.immutableCell("r1", "c2", 2)));
+    }
+
+    @Test
+    public void cell_iterator_remove_updates_columns() {
+        Iterator<Table.Cell<String, String, Integer>> iterator = table.cellSet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue() != 2) {
+                iterator.remove();
+            }
+        }
+
+        assertThat(table.columnKeySet(), contains("c2"));
+        assertThat(table.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void row_key_set_remove_removes_row_from_columns() {
+        table.rowKeySet().remove("r1");
+
+        assertThat(table.column("c1"), is(equalTo((Map<String, Integer>) ImmutableMap.of("r2", 3))));
+        assertThat(table.containsColumn("c2"), is(equalTo(false)));
+        assertThat(table.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void column_map_remove_removes_column_from_rows() {
+        Map<String, Integer> removed = table.columnMap().remove("c1");
+
+        assertThat(removed, is(equalTo((Map<String, Integer>) ImmutableMap.of("r1", 1, "r2", 3))));
+        assertThat(table.rowKeySet(), contains("r1"));
+        assertThat(table.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void matches_hash_based_table_under_random_updates() {
+        Random random = new Random(42);
+        Table<Integer, Integer, String> expected = HashBasedTable.create();
+        ColumnIndexedTable<Integer, Integer, String> actual = ColumnIndexedTable.create();
+        for (int i = 0; i < 5000; i++) {
+            int rowKey = random.nextInt(50);
+            int columnKey = random.nextInt(20);
+            if (random.nextInt(3) == 0) {
+                assertThat(actual.remove(rowKey, columnKey), is(equalTo(expected.remove(rowKey, columnKey))));
+            } else {
+                String value = Integer.toString(i);
+                assertThat(actual.put(rowKey, columnKey, value), is(equalTo(expected.put(rowKey, columnKey, value))));
+            }
+        }
+
+        assertThat(actual, is(equalTo(expected)));
+        assertThat(actual.size(), is(equalTo(expected.size())));
+        assertThat(actual.columnMap(), is(equalTo(expected.columnMap())));
+        assertThat(ColumnIndexedTable.create(expected), is(equalTo((Table<Integer, Integer, String>) actual)));
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Functions;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import com.yammer.collections.codec.KeyDictionary;
+import com.yammer.collections.transforming.TransformingTable;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class IntIndexedTableTest {
+    private IntIndexedTable<String> table;
+
+    @Before
+    public void setUp() {
+        table = IntIndexedTable.create(2);
+        table.put(0, 5, "a");
+        table.put(0, 1, "b");
+        table.put(3, 1, "c");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ids_cannot_be_negative() {
+        table.put(-1, 0, "x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void row_ids_cannot_be_max_value() {
+        table.put(Integer.MAX_VALUE, 0, "x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void column_ids_cannot_be_max_value() {
+        table.put(0, Integer.MAX_VALUE, "x");
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void values_cannot_be_null() {
+        table.put(0, 0, null);
+    }
+
+    @Test
+    public void get_finds_cells() {
+        assertThat(table.get(0, 5), is(equalTo("a")));
+        assertThat(table.get(3, 1), is(equalTo("c")));
+        assertThat(table.get(3, 5), is(nullValue()));
+        assertThat(table.get(100, 1), is(nullValue()));
+        assertThat(table.get("0", 5), is(nullValue()));
+        assertThat(table.size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void put_replaces_value() {
+        assertThat(table.put(0, 5, "d"), is(equalTo("a")));
+
+        assertThat(table.get(0, 5), is(equalTo("d")));
+        assertThat(table.size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void remove_removes_cell_and_empty_row() {
+        assertThat(table.remove(3, 1), is(equalTo("c")));
+        assertThat(table.remove(3, 1), is(nullValue()));
+
+        assertThat(table.containsRow(3), is(equalTo(false)));
+        assertThat(table.rowKeySet(), contains(0));
+        assertThat(table.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void row_is_ordered_by_column_id() {
+        assertThat(table.row(0).keySet(), contains(1, 5));
+        assertThat(table.row(0).size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void row_writes_through() {
+        table.row(7).put(2, "d");
+        table.row(0).remove(5);
+
+        assertThat(table.get(7, 2), is(equalTo("d")));
+        assertThat(table.contains(0, 5), is(equalTo(false)));
+    }
+
+    @Test
+    public void column_finds_cells_in_all_rows() {
+        assertThat(table.column(1), is(equalTo((Map<Integer, String>) ImmutableMap.of(0, "b", 3, "c"))));
+        assertThat(table.containsColumn(5), is(equalTo(true)));
+        assertThat(table.columnKeySet(), contains(1, 5));
+    }
+
+    @Test
+    public void cell_iterator_remove_removes_cells() {
+        Iterator<Table.Cell<Integer, Integer, String>> iterator = table.cellSet().iterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().getValue().equals("b")) {
+                iterator.remove();
+            }
+        }
+
+        assertThat(table.cellSet(), contains(Tables.immutableCell(0, 1, "b")));
+        assertThat(table.rowKeySet().size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void column_key_set_remove_removes_column() {
+        table.columnKeySet().remove(1);
+
+        assertThat(table.size(), is(equalTo(1)));
+        assertThat(table.get(0, 5), is(equalTo("a")));
+    }
+
+    @Test
+    public void row_map_remove_removes_row() {
+        Map<Integer, String> removed = table.rowMap().remove(0);
+
+        assertThat(removed, is(equalTo((Map<Integer, String>) ImmutableMap.of(1, "b", 5, "a"))));
+        assertThat(table.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void values_and_entries_match_cells() {
+        assertThat(table.values(), containsInAnyOrder("a", "b", "c"));
+        assertThat(table.containsValue("c"), is(equalTo(true)));
+        assertThat(table.rowMap().get(3), is(equalTo((Map<Integer, String>) ImmutableMap.of(1, "c"))));
+        assertThat(table.columnMap().keySet(), contains(1, 5));
+    }
+
+    @Test
+    public void equals_hash_based_table_with_same_cells() {
+        Table<Integer, Integer, String> expected = HashBasedTable.create();
+        expected.put(0, 5, "a");
+        expected.put(0, 1, "b");
+        expected.put(3, 1, "c");
+
+        assertThat(table, is(equalTo(expected)));
+        assertThat(table.hashCode(), is(equalTo(expected.hashCode())));
+        assertThat(IntIndexedTable.create(expected), is(equalTo((Table<Integer, Integer, String>) table)));
+    }
+
+    @Test
+    public void matches_hash_based_table_under_random_updates() {
+        Random random = new Random(42);
+        Table<Integer, Integer, String> expected = HashBasedTable.create();
+        table.clear();
+        for (int i = 0; i < 5000; i++) {
+            int rowId = random.nextInt(50);
+            int columnId = random.nextInt(100);
+            if (random.nextInt(3) == 0) {
+                assertThat(table.remove(rowId, columnId), is(equalTo(expected.remove(rowId, columnId))));
+            } else {
+                String value = Integer.toString(i);
+                assertThat(table.put(rowId, columnId, value), is(equalTo(expected.put(rowId, columnId, value))));
+            }
+        }
+
+        assertThat(table, is(equalTo(expected)));
+        assertThat(table.size(), is(equalTo(expected.size())));
+        assertThat(table.rowKeySet(), is(equalTo(expected.rowKeySet())));
+    }
+
+    @Test
+    public void backs_dictionary_encoded_transforming_table() {
+        Table<String, String, String> transformingTable = TransformingTable.createDictionaryEncoded(
+                IntIndexedTable.<String>create(),
+                KeyDictionary.<String>create(), KeyDictionary.<String>create(),
+                Functions.<String>identity(), Functions.<String>identity()
+        );
+
+        transformingTable.put("row", "column", "value");
+
+        assertThat(transformingTable.get("row", "column"), is(equalTo("value")));
+        assertThat(transformingTable.row("row"), is(equalTo((Map<String, String>) ImmutableMap.of("column", "value"))));
+    }
+}
@@ -0,0 +1,338 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.yammer.collections.codec.Codecs;
+import com.yammer.collections.transforming.TransformingMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class LogStructuredMapTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private LogStructuredMap map;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "map.log");
+        map = LogStructuredMap.open(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        map.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writesPerSync_has_to_be_positive() throws IOException {
+        LogStructuredMap.open(file, 0, 0.5);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void values_cannot_be_null() {
+        map.put(bytes("key"), null);
+    }
+
+    @Test
+    public void put_and_get_compare_keys_by_content() {
+        assertThat(map.put(bytes("key"), bytes("value1")), is(nullValue()));
+        assertThat(map.put(bytes("key"), bytes("value2")), is(equalTo(bytes("value1"))));
+
+        assertThat(map.get(bytes("key")), is(equalTo(bytes("value2"))));
+        assertThat(map.containsKey(bytes("key")), is(equalTo(true)));
+        assertThat(map.containsValue(bytes("value2")), is(equalTo(true)));
+        assertThat(map.get("key"), is(nullValue()));
+        assertThat(map.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void remove_removes_key() {
+        map.put(bytes("key"), bytes("value"));
+
+        assertThat(map.remove(bytes("key")), is(equalTo(bytes("value"))));
+        assertThat(map.remove(bytes("key")), is(nullValue()));
+        assertThat(map.containsKey(bytes("key")), is(equalTo(false)));
+    }
+
+    @Test
+    public void stored_keys_are_copies() {
+        byte[] key = bytes("key");
+        map.put(key, bytes("value"));
+        key[0] = 'x';
+
+        assertThat(map.get(bytes("key")), is(equalTo(bytes("value"))));
+    }
+
+    @Test
+    public void entries_survive_reopening() throws IOException {
+        map.put(bytes("key1"), bytes("value1"));
+        map.put(bytes("key2"), bytes("value2"));
+        map.put(bytes("key1"), bytes("value3"));
+        map.remove(bytes("key2"));
+        map.put(bytes("key3"), new byte[0]);
+        map.close();
+
+        map = LogStructuredMap.open(file);
+
+        assertThat(map.size(), is(equalTo(2)));
+        assertThat(map.get(bytes("key1")), is(equalTo(bytes("value3"))));
+        assertThat(map.get(bytes("key3")), is(equalTo(new byte[0])));
+    }
+
+    @Test
+    public void torn_record_is_truncated_on_open() throws IOException {
+        map.put(bytes("key1"), bytes("value1"));
+        map.put(bytes("key2"), bytes("value2"));
+        map.close();
+        long length = file.length();
+        RandomAccessFile log = new RandomAccessFile(file, "rw");
+        try {
+            log.setLength(length - 3);
+        } finally {
+            log.close();
+        }
+
+        map = LogStructuredMap.open(file);
+
+        assertThat(map.size(), is(equalTo(1)));
+        assertThat(map.get(bytes("key1")), is(equalTo(bytes("value1"))));
+        map.put(bytes("key2"), bytes("value4"));
+        map.close();
+        map = LogStructuredMap.open(file);
+        assertThat(map.get(bytes("key2")), is(equalTo(bytes("value4"))));
+    }
+
+    @Test
+    public void corrupted_record_is_truncated_on_open() throws IOException {
+        map.put(bytes("key1"), bytes("value1"));
+        long firstRecordLength = file.length();
+        map.put(bytes("key2"), bytes("value2"));
+        map.close();
+        RandomAccessFile log = new RandomAccessFile(file, "rw");
+        try {
+            log.seek(file.length() - 1);
+            log.write('x');
+        } finally {
+            log.close();
+        }
+
+        map = LogStructuredMap.open(file);
+
+        assertThat(map.size(), is(equalTo(1)));
+        assertThat(file.length(), is(equalTo(firstRecordLength)));
+    }
+
+    @Test
+    public void corrupted_record_followed_by_records_fails_open() throws IOException {
+        map.put(bytes("key1"), bytes("value1"));
+        map.put(bytes("key2"), bytes("value2"));
+        long length = file.length();
+        map.close();
+        RandomAccessFile log = new RandomAccessFile(file, "rw");
+        try {
+            log.seek(length / 2 - 1);
+            log.write('x');
+        } finally {
+            log.close();
+        }
+
+        try {
+            LogStructuredMap.open(file);
+            fail();
+        } catch (IOException expected) {
+            assertThat(file.length(), is(equalTo(length)));
+        }
+    }
+
+    @Test
+    public void set_and_delete_write_without_returning_previous_value() {
+        map.set(bytes("key"), bytes("value1"));
+        map.set(bytes("key"), bytes("value2"));
+
+        assertThat(map.get(bytes("key")), is(equalTo(bytes("value2"))));
+        assertThat(map.delete(bytes("key")), is(equalTo(true)));
+        assertThat(map.delete(bytes("key")), is(equalTo(false)));
+        assertThat(map.isEmpty(), is(equalTo(true)));
+    }
+
+    @Test
+    public void put_all_survives_reopening() throws IOException {
+        Map<byte[], byte[]> entries = new HashMap<>();
+        entries.put(bytes("key1"), bytes("value1"));
+        entries.put(bytes("key2"), bytes("value2"));
+        map.putAll(entries);
+        map.close();
+
+        map = LogStructuredMap.open(file);
+
+        assertThat(map.size(), is(equalTo(2)));
+        assertThat(map.get(bytes("key2")), is(equalTo(bytes("value2"))));
+    }
+
+    @Test
+    public void compaction_drops_dead_records() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            map.put(bytes("key" + i % 10), bytes("value" + i));
+        }
+        map.remove(bytes("key0"));
+        long length = file.length();
+
+        map.compact();
+
+        assertThat(file.length(), is(lessThan(length)));
+        assertThat(map.size(), is(equalTo(9)));
+        assertThat(map.get(bytes("key9")), is(equalTo(bytes("value99"))));
+        map.put(bytes("key0"), bytes("value100"));
+        map.close();
+        map = LogStructuredMap.open(file);
+        assertThat(map.size(), is(equalTo(10)));
+        assertThat(map.get(bytes("key0")), is(equalTo(bytes("value100"))));
+        assertThat(map.get(bytes("key5")), is(equalTo(bytes("value95"))));
+    }
+
+    @Test
+    public void writes_during_compaction_are_kept() throws Exception {
+        Thread compactingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        map.compact();
+                    }
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        compactingThread.start();
+        for (int i = 0; i < 2000; i++) {
+            map.put(bytes("key" + i % 100), bytes("value" + i));
+        }
+        compactingThread.join();
+        map.close();
+
+        map = LogStructuredMap.open(file);
+
+        assertThat(map.size(), is(equalTo(100)));
+        for (int i = 1900; i < 2000; i++) {
+            assertThat(map.get(bytes("key" + i % 100)), is(equalTo(bytes("value" + i))));
+        }
+    }
+
+    @Test
+    public void iterator_remove_removes_from_log() throws IOException {
+        map.put(bytes("key1"), bytes("value1"));
+        map.put(bytes("key2"), bytes("value2"));
+
+        Iterator<byte[]> iterator = map.keySet().iterator();
+        byte[] removed = iterator.next();
+        iterator.remove();
+        map.close();
+        map = LogStructuredMap.open(file);
+
+        assertThat(map.size(), is(equalTo(1)));
+        assertThat(map.containsKey(removed), is(equalTo(false)));
+    }
+
+    @Test
+    public void iteration_returns_all_entries() {
+        map.put(bytes("key1"), bytes("value1"));
+        map.put(bytes("key2"), bytes("value2"));
+
+        List<String> keys = Lists.newArrayList();
+        for (Map.Entry<byte[], byte[]> entry : map.entrySet()) {
+            keys.add(new String(entry.getKey(), Charsets.UTF_8) + "=" + new String(entry.getValue(), Charsets.UTF_8));
+        }
+
+        assertThat(keys, containsInAnyOrder("key1=value1", "key2=value2"));
+    }
+
+    @Test
+    public void key_set_skips_keys_removed_during_iteration() {
+        map.put(bytes("key1"), bytes("value1"));
+        map.put(bytes("key2"), bytes("value2"));
+
+        Iterator<byte[]> iterator = map.keySet().iterator();
+        byte[] first = iterator.next();
+        map.remove(Arrays.equals(first, bytes("key1")) ? bytes("key2") : bytes("key1"));
+
+        assertThat(iterator.hasNext(), is(equalTo(false)));
+        assertThat(map.keySet().contains(first), is(equalTo(true)));
+    }
+
+    @Test
+    public void putAll_through_transforming_map_appends() throws IOException {
+        Map<String, String> view = TransformingMap.create(
+                map,
+                Codecs.stringToUtf8(), Codecs.stringToUtf8().reverse(),
+                Codecs.stringToUtf8(), Codecs.stringToUtf8().reverse()
+        );
+
+        view.putAll(ImmutableMap.of("key1", "value1", "key2", "value2"));
+        map.close();
+        map = LogStructuredMap.open(file);
+
+        assertThat(map.get(bytes("key2")), is(equalTo(bytes("value2"))));
+    }
+
+    @Test
+    public void clear_empties_log() throws IOException {
+        map.put(bytes("key1"), bytes("value1"));
+
+        map.clear();
+        map.close();
+        map = LogStructuredMap.open(file);
+
+        assertThat(map.isEmpty(), is(equalTo(true)));
+        assertThat(file.length(), is(equalTo(0L)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closed_map_cannot_be_used() throws IOException {
+        map.close();
+
+        map.get(bytes("key"));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Equivalence;
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.yammer.collections.codec.Codecs;
+import com.yammer.collections.transforming.TransformingMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ProbeableHashMapTest {
+    private ProbeableHashMap<byte[], String> map;
+
+    @Before
+    public void setUp() {
+        map = ProbeableHashMap.create(Codecs.byteArrayEquivalence());
+        map.put(utf8("a"), "1");
+        map.put(utf8("é"), "2");
+    }
+
+    @Test
+    public void keys_are_compared_with_the_equivalence() {
+        assertThat(map.get(utf8("a")), is(equalTo("1")));
+        assertThat(map.containsKey(utf8("é")), is(equalTo(true)));
+        assertThat(map.put(utf8("a"), "3"), is(equalTo("1")));
+        assertThat(map.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void probes_find_encoded_keys() {
+        assertThat(map.getByProbe("a", Codecs.utf8Lookup()), is(equalTo("1")));
+        assertThat(map.getByProbe("é", Codecs.utf8Lookup()), is(equalTo("2")));
+        assertThat(map.getByProbe("b", Codecs.utf8Lookup()), is(nullValue()));
+        assertThat(map.containsProbe("é", Codecs.utf8Lookup()), is(equalTo(true)));
+        assertThat(map.keySet().containsProbe("e", Codecs.utf8Lookup()), is(equalTo(false)));
+    }
+
+    @Test
+    public void foreign_keys_are_not_found() {
+        assertThat(map.get("a"), is(nullValue()));
+        assertThat(map.containsKey(null), is(equalTo(false)));
+        assertThat(map.remove(1), is(nullValue()));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void values_cannot_be_null() {
+        map.put(utf8("b"), null);
+    }
+
+    @Test
+    public void entry_iterator_remove_removes_entries() {
+        Iterator<Map.Entry<byte[], String>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue().equals("1")) {
+                iterator.remove();
+            }
+        }
+
+        assertThat(map.values(), containsInAnyOrder("2"));
+        assertThat(map.containsProbe("a", Codecs.utf8Lookup()), is(equalTo(false)));
+    }
+
+    @Test
+    public void content_equal_maps_are_equal_and_hash_alike() {
+        ProbeableHashMap<byte[], String> other = ProbeableHashMap.create(Codecs.byteArrayEquivalence());
+        other.put(utf8("é"), "2");
+        other.put(utf8("a"), "1");
+
+        assertThat(other, is(equalTo(map)));
+        assertThat(other.hashCode(), is(equalTo(map.hashCode())));
+        assertThat(other.entrySet(), is(equalTo(map.entrySet())));
+    }
+
+    @Test
+    public void entry_set_finds_entries_by_key_equivalence() {
+        Map.Entry<byte[], String> entry = Maps.immutableEntry(utf8("a"), "1");
+
+        assertThat(map.entrySet().contains(entry), is(equalTo(true)));
+        assertThat(map.entrySet().contains(Maps.immutableEntry(utf8("a"), "2")), is(equalTo(false)));
+        assertThat(map.entrySet().contains(Maps.immutableEntry("a", "1")), is(equalTo(false)));
+        assertThat(map.entrySet().remove(entry), is(equalTo(true)));
+        assertThat(map.entrySet().remove(entry), is(equalTo(false)));
+        assertThat(map.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void entry_set_of_lookup_view_finds_entries() {
+        Map<String, String> view = TransformingMap.createWithLookup(
+                map, Codecs.utf8Lookup(),
+                Codecs.stringToUtf8(), Codecs.stringToUtf8().reverse(),
+                Functions.<String>identity(), Functions.<String>identity()
+        );
+
+        assertThat(view.entrySet().contains(Maps.immutableEntry("a", "1")), is(equalTo(true)));
+        assertThat(view.entrySet().remove(Maps.immutableEntry("a", "1")), is(equalTo(true)));
+        assertThat(view.containsKey("a"), is(equalTo(false)));
+        assertThat(view, is(equalTo((Map<String, String>) ImmutableMap.of("é", "2"))));
+    }
+
+    @Test
+    public void matches_hash_map_under_random_updates() {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = Maps.newHashMap();
+        ProbeableHashMap<Integer, Integer> actual = ProbeableHashMap.create(Equivalence.equals());
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                assertThat(actual.remove(key), is(equalTo(expected.remove(key))));
+            } else {
+                assertThat(actual.put(key, i), is(equalTo(expected.put(key, i))));
+            }
+        }
+
+        assertThat(actual, is(equalTo(expected)));
+        assertThat(actual.keySet(), is(equalTo(expected.keySet())));
+        assertThat(actual.hashCode(), is(equalTo(expected.hashCode())));
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+}
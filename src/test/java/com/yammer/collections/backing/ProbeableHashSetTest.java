@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Charsets;
+import com.yammer.collections.codec.Codecs;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ProbeableHashSetTest {
+    private ProbeableHashSet<byte[]> set;
+
+    @Before
+    public void setUp() {
+        set = ProbeableHashSet.create(Codecs.byteArrayEquivalence());
+        set.add("a".getBytes(Charsets.UTF_8));
+    }
+
+    @Test
+    public void elements_are_compared_with_the_equivalence() {
+        assertThat(set.add("a".getBytes(Charsets.UTF_8)), is(equalTo(false)));
+        assertThat(set.contains("a".getBytes(Charsets.UTF_8)), is(equalTo(true)));
+        assertThat(set.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void probes_find_encoded_elements() {
+        assertThat(set.containsProbe("a", Codecs.utf8Lookup()), is(equalTo(true)));
+        assertThat(set.containsProbe("b", Codecs.utf8Lookup()), is(equalTo(false)));
+    }
+
+    @Test
+    public void remove_removes_element() {
+        assertThat(set.remove("a".getBytes(Charsets.UTF_8)), is(equalTo(true)));
+        assertThat(set.isEmpty(), is(equalTo(true)));
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ReadWriteLockedMapTest {
+    private Map<String, Integer> backingMap;
+    private Map<String, Integer> lockedMap;
+
+    @Before
+    public void setUp() {
+        backingMap = Maps.newHashMap();
+        lockedMap = ReadWriteLockedMap.create(backingMap);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void backing_map_cannot_be_null() {
+        ReadWriteLockedMap.create(null);
+    }
+
+    @Test
+    public void put_and_get_go_through_the_backing_map() {
+        lockedMap.put("a", 1);
+        backingMap.put("b", 2);
+
+        assertThat(backingMap, is(equalTo((Map<String, Integer>) ImmutableMap.of("a", 1, "b", 2))));
+        assertThat(lockedMap.get("b"), is(equalTo(2)));
+        assertThat(lockedMap.size(), is(equalTo(2)));
+        assertThat(lockedMap.containsKey("a"), is(equalTo(true)));
+        assertThat(lockedMap.containsValue(2), is(equalTo(true)));
+    }
+
+    @Test
+    public void iteration_is_not_affected_by_concurrent_modification() {
+        backingMap.putAll(ImmutableMap.of("a", 1, "b", 2));
+
+        int iterated = 0;
+        for (String key : lockedMap.keySet()) {
+            lockedMap.put(key + key, 0);
+            iterated++;
+        }
+
+        assertThat(iterated, is(equalTo(2)));
+        assertThat(lockedMap.size(), is(equalTo(4)));
+    }
+
+    @Test
+    public void iterator_remove_removes_from_backing_map() {
+        backingMap.putAll(ImmutableMap.of("a", 1, "b", 2));
+
+        Iterator<Map.Entry<String, Integer>> iterator = lockedMap.entrySet().iterator();
+        Map.Entry<String, Integer> removed = iterator.next();
+        iterator.remove();
+
+        assertThat(backingMap.containsKey(removed.getKey()), is(equalTo(false)));
+        assertThat(backingMap.size(), is(equalTo(1)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void iterator_remove_requires_next() {
+        backingMap.put("a", 1);
+
+        lockedMap.keySet().iterator().remove();
+    }
+
+    @Test
+    public void setValue_writes_through_to_backing_map() {
+        backingMap.put("a", 1);
+
+        Map.Entry<String, Integer> entry = lockedMap.entrySet().iterator().next();
+        entry.setValue(2);
+
+        assertThat(entry.getValue(), is(equalTo(2)));
+        assertThat(backingMap.get("a"), is(equalTo(2)));
+    }
+
+    @Test
+    public void iterator_remove_keeps_value_put_since_snapshot() {
+        lockedMap.put("a", 1);
+        Iterator<Map.Entry<String, Integer>> iterator = lockedMap.entrySet().iterator();
+        iterator.next();
+        lockedMap.put("a", 2);
+
+        iterator.remove();
+
+        assertThat(backingMap, is(equalTo((Map<String, Integer>) ImmutableMap.of("a", 2))));
+    }
+
+    @Test
+    public void setValue_returns_value_held_by_map() {
+        lockedMap.put("a", 1);
+        Map.Entry<String, Integer> entry = lockedMap.entrySet().iterator().next();
+        lockedMap.put("a", 2);
+
+        assertThat(entry.setValue(3), is(equalTo(2)));
+        assertThat(entry.getValue(), is(equalTo(3)));
+        assertThat(backingMap.get("a"), is(equalTo(3)));
+    }
+
+    @Test
+    public void values_remove_removes_from_backing_map() {
+        backingMap.putAll(ImmutableMap.of("a", 1, "b", 2));
+
+        lockedMap.values().remove(1);
+
+        assertThat(backingMap, is(equalTo((Map<String, Integer>) ImmutableMap.of("b", 2))));
+    }
+
+    @Test
+    public void equals_compares_entries() {
+        backingMap.putAll(ImmutableMap.of("a", 1, "b", 2));
+
+        assertThat(lockedMap, is(equalTo((Map<String, Integer>) ImmutableMap.of("a", 1, "b", 2))));
+        assertThat(lockedMap.hashCode(), is(equalTo(backingMap.hashCode())));
+    }
+
+    @Test
+    public void concurrent_writes_are_not_lost() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            final int offset = thread * 1000;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        lockedMap.put(Integer.toString(offset + i), i);
+                        lockedMap.get(Integer.toString(i));
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertThat(lockedMap.size(), is(equalTo(4000)));
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ReadWriteLockedTableTest {
+    private Table<String, String, Integer> backingTable;
+    private Table<String, String, Integer> lockedTable;
+
+    @Before
+    public void setUp() {
+        backingTable = HashBasedTable.create();
+        backingTable.put("r1", "c1", 1);
+        backingTable.put("r1", "c2", 2);
+        backingTable.put("r2", "c1", 3);
+        lockedTable = ReadWriteLockedTable.create(backingTable);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void backing_table_cannot_be_null() {
+        ReadWriteLockedTable.create(null);
+    }
+
+    @Test
+    public void queries_go_through_the_backing_table() {
+        assertThat(lockedTable.get("r1", "c2"), is(equalTo(2)));
+        assertThat(lockedTable.contains("r2", "c1"), is(equalTo(true)));
+        assertThat(lockedTable.containsRow("r2"), is(equalTo(true)));
+        assertThat(lockedTable.containsColumn("c3"), is(equalTo(false)));
+        assertThat(lockedTable.size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void put_and_remove_go_through_the_backing_table() {
+        lockedTable.put("r3", "c3", 4);
+        lockedTable.remove("r1", "c1");
+
+        assertThat(backingTable.get("r3", "c3"), is(equalTo(4)));
+        assertThat(backingTable.contains("r1", "c1"), is(equalTo(false)));
+    }
+
+    @Test
+    public void row_writes_through_to_the_backing_table() {
+        lockedTable.row("r2").put("c2", 4);
+
+        assertThat(backingTable.get("r2", "c2"), is(equalTo(4)));
+        assertThat(lockedTable.column("c1"), is(equalTo((Map<String, Integer>) ImmutableMap.of("r1", 1, "r2", 3))));
+    }
+
+    @Test
+    public void cell_iterator_remove_removes_from_backing_table() {
+        Iterator<Table.Cell<String, String, Integer>> iterator = lockedTable.cellSet().iterator();
+        Table.Cell<String, String, Integer> removed = iterator.next();
+        iterator.remove();
+
+        assertThat(backingTable.contains(removed.getRowKey(), removed.getColumnKey()), is(equalTo(false)));
+        assertThat(backingTable.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void cell_iterator_remove_keeps_value_put_since_snapshot() {
+        Iterator<Table.Cell<String, String, Integer>> iterator = lockedTable.cellSet().iterator();
+        Table.Cell<String, String, Integer> removed = iterator.next();
+        lockedTable.put(removed.getRowKey(), removed.getColumnKey(), 10);
+
+        iterator.remove();
+
+        assertThat(backingTable.get(removed.getRowKey(), removed.getColumnKey()), is(equalTo(10)));
+    }
+
+    @Test
+    public void iteration_is_not_affected_by_concurrent_modification() {
+        int iterated = 0;
+        for (Table.Cell<String, String, Integer> cell : lockedTable.cellSet()) {
+            lockedTable.put(cell.getRowKey() + "x", cell.getColumnKey(), cell.getValue());
+            iterated++;
+        }
+
+        assertThat(iterated, is(equalTo(3)));
+        assertThat(lockedTable.size(), is(equalTo(6)));
+    }
+
+    @Test
+    public void key_sets_and_values_reflect_the_backing_table() {
+        assertThat(lockedTable.rowKeySet(), containsInAnyOrder("r1", "r2"));
+        assertThat(lockedTable.columnKeySet(), containsInAnyOrder("c1", "c2"));
+        assertThat(lockedTable.values(), containsInAnyOrder(1, 2, 3));
+        assertThat(lockedTable.cellSet().contains(Tables.immutableCell("r1", "c1", 1)), is(equalTo(true)));
+    }
+
+    @Test
+    public void rowMap_removal_writes_through() {
+        lockedTable.rowMap().remove("r1");
+
+        assertThat(backingTable.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void equals_compares_cells() {
+        Table<String, String, Integer> expected = ImmutableTable.<String, String, Integer>builder()
+                .put("r1", "c1", 1)
+                .put("r1", "c2", 2)
+                .put("r2", "c1", 3)
+                .build();
+
+        assertThat(lockedTable, is(equalTo(expected)));
+        assertThat(lockedTable.hashCode(), is(equalTo(expected.hashCode())));
+    }
+}
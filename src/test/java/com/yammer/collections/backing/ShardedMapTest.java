@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ShardedMapTest {
+    private Map<Integer, String> map;
+
+    @Before
+    public void setUp() {
+        map = ShardedMap.create(4);
+        for (int i = 0; i < 100; i++) {
+            map.put(i, Integer.toString(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shard_count_has_to_be_positive() {
+        ShardedMap.create(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void shard_supplier_cannot_be_null() {
+        ShardedMap.create(4, null);
+    }
+
+    @Test
+    public void entries_are_spread_over_supplied_shards() {
+        final Map<Integer, Map<Integer, String>> shards = Maps.newHashMap();
+        map = ShardedMap.create(4, new Supplier<Map<Integer, String>>() {
+            @Override
+            public Map<Integer, String> get() {
+                Map<Integer, String> shard = Maps.newHashMap();
+                shards.put(shards.size(), shard);
+                return shard;
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            map.put(i, Integer.toString(i));
+        }
+
+        assertThat(shards.size(), is(equalTo(4)));
+        int size = 0;
+        for (Map<Integer, String> shard : shards.values()) {
+            assertThat(shard.isEmpty(), is(equalTo(false)));
+            size += shard.size();
+        }
+        assertThat(size, is(equalTo(100)));
+    }
+
+    @Test
+    public void queries_aggregate_over_shards() {
+        assertThat(map.size(), is(equalTo(100)));
+        assertThat(map.get(42), is(equalTo("42")));
+        assertThat(map.containsKey(99), is(equalTo(true)));
+        assertThat(map.containsValue("7"), is(equalTo(true)));
+        assertThat(map.containsValue("100"), is(equalTo(false)));
+    }
+
+    @Test
+    public void remove_removes_from_shard() {
+        assertThat(map.remove(42), is(equalTo("42")));
+
+        assertThat(map.containsKey(42), is(equalTo(false)));
+        assertThat(map.size(), is(equalTo(99)));
+    }
+
+    @Test
+    public void iteration_visits_all_shards() {
+        map = ShardedMap.create(3);
+        map.putAll(ImmutableMap.of(1, "1", 2, "2", 3, "3", 4, "4"));
+
+        assertThat(map.keySet(), containsInAnyOrder(1, 2, 3, 4));
+        assertThat(map, is(equalTo((Map<Integer, String>) ImmutableMap.of(1, "1", 2, "2", 3, "3", 4, "4"))));
+    }
+
+    @Test
+    public void iterator_remove_removes_from_shard() {
+        Iterator<Integer> iterator = map.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() % 2 == 0) {
+                iterator.remove();
+            }
+        }
+
+        assertThat(map.size(), is(equalTo(50)));
+        assertThat(map.containsKey(2), is(equalTo(false)));
+    }
+
+    @Test
+    public void null_keys_are_supported_by_hash_shards() {
+        map.put(null, "null");
+
+        assertThat(map.get(null), is(equalTo("null")));
+    }
+
+    @Test
+    public void clear_clears_all_shards() {
+        map.clear();
+
+        assertThat(map.isEmpty(), is(equalTo(true)));
+    }
+
+    @Test
+    public void concurrent_writes_are_not_lost() throws InterruptedException {
+        map.clear();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            final int offset = thread * 1000;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        map.put(offset + i, Integer.toString(i));
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertThat(map.size(), is(equalTo(4000)));
+    }
+}
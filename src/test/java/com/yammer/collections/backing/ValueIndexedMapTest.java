@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ValueIndexedMapTest {
+    private ValueIndexedMap<String, Integer> map;
+
+    @Before
+    public void setUp() {
+        map = ValueIndexedMap.create(Maps.newHashMap(ImmutableMap.of("a", 1, "b", 2, "c", 1)));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void delegate_cannot_be_null() {
+        ValueIndexedMap.create(null);
+    }
+
+    @Test
+    public void existing_entries_are_indexed() {
+        assertThat(map.keysForValue(1), containsInAnyOrder("a", "c"));
+        assertThat(map.containsValue(2), is(equalTo(true)));
+        assertThat(map.containsValue(3), is(equalTo(false)));
+        assertThat(map.keysForValue("1").isEmpty(), is(equalTo(true)));
+    }
+
+    @Test
+    public void put_updates_index() {
+        map.put("a", 3);
+        map.put("d", 1);
+
+        assertThat(map.keysForValue(1), containsInAnyOrder("c", "d"));
+        assertThat(map.keysForValue(3), containsInAnyOrder("a"));
+    }
+
+    @Test
+    public void remove_updates_index() {
+        map.remove("b");
+        map.remove("x");
+
+        assertThat(map.containsValue(2), is(equalTo(false)));
+        assertThat(map.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void iterator_remove_updates_index() {
+        Iterator<Map.Entry<String, Integer>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue() == 1) {
+                iterator.remove();
+            }
+        }
+
+        assertThat(map.containsValue(1), is(equalTo(false)));
+        assertThat(map, is(equalTo((Map<String, Integer>) ImmutableMap.of("b", 2))));
+    }
+
+    @Test
+    public void views_update_index() {
+        map.keySet().remove("a");
+        map.values().remove(2);
+
+        assertThat(map.keysForValue(1), containsInAnyOrder("c"));
+        assertThat(map.containsValue(2), is(equalTo(false)));
+    }
+
+    @Test
+    public void setValue_updates_index() {
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            entry.setValue(entry.getValue() + 10);
+        }
+
+        assertThat(map.keysForValue(11), containsInAnyOrder("a", "c"));
+        assertThat(map.containsValue(1), is(equalTo(false)));
+    }
+
+    @Test
+    public void clear_clears_index() {
+        map.clear();
+
+        assertThat(map.isEmpty(), is(equalTo(true)));
+        assertThat(map.containsValue(1), is(equalTo(false)));
+    }
+}
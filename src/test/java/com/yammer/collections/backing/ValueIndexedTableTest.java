@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ValueIndexedTableTest {
+    private ValueIndexedTable<String, String, Integer> table;
+
+    @Before
+    public void setUp() {
+        Table<String, String, Integer> delegate = HashBasedTable.create();
+        delegate.put("r1", "c1", 1);
+        delegate.put("r1", "c2", 2);
+        delegate.put("r2", "c1", 1);
+        table = ValueIndexedTable.create(delegate);
+    }
+
+    @Test
+    public void existing_cells_are_indexed() {
+        assertThat(
+                table.cellsForValue(1),
+                containsInAnyOrder(Tables.immutableCell("r1", "c1", 1), Tables.immutableCell("r2", "c1", 1))
+        );
+        assertThat(table.containsValue(2), is(equalTo(true)));
+        assertThat(table.containsValue(3), is(equalTo(false)));
+    }
+
+    @Test
+    public void put_and_remove_update_index() {
+        table.put("r1", "c1", 3);
+        table.remove("r1", "c2");
+
+        assertThat(table.cellsForValue(1), containsInAnyOrder(Tables.immutableCell("r2", "c1", 1)));
+        assertThat(table.containsValue(2), is(equalTo(false)));
+        assertThat(table.containsValue(3), is(equalTo(true)));
+    }
+
+    @Test
+    public void row_views_update_index() {
+        table.row("r3").put("c1", 4);
+        for (Map.Entry<String, Integer> entry : table.row("r1").entrySet()) {
+            entry.setValue(5);
+        }
+
+        assertThat(table.containsValue(4), is(equalTo(true)));
+        assertThat(table.cellsForValue(5).size(), is(equalTo(2)));
+        assertThat(table.cellsForValue(1), containsInAnyOrder(Tables.immutableCell("r2", "c1", 1)));
+        assertThat(table.get("r1", "c2"), is(equalTo(5)));
+    }
+
+    @Test
+    public void cell_iterator_remove_updates_index() {
+        Iterator<Table.Cell<String, String, Integer>> iterator = table.cellSet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue() == 1) {
+                iterator.remove();
+            }
+        }
+
+        assertThat(table.containsValue(1), is(equalTo(false)));
+        assertThat(table.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void row_and_column_removal_update_index() {
+        table.rowKeySet().remove("r2");
+        table.columnMap().remove("c2");
+
+        assertThat(table.containsValue(2), is(equalTo(false)));
+        assertThat(Iterables.getOnlyElement(table.cellsForValue(1)), is(equalTo(Tables.immutableCell("r1", "c1", 1))));
+        assertThat(table.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void clear_clears_index() {
+        table.clear();
+
+        assertThat(table.isEmpty(), is(equalTo(true)));
+        assertThat(table.containsValue(1), is(equalTo(false)));
+    }
+}
@@ -0,0 +1,372 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.backing;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.yammer.collections.transforming.TransformingMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class WriteBehindMapTest {
+    private static final Function<Integer, String> FORMAT_INT = new Function<Integer, String>() {
+        @Override
+        public String apply(Integer input) {
+            return input.toString();
+        }
+    };
+    private static final Function<String, Integer> PARSE_INT = new Function<String, Integer>() {
+        @Override
+        public Integer apply(String input) {
+            return Integer.valueOf(input);
+        }
+    };
+
+    private Map<String, Integer> backingMap;
+    private WriteBehindMap<String, Integer> map;
+
+    @Before
+    public void setUp() {
+        backingMap = new ConcurrentHashMap<String, Integer>(ImmutableMap.of("stored", 0));
+        map = WriteBehindMap.create(backingMap, 100, 1, TimeUnit.HOURS);
+    }
+
+    @After
+    public void tearDown() {
+        map.close();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void null_values_are_not_permitted() {
+        map.put("key", null);
+    }
+
+    @Test
+    public void writes_are_staged_until_flush() {
+        map.put("key", 1);
+
+        assertThat(backingMap.containsKey("key"), is(equalTo(false)));
+        assertThat(map.get("key"), is(equalTo(1)));
+        assertThat(map.getPendingCount(), is(equalTo(1)));
+
+        map.flush();
+
+        assertThat(backingMap.get("key"), is(equalTo(1)));
+        assertThat(map.getPendingCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void writes_to_the_same_key_are_coalesced() {
+        assertThat(map.put("key", 1), is(nullValue()));
+        assertThat(map.put("key", 2), is(equalTo(1)));
+        assertThat(map.put("key", 3), is(equalTo(2)));
+
+        map.flush();
+
+        assertThat(backingMap.get("key"), is(equalTo(3)));
+        assertThat(map.getWriteCount(), is(equalTo(3L)));
+        assertThat(map.getCoalescedWriteCount(), is(equalTo(2L)));
+        assertThat(map.getFlushedWriteCount(), is(equalTo(1L)));
+        assertThat(map.getFlushCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void removes_hide_backing_entries_until_flushed() {
+        assertThat(map.remove("stored"), is(equalTo(0)));
+
+        assertThat(map.get("stored"), is(nullValue()));
+        assertThat(map.containsKey("stored"), is(equalTo(false)));
+        assertThat(backingMap.containsKey("stored"), is(equalTo(true)));
+
+        map.flush();
+
+        assertThat(backingMap.containsKey("stored"), is(equalTo(false)));
+    }
+
+    @Test
+    public void removing_absent_key_stages_nothing() {
+        assertThat(map.remove("absent"), is(nullValue()));
+
+        assertThat(map.getPendingCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void reaching_max_pending_flushes() {
+        WriteBehindMap<Integer, Integer> smallMap = WriteBehindMap.create(
+                new HashMap<Integer, Integer>(), 10, 1, TimeUnit.HOURS
+        );
+        for (int i = 0; i < 25; i++) {
+            smallMap.put(i, i);
+        }
+
+        assertThat(smallMap.getPendingCount(), is(equalTo(5)));
+        assertThat(smallMap.getFlushCount(), is(equalTo(2L)));
+        smallMap.close();
+    }
+
+    @Test
+    public void staged_writes_are_flushed_in_the_background() throws InterruptedException {
+        WriteBehindMap<String, Integer> timedMap = WriteBehindMap.create(backingMap, 100, 10, TimeUnit.MILLISECONDS);
+        timedMap.put("key", 1);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!backingMap.containsKey("key") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertThat(backingMap.get("key"), is(equalTo(1)));
+        timedMap.close();
+    }
+
+    @Test
+    public void failed_flush_keeps_writes_staged() {
+        Map<String, Integer> failingMap = new HashMap<String, Integer>() {
+            private boolean failed;
+
+            @Override
+            public Integer put(String key, Integer value) {
+                failOnce();
+                return super.put(key, value);
+            }
+
+            @Override
+            public void putAll(Map<? extends String, ? extends Integer> m) {
+                failOnce();
+                super.putAll(m);
+            }
+
+            private void failOnce() {
+                if (!failed) {
+                    failed = true;
+                    throw new IllegalStateException("unavailable");
+                }
+            }
+        };
+        WriteBehindMap<String, Integer> failingWriteBehindMap = WriteBehindMap.create(failingMap, 100, 1, TimeUnit.HOURS);
+        failingWriteBehindMap.put("key", 1);
+
+        try {
+            failingWriteBehindMap.flush();
+        } catch (IllegalStateException ignored) {
+            // retried below
+        }
+        assertThat(failingWriteBehindMap.getPendingCount(), is(equalTo(1)));
+        assertThat(failingWriteBehindMap.getFailedFlushCount(), is(equalTo(1L)));
+
+        failingWriteBehindMap.close();
+
+        assertThat(failingMap.get("key"), is(equalTo(1)));
+    }
+
+    @Test
+    public void bulk_operations_see_staged_writes() {
+        map.put("key", 1);
+        map.remove("stored");
+
+        assertThat(map.size(), is(equalTo(1)));
+        assertThat(map, is(equalTo((Map<String, Integer>) ImmutableMap.of("key", 1))));
+    }
+
+    @Test
+    public void set_and_delete_do_not_read_the_backing_map() {
+        Map<String, Integer> unreadableMap = new HashMap<String, Integer>() {
+            @Override
+            public Integer get(Object key) {
+                throw new AssertionError("read " + key);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                throw new AssertionError("read " + key);
+            }
+        };
+        WriteBehindMap<String, Integer> unreadableWriteBehindMap = WriteBehindMap.create(
+                unreadableMap, 100, 1, TimeUnit.HOURS
+        );
+
+        unreadableWriteBehindMap.set("key", 1);
+        unreadableWriteBehindMap.delete("other");
+        unreadableWriteBehindMap.close();
+
+        assertThat(unreadableMap, is(equalTo((Map<String, Integer>) ImmutableMap.of("key", 1))));
+    }
+
+    @Test
+    public void iteration_overlays_staged_writes() {
+        map.put("key", 1);
+        map.put("stored", 2);
+
+        assertThat(map.entrySet(), containsInAnyOrder(
+                (Map.Entry<String, Integer>) Maps.immutableEntry("key", 1), Maps.immutableEntry("stored", 2)
+        ));
+        assertThat(backingMap, is(equalTo((Map<String, Integer>) ImmutableMap.of("stored", 0))));
+    }
+
+    @Test
+    public void iterator_writes_go_through_staging() {
+        map.put("key", 1);
+        Iterator<Map.Entry<String, Integer>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Integer> entry = iterator.next();
+            if (entry.getKey().equals("stored")) {
+                iterator.remove();
+            } else {
+                entry.setValue(3);
+            }
+        }
+
+        assertThat(backingMap, is(equalTo((Map<String, Integer>) ImmutableMap.of("stored", 0))));
+        assertThat(map, is(equalTo((Map<String, Integer>) ImmutableMap.of("key", 3))));
+    }
+
+    @Test
+    public void close_does_not_shut_down_supplied_flusher() {
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor();
+        try {
+            WriteBehindMap<String, Integer> scheduledMap = WriteBehindMap.create(
+                    backingMap, 100, 1, TimeUnit.HOURS, flusher
+            );
+            scheduledMap.put("key", 1);
+
+            scheduledMap.close();
+
+            assertThat(flusher.isShutdown(), is(equalTo(false)));
+            assertThat(backingMap.get("key"), is(equalTo(1)));
+        } finally {
+            flusher.shutdown();
+        }
+    }
+
+    @Test
+    public void backing_map_is_never_accessed_concurrently() {
+        ExclusiveAccessMap<Integer, Integer> exclusiveMap = new ExclusiveAccessMap<Integer, Integer>();
+        WriteBehindMap<Integer, Integer> timedMap = WriteBehindMap.create(
+                exclusiveMap, 1000, 1, TimeUnit.MILLISECONDS
+        );
+        long deadline = System.currentTimeMillis() + 200;
+        for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+            timedMap.put(i % 100, i);
+            timedMap.get((i + 50) % 200);
+            timedMap.containsKey((i + 150) % 200);
+        }
+        timedMap.close();
+
+        assertThat(exclusiveMap.overlapped, is(equalTo(false)));
+        assertThat(exclusiveMap.size(), is(equalTo(100)));
+    }
+
+    @Test
+    public void close_flushes() {
+        map.put("key", 1);
+
+        map.close();
+
+        assertThat(backingMap.get("key"), is(equalTo(1)));
+    }
+
+    @Test
+    public void buffers_writes_of_transforming_map() {
+        Map<String, String> stringBackingMap = new ConcurrentHashMap<String, String>();
+        WriteBehindMap<String, String> writeBehindMap = WriteBehindMap.create(stringBackingMap, 100, 1, TimeUnit.HOURS);
+        Map<String, Integer> transformingMap = TransformingMap.create(
+                writeBehindMap,
+                Functions.<String>identity(), Functions.<String>identity(),
+                FORMAT_INT, PARSE_INT
+        );
+
+        transformingMap.put("key", 1);
+        transformingMap.put("key", 2);
+
+        assertThat(transformingMap.get("key"), is(equalTo(2)));
+        assertThat(stringBackingMap.isEmpty(), is(equalTo(true)));
+
+        writeBehindMap.close();
+
+        assertThat(stringBackingMap, is(equalTo((Map<String, String>) ImmutableMap.of("key", "2"))));
+    }
+
+    /**
+     * A map which is not thread safe, and records whether two threads were ever inside of it at the same time.
+     */
+    private static final class ExclusiveAccessMap<K, V> extends HashMap<K, V> {
+        private static final long serialVersionUID = 0L;
+
+        private final AtomicBoolean inUse = new AtomicBoolean();
+        private volatile boolean overlapped;
+
+        @Override
+        public V get(Object key) {
+            enter();
+            try {
+                return super.get(key);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            enter();
+            try {
+                return super.containsKey(key);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends V> m) {
+            enter();
+            try {
+                // widens the window for a concurrent read
+                Thread.sleep(1);
+                super.putAll(m);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exit();
+            }
+        }
+
+        private void enter() {
+            if (!inUse.compareAndSet(false, true)) {
+                overlapped = true;
+            }
+        }
+
+        private void exit() {
+            inUse.set(false);
+        }
+    }
+}
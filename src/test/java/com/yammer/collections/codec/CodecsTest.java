@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.codec;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Converter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+import com.google.common.primitives.UnsignedBytes;
+import com.yammer.collections.transforming.TransformingMap;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class CodecsTest {
+    private static final String MIXED_STRING = "ascii éß €中 😀";
+
+    private enum Colour {
+        RED, GREEN, BLUE
+    }
+
+    @Test
+    public void longToBytes_round_trips() {
+        assertRoundTrip(Codecs.longToBytes(), Long.MIN_VALUE);
+        assertRoundTrip(Codecs.longToBytes(), -1L);
+        assertRoundTrip(Codecs.longToBytes(), 1234567890123L);
+    }
+
+    @Test
+    public void longToBytes_is_big_endian() {
+        assertThat(Codecs.longToBytes().convert(258L), is(equalTo(Longs.toByteArray(258L))));
+    }
+
+    @Test
+    public void intToBytes_round_trips() {
+        assertRoundTrip(Codecs.intToBytes(), Integer.MIN_VALUE);
+        assertRoundTrip(Codecs.intToBytes(), 42);
+    }
+
+    @Test
+    public void stringToUtf8_matches_jdk_encoding() {
+        assertThat(Codecs.stringToUtf8().convert(MIXED_STRING), is(equalTo(MIXED_STRING.getBytes(Charsets.UTF_8))));
+        assertRoundTrip(Codecs.stringToUtf8(), MIXED_STRING);
+    }
+
+    @Test
+    public void stringToUtf8_replaces_unpaired_surrogates_as_jdk_does() {
+        String malformed = "a\ud83db\ude00";
+
+        assertThat(Codecs.stringToUtf8().convert(malformed), is(equalTo(malformed.getBytes(Charsets.UTF_8))));
+    }
+
+    @Test
+    public void utf8Lookup_hashes_like_byte_array_equivalence_of_encoding() {
+        for (String value : new String[]{"", "ascii", MIXED_STRING, "a\ud83db\ude00", "\ud83d"}) {
+            byte[] encoded = value.getBytes(Charsets.UTF_8);
+
+            assertThat(Codecs.utf8Lookup().hash(value), is(equalTo(Codecs.byteArrayEquivalence().hash(encoded))));
+            assertThat(Codecs.utf8Lookup().matches(value, encoded), is(equalTo(true)));
+        }
+    }
+
+    @Test
+    public void utf8Lookup_does_not_match_other_encodings() {
+        assertThat(Codecs.utf8Lookup().matches("ab", "abc".getBytes(Charsets.UTF_8)), is(equalTo(false)));
+        assertThat(Codecs.utf8Lookup().matches("abc", "ab".getBytes(Charsets.UTF_8)), is(equalTo(false)));
+        assertThat(Codecs.utf8Lookup().matches("é", "e".getBytes(Charsets.UTF_8)), is(equalTo(false)));
+        assertThat(Codecs.utf8Lookup().matches("\u20ac", "\u20ad".getBytes(Charsets.UTF_8)), is(equalTo(false)));
+    }
+
+    @Test
+    public void stringToUtf8_handles_strings_larger_than_scratch_buffer() {
+        String large = Strings.repeat(MIXED_STRING, 10000);
+
+        assertThat(Codecs.stringToUtf8().convert(large), is(equalTo(large.getBytes(Charsets.UTF_8))));
+        assertRoundTrip(Codecs.stringToUtf8(), "after large");
+    }
+
+    @Test
+    public void uuidToBytes_round_trips() {
+        assertRoundTrip(Codecs.uuidToBytes(), UUID.randomUUID());
+        assertRoundTrip(Codecs.uuidToBytes(), new UUID(-1L, Long.MIN_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void uuidToBytes_rejects_wrong_length() {
+        Codecs.uuidToBytes().reverse().convert(new byte[3]);
+    }
+
+    @Test
+    public void enumToOrdinal_round_trips() {
+        Converter<Colour, Integer> codec = Codecs.enumToOrdinal(Colour.class);
+
+        assertThat(codec.convert(Colour.BLUE), is(equalTo(2)));
+        assertRoundTrip(codec, Colour.GREEN);
+    }
+
+    @Test
+    public void dateToEpochMillis_round_trips() {
+        assertRoundTrip(Codecs.dateToEpochMillis(), new Date(TimeUnit.DAYS.toMillis(20000)));
+    }
+
+    @Test
+    public void codecs_pass_null_through() {
+        assertThat(Codecs.longToBytes().convert(null), is(nullValue()));
+        assertThat(Codecs.stringToUtf8().reverse().convert(null), is(nullValue()));
+    }
+
+    @Test
+    public void chain_composes_codecs() {
+        Converter<Date, byte[]> codec = Codecs.chain(Codecs.dateToEpochMillis(), Codecs.longToBytes());
+
+        assertThat(codec.convert(new Date(258L)), is(equalTo(Longs.toByteArray(258L))));
+        assertRoundTrip(codec, new Date(123456L));
+    }
+
+    @Test
+    public void codecs_work_with_transforming_map() {
+        Map<byte[], byte[]> backingMap = Maps.newTreeMap(UnsignedBytes.lexicographicalComparator());
+        Map<String, Long> transformingMap = TransformingMap.create(
+                backingMap,
+                Codecs.stringToUtf8(), Codecs.stringToUtf8().reverse(),
+                Codecs.longToBytes(), Codecs.longToBytes().reverse()
+        );
+
+        transformingMap.put("key", 11L);
+
+        assertThat(transformingMap.get("key"), is(equalTo(11L)));
+        assertThat(backingMap.get("key".getBytes(Charsets.UTF_8)), is(equalTo(Longs.toByteArray(11L))));
+    }
+
+    private static <A, B> void assertRoundTrip(Converter<A, B> codec, A value) {
+        assertThat(codec.reverse().convert(codec.convert(value)), is(equalTo(value)));
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.codec;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Converter;
+import com.google.common.base.Functions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.yammer.collections.transforming.TransformingMap;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class DeflateCodecTest {
+    private static final String JSON = "{\"id\":12345,\"name\":\"some user\",\"tags\":[\"a\",\"b\",\"c\"],\"active\":true}";
+
+    @Test(expected = IllegalArgumentException.class)
+    public void threshold_cannot_be_negative() {
+        DeflateCodec.create(-1);
+    }
+
+    @Test
+    public void short_values_are_stored_raw() {
+        DeflateCodec codec = DeflateCodec.create(128);
+        byte[] value = bytes(JSON);
+
+        byte[] encoded = codec.convert(value);
+
+        assertThat(encoded.length, is(equalTo(value.length + 1)));
+        assertThat(codec.reverse().convert(encoded), is(equalTo(value)));
+    }
+
+    @Test
+    public void incompressible_values_are_stored_raw() {
+        DeflateCodec codec = DeflateCodec.create(0);
+        byte[] value = {1, 7, -3, 42, 99, -128};
+
+        byte[] encoded = codec.convert(value);
+
+        assertThat(encoded.length, is(equalTo(value.length + 1)));
+        assertThat(codec.reverse().convert(encoded), is(equalTo(value)));
+    }
+
+    @Test
+    public void long_values_are_compressed() {
+        DeflateCodec codec = DeflateCodec.create(128);
+        byte[] value = bytes(Strings.repeat(JSON, 50));
+
+        byte[] encoded = codec.convert(value);
+
+        assertThat(encoded.length, is(lessThan(value.length / 10)));
+        assertThat(codec.reverse().convert(encoded), is(equalTo(value)));
+    }
+
+    @Test
+    public void empty_values_round_trip() {
+        DeflateCodec codec = DeflateCodec.create(0);
+
+        assertThat(codec.reverse().convert(codec.convert(new byte[0])), is(equalTo(new byte[0])));
+    }
+
+    @Test
+    public void dictionary_improves_compression_of_short_values() {
+        byte[] dictionary = DeflateCodec.dictionaryOf(ImmutableList.of(bytes(JSON)), 1024);
+        DeflateCodec plain = DeflateCodec.create(0);
+        DeflateCodec withDictionary = DeflateCodec.create(0, dictionary);
+        byte[] value = bytes(JSON.replace("12345", "54321"));
+
+        byte[] encoded = withDictionary.convert(value);
+
+        assertThat(encoded.length, is(lessThan(plain.convert(value).length / 2)));
+        assertThat(withDictionary.reverse().convert(encoded), is(equalTo(value)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dictionary_is_required_for_decoding() {
+        DeflateCodec withDictionary = DeflateCodec.create(0, bytes(JSON));
+
+        DeflateCodec.create(0).reverse().convert(withDictionary.convert(bytes(JSON)));
+    }
+
+    @Test
+    public void dictionaryOf_puts_most_frequent_samples_last() {
+        byte[] dictionary = DeflateCodec.dictionaryOf(
+                ImmutableList.of(bytes("rare"), bytes("common"), bytes("common"), bytes("too long to fit")),
+                12
+        );
+
+        assertThat(new String(dictionary, Charsets.UTF_8), is(equalTo("rarecommon")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void corrupted_values_are_rejected() {
+        DeflateCodec codec = DeflateCodec.create(0);
+        byte[] encoded = codec.convert(bytes(Strings.repeat(JSON, 10)));
+        encoded[encoded.length / 2] ^= 0x55;
+        encoded[encoded.length / 2 + 1] ^= 0x55;
+
+        codec.reverse().convert(encoded);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lengths_beyond_what_deflate_can_encode_are_rejected() {
+        DeflateCodec codec = DeflateCodec.create(0);
+        byte[] encoded = codec.convert(bytes(Strings.repeat(JSON, 10)));
+        ByteBuffer.wrap(encoded, 1, 4).putInt(Integer.MAX_VALUE);
+
+        codec.reverse().convert(encoded);
+    }
+
+    @Test
+    public void values_decode_after_a_corrupted_one() {
+        DeflateCodec codec = DeflateCodec.create(0, bytes(JSON));
+        byte[] value = bytes(Strings.repeat(JSON, 10));
+        byte[] encoded = codec.convert(value);
+        byte[] corrupted = encoded.clone();
+        corrupted[corrupted.length / 2] ^= 0x55;
+        corrupted[corrupted.length / 2 + 1] ^= 0x55;
+        try {
+            codec.reverse().convert(corrupted);
+        } catch (IllegalArgumentException ignored) {
+            // expected
+        }
+
+        assertThat(codec.reverse().convert(encoded), is(equalTo(value)));
+        assertThat(codec.convert(value), is(equalTo(encoded)));
+    }
+
+    @Test
+    public void values_round_trip_on_several_threads() throws Exception {
+        final DeflateCodec codec = DeflateCodec.create(0, bytes(JSON));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = Lists.newArrayList();
+            for (int i = 0; i < 100; i++) {
+                final byte[] value = bytes(Strings.repeat(JSON.replace("12345", Integer.toString(i)), i % 10));
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return Arrays.equals(codec.reverse().convert(codec.convert(value)), value);
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertThat(result.get(), is(equalTo(true)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closed_codec_cannot_be_used() {
+        DeflateCodec codec = DeflateCodec.create(0);
+        byte[] encoded = codec.convert(bytes(Strings.repeat(JSON, 10)));
+
+        codec.close();
+
+        codec.reverse().convert(encoded);
+    }
+
+    @Test
+    public void compression_ratio_is_reported() {
+        DeflateCodec codec = DeflateCodec.create(0);
+        assertThat(codec.getCompressionRatio(), is(equalTo(1.0)));
+
+        codec.convert(bytes(Strings.repeat(JSON, 50)));
+
+        assertThat(codec.getInputBytes(), is(equalTo((long) JSON.length() * 50)));
+        assertThat(codec.getCompressionRatio(), is(greaterThan(10.0)));
+    }
+
+    @Test
+    public void works_as_value_codec_of_transforming_map() {
+        DeflateCodec compression = DeflateCodec.create(16);
+        Converter<String, byte[]> valueCodec = Codecs.chain(Codecs.stringToUtf8(), compression);
+        Map<String, byte[]> backingMap = Maps.newHashMap();
+        Map<String, String> map = TransformingMap.create(
+                backingMap,
+                Functions.<String>identity(), Functions.<String>identity(),
+                valueCodec, valueCodec.reverse()
+        );
+
+        map.put("key", Strings.repeat(JSON, 10));
+
+        assertThat(map.get("key"), is(equalTo(Strings.repeat(JSON, 10))));
+        assertThat(backingMap.get("key").length, is(lessThan(JSON.length() * 2)));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+}
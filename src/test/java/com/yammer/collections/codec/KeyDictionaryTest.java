@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.codec;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class KeyDictionaryTest {
+    @Test
+    public void ids_are_dense_and_stable() {
+        KeyDictionary<String> dictionary = KeyDictionary.create();
+
+        assertThat(dictionary.idOf("a"), is(equalTo(0)));
+        assertThat(dictionary.idOf("b"), is(equalTo(1)));
+        assertThat(dictionary.idOf("a"), is(equalTo(0)));
+        assertThat(dictionary.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void keys_are_decoded() {
+        KeyDictionary<String> dictionary = KeyDictionary.create();
+        for (int i = 0; i < 100; i++) {
+            dictionary.idOf("key" + i);
+        }
+
+        assertThat(dictionary.keyOf(42), is(equalTo("key42")));
+        assertThat(dictionary.reverse().convert(dictionary.convert("key99")), is(equalTo("key99")));
+    }
+
+    @Test
+    public void ids_are_shared_instances() {
+        KeyDictionary<String> dictionary = KeyDictionary.create();
+        for (int i = 0; i < 1000; i++) {
+            dictionary.idOf("key" + i);
+        }
+
+        assertThat(dictionary.convert("key999"), is(sameInstance(dictionary.convert("key999"))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknown_ids_are_rejected() {
+        KeyDictionary.create().keyOf(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void null_keys_are_rejected() {
+        KeyDictionary.<String>create().idOf(null);
+    }
+
+    @Test
+    public void lookup_does_not_assign_ids() {
+        KeyDictionary<String> dictionary = KeyDictionary.create();
+        dictionary.idOf("a");
+
+        assertThat(dictionary.lookup().apply("a"), is(equalTo(0)));
+        assertThat(dictionary.lookup().apply("b"), is(nullValue()));
+        assertThat(dictionary.lookup().apply(null), is(nullValue()));
+        assertThat(dictionary.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void concurrent_encoding_assigns_each_key_one_id() throws InterruptedException {
+        final KeyDictionary<String> dictionary = KeyDictionary.create();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        dictionary.idOf("key" + i);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        Set<String> keys = Sets.newHashSet();
+        for (int id = 0; id < 1000; id++) {
+            keys.add(dictionary.keyOf(id));
+        }
+        assertThat(dictionary.size(), is(equalTo(1000)));
+        assertThat(keys.size(), is(equalTo(1000)));
+    }
+}
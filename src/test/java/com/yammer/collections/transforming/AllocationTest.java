@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.yammer.collections.backing.ColumnIndexedTable;
+import com.yammer.collections.backing.ProbeableHashMap;
+import com.yammer.collections.codec.Codecs;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Guards the per call allocation of the hot paths of the views, with codecs which do not allocate themselves. The
+ * bytes allocated by the calling thread are measured around warmed up loops, and the smallest of a few measurements
+ * is compared against the budget, so that unrelated allocations, e.g. by class loading, do not fail the tests.
+ * <p/>
+ * The tests are skipped on JVMs which cannot measure the allocation of a thread.
+ */
+public class AllocationTest {
+    private static final int SIZE = 1000;
+    private static final int CALLS = 100000;
+    private static final int WARM_UP_ROUNDS = 10;
+    private static final int MEASURED_ROUNDS = 5;
+    // the iterators, spread over the elements
+    private static final double ITERATOR_BUDGET = 1;
+    // an entry object per element
+    private static final double ENTRY_BUDGET = 32;
+    private static final String[] NAMES = new String[SIZE];
+    private static final Map<String, Integer> IDS = Maps.newHashMap();
+
+    static {
+        for (int i = 0; i < SIZE; i++) {
+            NAMES[i] = Integer.toString(i);
+            IDS.put(NAMES[i], i);
+        }
+    }
+
+    // table lookups in both directions, so that the codec itself does not allocate
+    private static final Function<Integer, String> TO_NAME = new Function<Integer, String>() {
+        @Override
+        public String apply(Integer input) {
+            return NAMES[input];
+        }
+    };
+    private static final Function<String, Integer> TO_ID = new Function<String, Integer>() {
+        @Override
+        public Integer apply(String input) {
+            return IDS.get(input);
+        }
+    };
+
+    private com.sun.management.ThreadMXBean threadMXBean;
+    private Integer[] keys;
+    private long sink;
+
+    @Before
+    public void setUp() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        keys = new Integer[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            keys[i] = IDS.get(NAMES[i]);
+        }
+    }
+
+    @Test
+    public void map_get_does_not_allocate() {
+        final Map<Integer, Integer> map = transformingMap();
+
+        assertAllocationPerCall(0, new Operation() {
+            @Override
+            public void run(int call) {
+                sink += map.get(keys[call % SIZE]);
+            }
+        });
+    }
+
+    @Test
+    public void map_contains_key_does_not_allocate() {
+        final Map<Integer, Integer> map = transformingMap();
+
+        assertAllocationPerCall(0, new Operation() {
+            @Override
+            public void run(int call) {
+                sink += map.containsKey(keys[call % SIZE]) ? 1 : 0;
+            }
+        });
+    }
+
+    @Test
+    public void map_put_of_present_key_does_not_allocate() {
+        final Map<Integer, Integer> map = transformingMap();
+
+        assertAllocationPerCall(0, new Operation() {
+            @Override
+            public void run(int call) {
+                Integer key = keys[call % SIZE];
+                sink += map.put(key, key);
+            }
+        });
+    }
+
+    @Test
+    public void map_key_set_contains_does_not_allocate() {
+        final Map<Integer, Integer> map = transformingMap();
+
+        assertAllocationPerCall(0, new Operation() {
+            @Override
+            public void run(int call) {
+                sink += map.keySet().contains(keys[call % SIZE]) ? 1 : 0;
+            }
+        });
+    }
+
+    @Test
+    public void lookup_map_get_of_encoded_keys_does_not_allocate() {
+        ProbeableHashMap<byte[], String> backingMap = ProbeableHashMap.create(Codecs.byteArrayEquivalence());
+        final Map<String, String> map = TransformingMap.createWithLookup(
+                backingMap, Codecs.utf8Lookup(),
+                Codecs.stringToUtf8(), Codecs.stringToUtf8().reverse(),
+                Functions.<String>identity(), Functions.<String>identity()
+        );
+        for (String name : NAMES) {
+            map.put(name, name);
+        }
+
+        assertAllocationPerCall(0, new Operation() {
+            @Override
+            public void run(int call) {
+                sink += map.containsKey(NAMES[call % SIZE]) ? 1 : 0;
+            }
+        });
+    }
+
+    @Test
+    public void table_row_get_does_not_allocate() {
+        Table<String, String, String> backingTable = ColumnIndexedTable.create();
+        for (int i = 0; i < SIZE; i++) {
+            backingTable.put(NAMES[i % 4], NAMES[i], NAMES[i]);
+        }
+        final Table<Integer, Integer, Integer> table = TransformingTable.create(
+                backingTable,
+                TO_NAME, TO_ID,
+                TO_NAME, TO_ID,
+                TO_NAME, TO_ID
+        );
+
+        assertAllocationPerCall(0, new Operation() {
+            @Override
+            public void run(int call) {
+                int i = call % SIZE;
+                sink += table.row(keys[i % 4]).get(keys[i]);
+            }
+        });
+    }
+
+    @Test
+    public void set_contains_does_not_allocate() {
+        Set<String> backingSet = Sets.newHashSet(NAMES);
+        final Set<Integer> set = TransformingSet.create(backingSet, TO_NAME, TO_ID);
+
+        assertAllocationPerCall(0, new Operation() {
+            @Override
+            public void run(int call) {
+                sink += set.contains(keys[call % SIZE]) ? 1 : 0;
+            }
+        });
+    }
+
+    @Test
+    public void collection_contains_does_not_allocate() {
+        Collection<String> backingCollection = Lists.newArrayList(NAMES[0], NAMES[1], NAMES[2]);
+        final Collection<Integer> collection = TransformingCollection.create(backingCollection, TO_NAME, TO_ID);
+
+        assertAllocationPerCall(0, new Operation() {
+            @Override
+            public void run(int call) {
+                sink += collection.contains(keys[call % 3]) ? 1 : 0;
+            }
+        });
+    }
+
+    @Test
+    public void table_get_does_not_allocate() {
+        // unlike HashBasedTable.get, which creates a row view per call
+        Table<String, String, String> backingTable = ColumnIndexedTable.create();
+        for (int i = 0; i < SIZE; i++) {
+            backingTable.put(NAMES[i % 10], NAMES[i], NAMES[i]);
+        }
+        final Table<Integer, Integer, Integer> table = TransformingTable.create(
+                backingTable,
+                TO_NAME, TO_ID,
+                TO_NAME, TO_ID,
+                TO_NAME, TO_ID
+        );
+
+        assertAllocationPerCall(0, new Operation() {
+            @Override
+            public void run(int call) {
+                int i = call % SIZE;
+                sink += table.get(keys[i % 10], keys[i]);
+            }
+        });
+    }
+
+    @Test
+    public void set_iteration_allocates_only_the_iterator() {
+        final Set<Integer> set = TransformingSet.create(Sets.newHashSet(NAMES), TO_NAME, TO_ID);
+
+        assertAllocationPerCall(ITERATOR_BUDGET, new Operation() {
+            @Override
+            public void run(int call) {
+                if (call % SIZE == 0) {
+                    for (Integer element : set) {
+                        sink += element;
+                    }
+                }
+            }
+        });
+    }
+
+    @Test
+    public void map_iteration_allocates_one_entry_per_element() {
+        final Map<Integer, Integer> map = transformingMap();
+
+        assertAllocationPerCall(ENTRY_BUDGET, new Operation() {
+            @Override
+            public void run(int call) {
+                if (call % SIZE == 0) {
+                    for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+                        sink += entry.getKey() + entry.getValue();
+                    }
+                }
+            }
+        });
+    }
+
+    private Map<Integer, Integer> transformingMap() {
+        Map<String, String> backingMap = Maps.newHashMap();
+        for (String name : NAMES) {
+            backingMap.put(name, name);
+        }
+        return TransformingMap.create(backingMap, TO_NAME, TO_ID, TO_NAME, TO_ID);
+    }
+
+    private void assertAllocationPerCall(double budget, Operation operation) {
+        long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            for (int call = 0; call < CALLS; call++) {
+                operation.run(call);
+            }
+        }
+        long minimum = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long start = threadMXBean.getThreadAllocatedBytes(threadId);
+            for (int call = 0; call < CALLS; call++) {
+                operation.run(call);
+            }
+            minimum = Math.min(minimum, threadMXBean.getThreadAllocatedBytes(threadId) - start);
+        }
+        assertThat((double) minimum / CALLS, lessThanOrEqualTo(budget));
+    }
+
+    private interface Operation {
+        void run(int call);
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("InstanceVariableMayNotBeInitialized")
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncTransformingMapTest {
+    private static final Integer F_KEY_1 = 11;
+    private static final Integer F_KEY_2 = 22;
+    private static final Float F_VALUE_1 = 0.5f;
+    private static final Float F_VALUE_2 = 0.8f;
+    private static final String T_KEY_1 = F_KEY_1.toString();
+    private static final String T_KEY_2 = F_KEY_2.toString();
+    private static final String T_VALUE_1 = F_VALUE_1.toString();
+    private static final String T_VALUE_2 = F_VALUE_2.toString();
+    private static final Function<Integer, String> TO_KEY_FUNCTION = new Function<Integer, String>() {
+        @Override
+        public String apply(Integer input) {
+            return input.toString();
+        }
+    };
+    private static final Function<String, Integer> FROM_KEY_FUNCTION = new Function<String, Integer>() {
+        @Override
+        public Integer apply(String input) {
+            return Integer.parseInt(input);
+        }
+    };
+    private static final Function<Float, String> TO_VALUE_FUNCTION = new Function<Float, String>() {
+        @Override
+        public String apply(Float input) {
+            return input.toString();
+        }
+    };
+    private static final Function<String, Float> FROM_VALUE_FUNCTION = new Function<String, Float>() {
+        @Override
+        public Float apply(String input) {
+            return Float.parseFloat(input);
+        }
+    };
+    @Mock
+    private Map<String, String> backingMapMock;
+    private AsyncTransformingMap<Integer, Float, String, String> asyncMap;
+
+    @Before
+    public void setUp() {
+        asyncMap = createWithExecutor(sameThreadExecutor(), 1);
+    }
+
+    private AsyncTransformingMap<Integer, Float, String, String> createWithExecutor(Executor executor, int maxInFlight) {
+        return AsyncTransformingMap.create(
+                backingMapMock,
+                TO_KEY_FUNCTION, FROM_KEY_FUNCTION,
+                TO_VALUE_FUNCTION, FROM_VALUE_FUNCTION,
+                executor, maxInFlight
+        );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxInFlight_has_to_be_positive() {
+        createWithExecutor(sameThreadExecutor(), 0);
+    }
+
+    @Test
+    public void getAsync_delegates() throws ExecutionException, InterruptedException {
+        when(backingMapMock.get(T_KEY_1)).thenReturn(T_VALUE_1);
+
+        assertThat(asyncMap.getAsync(F_KEY_1).get(), is(equalTo(F_VALUE_1)));
+    }
+
+    @Test
+    public void getAsync_returns_null_when_delegate_returns_null() throws ExecutionException, InterruptedException {
+        assertThat(asyncMap.getAsync(F_KEY_1).get(), is(nullValue()));
+    }
+
+    @Test
+    public void getAsync_of_wrong_type_returns_null() throws ExecutionException, InterruptedException {
+        when(backingMapMock.get(T_KEY_1)).thenReturn(T_VALUE_1);
+
+        assertThat(asyncMap.getAsync(11.0f).get(), is(nullValue()));
+    }
+
+    @Test
+    public void getAllAsync_skips_missing_keys() throws ExecutionException, InterruptedException {
+        when(backingMapMock.get(T_KEY_1)).thenReturn(T_VALUE_1);
+
+        assertThat(
+                asyncMap.getAllAsync(ImmutableList.of(F_KEY_1, F_KEY_2, F_KEY_1)).get(),
+                is(equalTo((Map<Integer, Float>) ImmutableMap.of(F_KEY_1, F_VALUE_1)))
+        );
+    }
+
+    @Test
+    public void putAsync_delegates() throws ExecutionException, InterruptedException {
+        when(backingMapMock.put(T_KEY_1, T_VALUE_1)).thenReturn(T_VALUE_2);
+
+        assertThat(asyncMap.putAsync(F_KEY_1, F_VALUE_1).get(), is(equalTo(F_VALUE_2)));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void putAsync_null_not_allowed() {
+        asyncMap.putAsync(F_KEY_1, null);
+    }
+
+    @Test
+    public void conversion_runs_on_executor() {
+        QueueingExecutor executor = new QueueingExecutor();
+        asyncMap = createWithExecutor(executor, 2);
+        when(backingMapMock.get(T_KEY_1)).thenReturn(T_VALUE_1);
+
+        ListenableFuture<Float> value = asyncMap.getAsync(F_KEY_1);
+
+        assertThat(value.isDone(), is(equalTo(false)));
+        executor.runAll();
+        assertThat(value.isDone(), is(equalTo(true)));
+    }
+
+    @Test
+    public void conversions_beyond_maxInFlight_are_queued_without_blocking() {
+        QueueingExecutor executor = new QueueingExecutor();
+        asyncMap = createWithExecutor(executor, 1);
+        when(backingMapMock.get(T_KEY_1)).thenReturn(T_VALUE_1);
+
+        ListenableFuture<Float> first = asyncMap.getAsync(F_KEY_1);
+        ListenableFuture<Float> second = asyncMap.getAsync(F_KEY_1);
+
+        assertThat(executor.tasks.size(), is(equalTo(1)));
+        executor.runAll();
+        assertThat(first.isDone(), is(equalTo(true)));
+        assertThat(second.isDone(), is(equalTo(true)));
+    }
+
+    @Test
+    public void rejected_submission_releases_in_flight_slot() throws ExecutionException, InterruptedException {
+        when(backingMapMock.get(T_KEY_1)).thenReturn(T_VALUE_1);
+        asyncMap = createWithExecutor(new Executor() {
+            private boolean rejected;
+
+            @Override
+            public void execute(Runnable command) {
+                if (!rejected) {
+                    rejected = true;
+                    throw new RejectedExecutionException();
+                }
+                command.run();
+            }
+        }, 1);
+
+        assertRejected(asyncMap.getAsync(F_KEY_1));
+
+        assertThat(asyncMap.getAsync(F_KEY_1).get(), is(equalTo(F_VALUE_1)));
+    }
+
+    @Test
+    public void rejected_queued_submission_fails_with_rejection() throws ExecutionException, InterruptedException {
+        when(backingMapMock.get(T_KEY_1)).thenReturn(T_VALUE_1);
+        when(backingMapMock.get(T_KEY_2)).thenReturn(T_VALUE_2);
+        final QueueingExecutor queueingExecutor = new QueueingExecutor();
+        asyncMap = createWithExecutor(new Executor() {
+            private int submissions;
+
+            @Override
+            public void execute(Runnable command) {
+                if (++submissions > 1) {
+                    throw new RejectedExecutionException();
+                }
+                queueingExecutor.execute(command);
+            }
+        }, 1);
+        ListenableFuture<Float> first = asyncMap.getAsync(F_KEY_1);
+        ListenableFuture<Float> queued = asyncMap.getAsync(F_KEY_2);
+
+        queueingExecutor.runAll();
+
+        assertThat(first.get(), is(equalTo(F_VALUE_1)));
+        assertRejected(queued);
+    }
+
+    @Test
+    public void asMap_is_synchronous_view() {
+        when(backingMapMock.get(T_KEY_2)).thenReturn(T_VALUE_2);
+
+        assertThat(asyncMap.asMap().get(F_KEY_2), is(equalTo(F_VALUE_2)));
+    }
+
+    private static void assertRejected(ListenableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("the future should have failed");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(RejectedExecutionException.class)));
+        }
+    }
+
+    private static final class QueueingExecutor implements Executor {
+        private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.poll().run();
+            }
+        }
+    }
+}
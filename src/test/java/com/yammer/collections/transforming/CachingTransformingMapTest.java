@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class CachingTransformingMapTest {
+    private static final Function<Integer, String> TO_FUNCTION = new Function<Integer, String>() {
+        @Override
+        public String apply(Integer input) {
+            return input.toString();
+        }
+    };
+    private static final Function<String, Integer> FROM_FUNCTION = new Function<String, Integer>() {
+        @Override
+        public Integer apply(String input) {
+            return Integer.valueOf(input);
+        }
+    };
+
+    private Map<String, String> backingMap;
+    private CountingFunction<String, Integer> fromValueFunction;
+    private CachingTransformingMap<Integer, Integer, String, String> map;
+
+    @Before
+    public void setUp() {
+        backingMap = Maps.newHashMap();
+        for (int i = 0; i < 1000; i++) {
+            backingMap.put(Integer.toString(i), Integer.toString(i * 10));
+        }
+        fromValueFunction = new CountingFunction<String, Integer>(FROM_FUNCTION);
+        map = CachingTransformingMap.create(
+                backingMap,
+                TO_FUNCTION, FROM_FUNCTION,
+                TO_FUNCTION, fromValueFunction,
+                100
+        );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximum_size_has_to_be_positive() {
+        CachingTransformingMap.create(backingMap, TO_FUNCTION, FROM_FUNCTION, TO_FUNCTION, FROM_FUNCTION, 0);
+    }
+
+    @Test
+    public void repeated_reads_decode_once() {
+        assertThat(map.get(1), is(equalTo(10)));
+        assertThat(map.get(1), is(equalTo(10)));
+        assertThat(map.get(1), is(equalTo(10)));
+
+        assertThat(fromValueFunction.calls, is(equalTo(1)));
+        assertThat(map.getHitCount(), is(equalTo(2L)));
+        assertThat(map.getMissCount(), is(equalTo(1L)));
+        assertThat(map.getHitRate(), is(equalTo(2.0 / 3)));
+    }
+
+    @Test
+    public void absent_keys_are_not_cached() {
+        assertThat(map.get(5000), is(nullValue()));
+
+        assertThat(map.getCachedCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void put_invalidates_cached_value() {
+        map.get(1);
+
+        assertThat(map.put(1, 7), is(equalTo(10)));
+
+        assertThat(map.get(1), is(equalTo(7)));
+        assertThat(backingMap.get("1"), is(equalTo("7")));
+    }
+
+    @Test
+    public void remove_invalidates_cached_value() {
+        map.get(1);
+
+        map.remove(1);
+
+        assertThat(map.get(1), is(nullValue()));
+        assertThat(map.containsKey(1), is(equalTo(false)));
+    }
+
+    @Test
+    public void entry_writes_invalidate_cached_values() {
+        map.get(1);
+        map.get(2);
+
+        Iterator<Map.Entry<Integer, Integer>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Integer> entry = iterator.next();
+            if (entry.getKey() == 1) {
+                entry.setValue(3);
+            } else if (entry.getKey() == 2) {
+                iterator.remove();
+            }
+        }
+
+        assertThat(map.get(1), is(equalTo(3)));
+        assertThat(map.get(2), is(nullValue()));
+        assertThat(map.size(), is(equalTo(999)));
+    }
+
+    @Test
+    public void iterating_keys_and_entries_does_not_decode_values() {
+        int keys = 0;
+        for (Integer ignored : map.keySet()) {
+            keys++;
+        }
+        for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            entry.getKey();
+        }
+
+        assertThat(keys, is(equalTo(1000)));
+        assertThat(fromValueFunction.calls, is(equalTo(0)));
+    }
+
+    @Test
+    public void key_removal_invalidates_cached_values() {
+        map.get(1);
+        map.get(2);
+
+        Iterator<Integer> iterator = map.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == 1) {
+                iterator.remove();
+            }
+        }
+        map.keySet().remove(2);
+
+        assertThat(map.get(1), is(nullValue()));
+        assertThat(map.get(2), is(nullValue()));
+        assertThat(map.size(), is(equalTo(998)));
+    }
+
+    @Test
+    public void clear_invalidates_all() {
+        map.get(1);
+
+        map.clear();
+
+        assertThat(map.get(1), is(nullValue()));
+        assertThat(map.getCachedCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void writes_to_other_keys_during_a_load_do_not_drop_its_admission() {
+        CachingTransformingMap<Integer, Integer, String, String> writingMap = createWritingOnDecode(2);
+
+        writingMap.get(1);
+
+        assertThat(writingMap.getCachedCount(), is(equalTo(1)));
+    }
+
+    @Test
+    public void writes_to_the_key_during_a_load_drop_its_admission() {
+        CachingTransformingMap<Integer, Integer, String, String> writingMap = createWritingOnDecode(1);
+
+        assertThat(writingMap.get(1), is(equalTo(10)));
+
+        assertThat(writingMap.getCachedCount(), is(equalTo(0)));
+        assertThat(writingMap.get(1), is(equalTo(7)));
+    }
+
+    @Test
+    public void cache_is_bounded() {
+        for (int i = 0; i < 1000; i++) {
+            map.get(i);
+        }
+
+        assertThat(map.getCachedCount(), is(lessThanOrEqualTo(100)));
+        assertThat(map.getEvictionCount(), is(equalTo(900L)));
+    }
+
+    @Test
+    public void hot_keys_survive_a_scan() {
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 50; i++) {
+                map.get(i);
+            }
+        }
+        for (int i = 100; i < 1000; i++) {
+            map.get(i);
+        }
+        long hits = map.getHitCount();
+
+        for (int i = 0; i < 50; i++) {
+            assertThat(map.get(i), is(equalTo(i * 10)));
+        }
+
+        assertThat(map.getHitCount() - hits, is(equalTo(50L)));
+    }
+
+    /**
+     * Creates a map which puts 7 for writtenKey through itself while it decodes the value of key 1, i.e. during the load.
+     */
+    private CachingTransformingMap<Integer, Integer, String, String> createWritingOnDecode(final int writtenKey) {
+        final AtomicReference<CachingTransformingMap<Integer, Integer, String, String>> created =
+                new AtomicReference<CachingTransformingMap<Integer, Integer, String, String>>();
+        created.set(CachingTransformingMap.create(
+                backingMap,
+                TO_FUNCTION, FROM_FUNCTION,
+                TO_FUNCTION, new Function<String, Integer>() {
+                    @Override
+                    public Integer apply(String input) {
+                        if (input.equals("10")) {
+                            created.get().put(writtenKey, 7);
+                        }
+                        return FROM_FUNCTION.apply(input);
+                    }
+                },
+                100
+        ));
+        return created.get();
+    }
+
+    private static final class CountingFunction<F, T> implements Function<F, T> {
+        private final Function<F, T> function;
+        private int calls;
+
+        private CountingFunction(Function<F, T> function) {
+            this.function = function;
+        }
+
+        @Override
+        public T apply(F input) {
+            calls++;
+            return function.apply(input);
+        }
+    }
+}
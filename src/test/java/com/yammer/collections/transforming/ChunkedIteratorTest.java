@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ChunkedIteratorTest {
+    private static final Function<Integer, String> TO_FUNCTION = new Function<Integer, String>() {
+        @Override
+        public String apply(Integer input) {
+            return input.toString();
+        }
+    };
+
+    private final ParseFunction fromFunction = new ParseFunction();
+
+    @Test
+    public void elements_are_transformed_in_chunks() {
+        Collection<Integer> collection = TransformingCollection.create(strings(150), TO_FUNCTION, fromFunction);
+
+        List<Integer> elements = Lists.newArrayList(collection.iterator());
+
+        assertThat(elements.size(), is(equalTo(150)));
+        assertThat(elements.get(149), is(equalTo(149)));
+        assertThat(fromFunction.batchSizes, contains(64, 64, 22));
+    }
+
+    @Test
+    public void chunks_have_the_batch_size_of_the_function() {
+        ParseFunction function = new ParseFunction(10);
+
+        Lists.newArrayList(TransformingCollection.create(strings(25), TO_FUNCTION, function).iterator());
+
+        assertThat(function.batchSizes, contains(10, 10, 5));
+    }
+
+    @Test
+    public void elements_are_transformed_in_chunks_after_remove() {
+        ParseFunction function = new ParseFunction(10);
+        List<String> backingList = strings(25);
+        Set<String> backingSet = Sets.newLinkedHashSet(strings(25));
+
+        removeFirst(TransformingCollection.create(backingList, TO_FUNCTION, function));
+        removeFirst(TransformingSet.create(backingSet, TO_FUNCTION, function));
+
+        assertThat(function.batchSizes, contains(10, 10, 5, 10, 10, 5));
+        assertThat(backingList.size(), is(equalTo(20)));
+        assertThat(backingSet.size(), is(equalTo(20)));
+    }
+
+    @Test
+    public void next_returns_the_element_remove_removes_when_the_backing_collection_changes() {
+        List<String> backingList = Lists.newArrayList("0", "1", "2", "3");
+        Iterator<Integer> iterator = TransformingCollection.create(backingList, TO_FUNCTION, fromFunction).iterator();
+        iterator.next();
+        // a concurrent change the chunk did not see, e.g. through a weakly consistent iterator
+        backingList.set(1, "5");
+
+        assertThat(iterator.next(), is(equalTo(5)));
+        iterator.remove();
+
+        assertThat(backingList, contains("0", "2", "3"));
+        assertThat(iterator.next(), is(equalTo(2)));
+        assertThat(iterator.next(), is(equalTo(3)));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void next_fails_after_last_element() {
+        Iterator<Integer> iterator = TransformingCollection.create(strings(1), TO_FUNCTION, fromFunction).iterator();
+        iterator.next();
+
+        iterator.next();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void remove_requires_next() {
+        TransformingCollection.create(strings(1), TO_FUNCTION, fromFunction).iterator().remove();
+    }
+
+    @Test
+    public void remove_inside_chunk_removes_that_element_of_list() {
+        List<String> backingList = Lists.newArrayList("1", "2", "1", "3");
+        Iterator<Integer> iterator = TransformingCollection.create(backingList, TO_FUNCTION, fromFunction).iterator();
+        iterator.next();
+        iterator.next();
+        iterator.next();
+
+        iterator.remove();
+
+        assertThat(backingList, contains("1", "2", "3"));
+        assertThat(iterator.next(), is(equalTo(3)));
+        assertThat(iterator.hasNext(), is(equalTo(false)));
+    }
+
+    @Test
+    public void iteration_continues_after_remove_inside_chunk_of_set() {
+        Set<String> backingSet = Sets.newLinkedHashSet(strings(100));
+        Iterator<Integer> iterator = TransformingCollection.create(backingSet, TO_FUNCTION, fromFunction).iterator();
+        List<Integer> returned = Lists.newArrayList();
+        while (iterator.hasNext()) {
+            Integer element = iterator.next();
+            returned.add(element);
+            if (element % 10 == 0) {
+                iterator.remove();
+            }
+        }
+
+        assertThat(returned.size(), is(equalTo(100)));
+        assertThat(backingSet.size(), is(equalTo(90)));
+        assertThat(backingSet.contains("10"), is(equalTo(false)));
+        assertThat(backingSet.contains("11"), is(equalTo(true)));
+    }
+
+    @Test
+    public void remove_inside_chunk_removes_that_duplicate_of_map_values() {
+        Map<String, String> backingMap = Maps.newLinkedHashMap();
+        backingMap.put("k1", "1");
+        backingMap.put("k2", "2");
+        backingMap.put("k3", "1");
+        backingMap.put("k4", "3");
+        Map<String, Integer> map = TransformingMap.create(
+                backingMap,
+                Functions.<String>identity(), Functions.<String>identity(),
+                TO_FUNCTION, fromFunction
+        );
+        Iterator<Integer> iterator = map.values().iterator();
+        iterator.next();
+        iterator.next();
+        iterator.next();
+
+        iterator.remove();
+
+        assertThat(backingMap.keySet(), contains("k1", "k2", "k4"));
+        assertThat(iterator.next(), is(equalTo(3)));
+        assertThat(iterator.hasNext(), is(equalTo(false)));
+    }
+
+    @Test
+    public void remove_inside_chunk_removes_that_element_of_priority_queue() {
+        PriorityQueue<String> backingQueue = new PriorityQueue<>(strings(10));
+        Iterator<Integer> iterator = TransformingCollection.create(backingQueue, TO_FUNCTION, fromFunction).iterator();
+        List<Integer> returned = Lists.newArrayList();
+        while (iterator.hasNext()) {
+            Integer element = iterator.next();
+            returned.add(element);
+            if (element == 0 || element == 5) {
+                iterator.remove();
+            }
+        }
+
+        assertThat(returned, containsInAnyOrder(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+        assertThat(backingQueue, containsInAnyOrder("1", "2", "3", "4", "6", "7", "8", "9"));
+    }
+
+    @Test
+    public void all_elements_can_be_removed() {
+        List<String> backingList = strings(200);
+        Set<String> backingSet = Sets.newHashSet(strings(200));
+
+        removeAll(TransformingCollection.create(backingList, TO_FUNCTION, fromFunction));
+        removeAll(TransformingSet.create(backingSet, TO_FUNCTION, fromFunction));
+
+        assertThat(backingList.isEmpty(), is(equalTo(true)));
+        assertThat(backingSet.isEmpty(), is(equalTo(true)));
+    }
+
+    @Test
+    public void fused_views_transform_in_chunks() {
+        Function<Integer, Long> toLong = new Function<Integer, Long>() {
+            @Override
+            public Long apply(Integer input) {
+                return input.longValue();
+            }
+        };
+        Function<Long, Integer> toInteger = new Function<Long, Integer>() {
+            @Override
+            public Integer apply(Long input) {
+                return input.intValue();
+            }
+        };
+        Collection<Integer> inner = TransformingCollection.create(strings(3), TO_FUNCTION, fromFunction);
+
+        Collection<Long> fused = TransformingCollection.create(inner, toInteger, toLong);
+
+        assertThat(fused, containsInAnyOrder(0L, 1L, 2L));
+        assertThat(fromFunction.batchSizes, contains(3));
+    }
+
+    // removes the first 5 elements, and iterates over the rest
+    private static void removeFirst(Collection<Integer> collection) {
+        Iterator<Integer> iterator = collection.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() < 5) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void removeAll(Collection<Integer> collection) {
+        Iterator<Integer> iterator = collection.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static List<String> strings(int count) {
+        List<String> strings = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            strings.add(Integer.toString(i));
+        }
+        return strings;
+    }
+
+    private static final class ParseFunction implements BatchFunction<String, Integer> {
+        private final int batchSize;
+        private final List<Integer> batchSizes = Lists.newArrayList();
+
+        private ParseFunction() {
+            this(64);
+        }
+
+        private ParseFunction(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        public Integer apply(String input) {
+            return Integer.valueOf(input);
+        }
+
+        @Override
+        public List<Integer> applyAll(List<String> inputs) {
+            batchSizes.add(inputs.size());
+            List<Integer> results = Lists.newArrayListWithCapacity(inputs.size());
+            for (String input : inputs) {
+                results.add(apply(input));
+            }
+            return results;
+        }
+    }
+}
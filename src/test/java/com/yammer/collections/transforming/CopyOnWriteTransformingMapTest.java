@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class CopyOnWriteTransformingMapTest {
+    private static final Function<Integer, String> TO_FUNCTION = new Function<Integer, String>() {
+        @Override
+        public String apply(Integer input) {
+            return input.toString();
+        }
+    };
+    private static final Function<String, Integer> FROM_FUNCTION = new Function<String, Integer>() {
+        @Override
+        public Integer apply(String input) {
+            return Integer.valueOf(input);
+        }
+    };
+
+    private CopyOnWriteTransformingMap<Integer, Integer, String, String> map;
+
+    @Before
+    public void setUp() {
+        map = CopyOnWriteTransformingMap.create(
+                ImmutableMap.of("1", "11", "2", "22"),
+                TO_FUNCTION, FROM_FUNCTION,
+                TO_FUNCTION, FROM_FUNCTION
+        );
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void backing_map_cannot_be_null() {
+        CopyOnWriteTransformingMap.create(null, TO_FUNCTION, FROM_FUNCTION, TO_FUNCTION, FROM_FUNCTION);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void functions_cannot_be_null() {
+        CopyOnWriteTransformingMap.create(ImmutableMap.<String, String>of(), TO_FUNCTION, null, TO_FUNCTION, FROM_FUNCTION);
+    }
+
+    @Test
+    public void backing_entries_are_decoded_on_creation() {
+        assertThat(map, is(equalTo((Map<Integer, Integer>) ImmutableMap.of(1, 11, 2, 22))));
+        assertThat(map.get(2), is(equalTo(22)));
+        assertThat(map.containsKey(1), is(equalTo(true)));
+        assertThat(map.containsValue(11), is(equalTo(true)));
+    }
+
+    @Test
+    public void reads_do_not_transform() {
+        CountingFunction<String, Integer> fromFunction = new CountingFunction<String, Integer>(FROM_FUNCTION);
+        map = CopyOnWriteTransformingMap.create(
+                ImmutableMap.of("1", "11"),
+                TO_FUNCTION, fromFunction,
+                TO_FUNCTION, fromFunction
+        );
+        int calls = fromFunction.calls;
+
+        map.get(1);
+        map.containsKey(1);
+        for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            entry.getValue();
+        }
+
+        assertThat(fromFunction.calls, is(equalTo(calls)));
+    }
+
+    @Test
+    public void put_updates_map_and_backing_snapshot() {
+        assertThat(map.put(1, 12), is(equalTo(11)));
+        assertThat(map.put(3, 33), is(nullValue()));
+
+        assertThat(map, is(equalTo((Map<Integer, Integer>) ImmutableMap.of(1, 12, 2, 22, 3, 33))));
+        assertThat(map.getBackingSnapshot(), is(equalTo(ImmutableMap.of("1", "12", "2", "22", "3", "33"))));
+    }
+
+    @Test
+    public void remove_updates_map_and_backing_snapshot() {
+        assertThat(map.remove(1), is(equalTo(11)));
+        assertThat(map.remove(3), is(nullValue()));
+        assertThat(map.remove("not a key"), is(nullValue()));
+
+        assertThat(map, is(equalTo((Map<Integer, Integer>) ImmutableMap.of(2, 22))));
+        assertThat(map.getBackingSnapshot(), is(equalTo(ImmutableMap.of("2", "22"))));
+    }
+
+    @Test
+    public void batch_is_applied_on_commit() {
+        CopyOnWriteTransformingMap<Integer, Integer, String, String>.Batch batch = map.batch()
+                .put(3, 33)
+                .remove(1)
+                .put(4, 44)
+                .remove(4);
+
+        assertThat(map.size(), is(equalTo(2)));
+        batch.commit();
+
+        assertThat(map, is(equalTo((Map<Integer, Integer>) ImmutableMap.of(2, 22, 3, 33))));
+        assertThat(map.getBackingSnapshot(), is(equalTo(ImmutableMap.of("2", "22", "3", "33"))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void batch_can_be_committed_once() {
+        CopyOnWriteTransformingMap<Integer, Integer, String, String>.Batch batch = map.batch().put(3, 33);
+        batch.commit();
+        batch.commit();
+    }
+
+    @Test
+    public void iterators_work_on_the_state_at_creation() {
+        Iterator<Integer> iterator = map.keySet().iterator();
+        map.put(3, 33);
+
+        int iterated = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterated++;
+        }
+
+        assertThat(iterated, is(equalTo(2)));
+    }
+
+    @Test
+    public void iterator_remove_writes_through() {
+        Iterator<Integer> iterator = map.keySet().iterator();
+        Integer removed = iterator.next();
+        iterator.remove();
+
+        assertThat(map.containsKey(removed), is(equalTo(false)));
+        assertThat(map.getBackingSnapshot().size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void clear_empties_map_and_backing_snapshot() {
+        map.clear();
+
+        assertThat(map.isEmpty(), is(equalTo(true)));
+        assertThat(map.getBackingSnapshot().isEmpty(), is(equalTo(true)));
+    }
+
+    @Test
+    public void snapshot_returns_current_state() {
+        assertThat(TransformingViews.snapshot(map), is(sameInstance(map.getSnapshot())));
+    }
+
+    private static final class CountingFunction<F, T> implements Function<F, T> {
+        private final Function<F, T> function;
+        private int calls;
+
+        private CountingFunction(Function<F, T> function) {
+            this.function = function;
+        }
+
+        @Override
+        public T apply(F input) {
+            calls++;
+            return function.apply(input);
+        }
+    }
+}
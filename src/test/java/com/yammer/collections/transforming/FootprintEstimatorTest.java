@@ -0,0 +1,317 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import com.yammer.collections.backing.IntIndexedTable;
+import com.yammer.collections.backing.LogStructuredMap;
+import com.yammer.collections.backing.ReadWriteLockedMap;
+import com.yammer.collections.backing.ReadWriteLockedTable;
+import com.yammer.collections.backing.ShardedMap;
+import com.yammer.collections.backing.ValueIndexedMap;
+import com.yammer.collections.backing.ValueIndexedTable;
+import com.yammer.collections.backing.WriteBehindMap;
+import com.yammer.collections.codec.KeyDictionary;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class FootprintEstimatorTest {
+    private static final Function<Integer, String> TO_FUNCTION = new Function<Integer, String>() {
+        @Override
+        public String apply(Integer input) {
+            return input.toString();
+        }
+    };
+    private static final Function<String, Integer> FROM_FUNCTION = new Function<String, Integer>() {
+        @Override
+        public Integer apply(String input) {
+            return Integer.valueOf(input);
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final FootprintEstimator estimator = FootprintEstimator.create();
+
+    @Test
+    public void estimates_hash_map() {
+        Map<String, Long> map = Maps.newHashMap();
+        map.put("ab", 1L);
+
+        Footprint footprint = estimator.estimate(map);
+
+        assertThat(footprint.getEntries(), is(equalTo(1)));
+        // a string with its char array, and a boxed long
+        assertThat(footprint.getKeyBytes(), is(equalTo(48L)));
+        assertThat(footprint.getValueBytes(), is(equalTo(24L)));
+        // the map, a node and a table of two buckets
+        assertThat(footprint.getStructureBytes(), is(equalTo(104L)));
+        assertThat(footprint.getTotalBytes(), is(equalTo(176L)));
+        assertThat(footprint.getBytesPerEntry(), is(equalTo(176.0)));
+    }
+
+    @Test
+    public void empty_map_has_no_bytes_per_entry() {
+        assertThat(estimator.estimate(Maps.newHashMap()).getBytesPerEntry(), is(equalTo(0.0)));
+    }
+
+    @Test
+    public void shared_objects_are_counted_once() {
+        String value = "val";
+        Map<String, String> map = Maps.newHashMap();
+        map.put("a", value);
+        map.put("b", value);
+
+        assertThat(estimator.estimate(map).getValueBytes(), is(equalTo(48L)));
+    }
+
+    @Test
+    public void strings_outside_of_latin1_take_two_bytes_per_char() {
+        Map<String, String> map = Maps.newHashMap();
+        map.put("a", "\u03b1\u03b2\u03b3\u03b4\u03b5");
+
+        assertThat(estimator.estimate(map).getValueBytes(), is(equalTo(56L)));
+    }
+
+    @Test
+    public void enum_values_are_free() {
+        Map<String, TimeUnit> map = Maps.newHashMap();
+        map.put("a", TimeUnit.DAYS);
+
+        assertThat(estimator.estimate(map).getValueBytes(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void transforming_map_is_estimated_by_its_backing_map() {
+        Map<String, String> backingMap = Maps.newHashMap();
+        Map<Integer, Integer> map = TransformingMap.create(
+                backingMap,
+                TO_FUNCTION, FROM_FUNCTION,
+                TO_FUNCTION, FROM_FUNCTION
+        );
+        map.put(1, 2);
+
+        Footprint footprint = estimator.estimate(map);
+
+        assertThat(footprint.getKeyBytes(), is(equalTo(48L)));
+        assertThat(footprint.getValueBytes(), is(equalTo(48L)));
+        assertThat(footprint.getStructureBytes(), is(equalTo(estimator.estimate(backingMap).getStructureBytes())));
+    }
+
+    @Test
+    public void copy_on_write_map_counts_decoded_entries_too() {
+        Map<String, String> backingMap = Maps.newHashMap();
+        backingMap.put("1", "2");
+        CopyOnWriteTransformingMap<Integer, Integer, String, String> map = CopyOnWriteTransformingMap.create(
+                backingMap,
+                TO_FUNCTION, FROM_FUNCTION,
+                TO_FUNCTION, FROM_FUNCTION
+        );
+
+        Footprint footprint = estimator.estimate(map);
+
+        // the encoded strings and the decoded integers
+        assertThat(footprint.getKeyBytes(), is(equalTo(48L + 16L)));
+        assertThat(footprint.getEntries(), is(equalTo(1)));
+    }
+
+    @Test
+    public void locked_map_is_estimated_by_its_delegate() {
+        Map<String, String> delegate = sampleMap(10);
+
+        Footprint locked = estimator.estimate(ReadWriteLockedMap.create(delegate));
+        Footprint unlocked = estimator.estimate(delegate);
+
+        assertThat(locked.getEntries(), is(equalTo(10)));
+        assertThat(locked.getKeyBytes(), is(equalTo(unlocked.getKeyBytes())));
+        assertThat(locked.getStructureBytes(), is(greaterThan(unlocked.getStructureBytes())));
+    }
+
+    @Test
+    public void write_behind_map_is_estimated_by_its_backing_map() {
+        Map<String, String> backingMap = sampleMap(10);
+        WriteBehindMap<String, String> map = WriteBehindMap.create(backingMap, 100, 1, TimeUnit.HOURS);
+        try {
+            Footprint footprint = estimator.estimate(map);
+
+            assertThat(footprint.getEntries(), is(equalTo(10)));
+            assertThat(footprint.getValueBytes(), is(equalTo(estimator.estimate(backingMap).getValueBytes())));
+        } finally {
+            map.close();
+        }
+    }
+
+    @Test
+    public void sharded_map_is_estimated_by_its_shards() {
+        Map<String, String> map = ShardedMap.create(4);
+        map.putAll(sampleMap(100));
+
+        Footprint sharded = estimator.estimate(map);
+        Footprint unsharded = estimator.estimate(sampleMap(100));
+
+        assertThat(sharded.getEntries(), is(equalTo(100)));
+        assertThat(sharded.getKeyBytes(), is(equalTo(unsharded.getKeyBytes())));
+        assertThat(sharded.getStructureBytes(), is(greaterThan(unsharded.getStructureBytes())));
+    }
+
+    @Test
+    public void value_indexed_map_counts_its_index() {
+        Map<String, String> delegate = sampleMap(10);
+
+        Footprint indexed = estimator.estimate(ValueIndexedMap.create(delegate));
+        Footprint unindexed = estimator.estimate(delegate);
+
+        assertThat(indexed.getEntries(), is(equalTo(10)));
+        assertThat(indexed.getStructureBytes(), is(greaterThan(unindexed.getStructureBytes())));
+    }
+
+    @Test
+    public void log_structured_map_counts_keys_but_not_values() throws IOException {
+        LogStructuredMap map = LogStructuredMap.open(folder.newFile("map.log"));
+        try {
+            map.put(new byte[8], new byte[1000]);
+
+            Footprint footprint = estimator.estimate(map);
+
+            assertThat(footprint.getEntries(), is(equalTo(1)));
+            assertThat(footprint.getKeyBytes(), is(equalTo(24L)));
+            assertThat(footprint.getValueBytes(), is(equalTo(0L)));
+        } finally {
+            map.close();
+        }
+    }
+
+    @Test
+    public void size_estimators_are_pluggable() {
+        Map<String, Object> map = Maps.newHashMap();
+        map.put("a", new StringBuilder());
+
+        FootprintEstimator customEstimator = estimator.withSizeEstimator(
+                StringBuilder.class,
+                new FootprintEstimator.SizeEstimator<StringBuilder>() {
+                    @Override
+                    public long bytesOf(StringBuilder object) {
+                        return 100;
+                    }
+                }
+        );
+
+        assertThat(estimator.estimate(map).getValueBytes(), is(equalTo(16L)));
+        assertThat(customEstimator.estimate(map).getValueBytes(), is(equalTo(100L)));
+    }
+
+    @Test
+    public void structure_estimators_are_pluggable() {
+        FootprintEstimator customEstimator = estimator.withStructureEstimator(
+                CustomMap.class,
+                new FootprintEstimator.SizeEstimator<CustomMap>() {
+                    @Override
+                    public long bytesOf(CustomMap object) {
+                        return 7L * object.size();
+                    }
+                }
+        );
+        CustomMap map = new CustomMap();
+        map.put("a", "b");
+
+        assertThat(customEstimator.estimate(map).getStructureBytes(), is(equalTo(7L)));
+    }
+
+    @Test
+    public void table_row_keys_are_counted_once() {
+        Table<String, String, Integer> table = HashBasedTable.create();
+        table.put("row", "a", 1);
+        table.put("row", "b", 2);
+
+        Footprint footprint = estimator.estimate(table);
+
+        assertThat(footprint.getEntries(), is(equalTo(2)));
+        assertThat(footprint.getKeyBytes(), is(equalTo(3 * 48L)));
+        assertThat(footprint.getValueBytes(), is(equalTo(2 * 16L)));
+    }
+
+    @Test
+    public void hash_based_table_rows_are_hash_maps() {
+        Table<String, String, Integer> table = HashBasedTable.create();
+        table.put("row", "column", 1);
+
+        // the table, the row map with a node and a table of two buckets, and the same for the row
+        assertThat(estimator.estimate(table).getStructureBytes(), is(equalTo(20L + 2 * 104L)));
+    }
+
+    @Test
+    public void locked_value_indexed_table_is_estimated_by_its_delegate() {
+        Table<String, String, Integer> delegate = HashBasedTable.create();
+        delegate.put("row", "a", 1);
+        delegate.put("row", "b", 1);
+
+        Footprint wrapped = estimator.estimate(ReadWriteLockedTable.create(ValueIndexedTable.create(delegate)));
+        Footprint unwrapped = estimator.estimate(delegate);
+
+        assertThat(wrapped.getEntries(), is(equalTo(2)));
+        assertThat(wrapped.getKeyBytes(), is(equalTo(unwrapped.getKeyBytes())));
+        assertThat(wrapped.getStructureBytes(), is(greaterThan(unwrapped.getStructureBytes())));
+    }
+
+    @Test
+    public void int_indexed_table_is_smaller_than_hash_based_table() {
+        Table<Integer, Integer, String> hashBasedTable = HashBasedTable.create();
+        for (int i = 0; i < 1000; i++) {
+            hashBasedTable.put(i % 10, i, "v");
+        }
+        Table<String, String, String> dictionaryEncodedTable = TransformingTable.createDictionaryEncoded(
+                IntIndexedTable.create(hashBasedTable),
+                KeyDictionary.<String>create(), KeyDictionary.<String>create(),
+                Functions.<String>identity(), Functions.<String>identity()
+        );
+
+        Footprint hashBased = estimator.estimate(hashBasedTable);
+        Footprint intIndexed = estimator.estimate(dictionaryEncodedTable);
+
+        assertThat(intIndexed.getEntries(), is(equalTo(1000)));
+        assertThat(intIndexed.getKeyBytes(), is(equalTo(0L)));
+        assertThat(intIndexed.getStructureBytes(), is(lessThan(hashBased.getStructureBytes())));
+    }
+
+    private static Map<String, String> sampleMap(int size) {
+        Map<String, String> map = Maps.newHashMap();
+        for (int i = 0; i < size; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        return map;
+    }
+
+    private static final class CustomMap extends HashMap<String, String> {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class FrequencySketchTest {
+    private final FrequencySketch sketch = new FrequencySketch(1000);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacity_has_to_be_positive() {
+        new FrequencySketch(0);
+    }
+
+    @Test
+    public void counts_occurrences() {
+        sketch.increment("a");
+        sketch.increment("a");
+        sketch.increment("b");
+
+        assertThat(sketch.frequency("a"), is(equalTo(2)));
+        assertThat(sketch.frequency("b"), is(equalTo(1)));
+        assertThat(sketch.frequency("c"), is(equalTo(0)));
+    }
+
+    @Test
+    public void counts_saturate() {
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("a");
+        }
+
+        assertThat(sketch.frequency("a"), is(equalTo(15)));
+    }
+
+    @Test
+    public void counts_are_halved_after_sample() {
+        for (int i = 0; i < 8; i++) {
+            sketch.increment("a");
+        }
+        // the sample of a sketch for 1000 keys is 10000 occurrences
+        for (int i = 0; i < 9992; i++) {
+            sketch.increment(i);
+        }
+
+        // other keys may share counters with "a", so the estimate may be higher
+        assertThat(sketch.frequency("a"), is(allOf(greaterThanOrEqualTo(4), lessThan(8))));
+    }
+
+    @Test
+    public void clear_resets_counts() {
+        sketch.increment("a");
+
+        sketch.clear();
+
+        assertThat(sketch.frequency("a"), is(equalTo(0)));
+    }
+}
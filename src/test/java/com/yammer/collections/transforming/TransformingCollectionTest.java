@@ -16,8 +16,10 @@
 package com.yammer.collections.transforming;
 
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -27,12 +29,17 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsSame.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.verify;
@@ -223,5 +230,135 @@ public class TransformingCollectionTest {
         assertThat(transformingCollection.equals(ImmutableSet.of(F_VALUE_1, F_VALUE_2, F_VALUE_OTHER)), is(equalTo(false)));
     }
 
+    @Test
+    public void create_with_identity_functions_returns_backing_collection() {
+        assertThat(
+                TransformingCollection.create(backingCollectionMock, Functions.<String>identity(), Functions.<String>identity()),
+                is(sameInstance(backingCollectionMock))
+        );
+    }
+
+    @Test
+    public void create_over_transforming_collection_fuses_layers() {
+        Function<Long, Integer> longToInteger = new Function<Long, Integer>() {
+            @Override
+            public Integer apply(Long input) {
+                return input.intValue();
+            }
+        };
+        Function<Integer, Long> integerToLong = new Function<Integer, Long>() {
+            @Override
+            public Long apply(Integer input) {
+                return input.longValue();
+            }
+        };
+        when(backingCollectionMock.contains(T_VALUE_1)).thenReturn(true);
+
+        Collection<Long> fused = TransformingCollection.create(transformingCollection, longToInteger, integerToLong);
+
+        assertThat(((TransformingCollection<Long, ?>) fused).getBackingCollection(), is(sameInstance((Object) backingCollectionMock)));
+        assertThat(fused.contains(F_VALUE_1.longValue()), is(equalTo(true)));
+    }
+
+    @Test
+    public void toArray_transforms_backing_array() {
+        when(backingCollectionMock.toArray()).thenReturn(new Object[]{T_VALUE_1, T_VALUE_2});
+
+        assertThat(transformingCollection.toArray(), is(equalTo(new Object[]{F_VALUE_1, F_VALUE_2})));
+    }
+
+    @Test
+    public void toArray_stores_other_types_than_the_backing_array_holds() {
+        // Arrays.asList(String[]).toArray() returns a String[] up to Java 8
+        TransformingCollection<Integer, String> collection = (TransformingCollection<Integer, String>)
+                TransformingCollection.create(asList(T_VALUE_1, T_VALUE_2), TO_FUNCTION, FROM_FUNCTION);
+
+        assertThat(collection.toArray(), is(equalTo(new Object[]{F_VALUE_1, F_VALUE_2})));
+        assertThat(collection.toTransformedArray(), is(equalTo(new Object[]{F_VALUE_1, F_VALUE_2})));
+    }
+
+    @Test
+    public void toArray_fills_large_enough_array() {
+        when(backingCollectionMock.toArray()).thenReturn(new Object[]{T_VALUE_1});
+        Integer[] array = {0, 0, 0};
+
+        Integer[] result = transformingCollection.toArray(array);
+
+        assertThat(result, is(sameInstance(array)));
+        assertThat(result, is(equalTo(new Integer[]{F_VALUE_1, null, 0})));
+    }
+
+    @Test
+    public void toArray_allocates_exactly_sized_array() {
+        when(backingCollectionMock.toArray()).thenReturn(new Object[]{T_VALUE_1, T_VALUE_2});
+
+        Integer[] result = transformingCollection.toArray(new Integer[0]);
+
+        assertThat(result, is(equalTo(new Integer[]{F_VALUE_1, F_VALUE_2})));
+    }
+
+    @Test
+    public void toArray_transforms_large_collections_in_slices() {
+        List<String> backingList = Lists.newArrayList();
+        for (int i = 0; i < 50000; i++) {
+            backingList.add(Integer.toString(i));
+        }
+
+        Integer[] result = TransformingCollection.create(backingList, TO_FUNCTION, FROM_FUNCTION).toArray(new Integer[0]);
+
+        assertThat(result.length, is(equalTo(50000)));
+        assertThat(result[0], is(equalTo(0)));
+        assertThat(result[49999], is(equalTo(49999)));
+    }
+
+    @Test
+    public void toArray_applies_batch_function_on_calling_thread() {
+        List<String> backingList = Lists.newArrayList();
+        for (int i = 0; i < 50000; i++) {
+            backingList.add(Integer.toString(i));
+        }
+        RecordingBatchFunction fromFunction = new RecordingBatchFunction();
+
+        Object[] result = TransformingCollection.create(backingList, TO_FUNCTION, fromFunction).toArray();
+
+        assertThat(result.length, is(equalTo(50000)));
+        assertThat(fromFunction.threads, contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void toArray_maps_null_backing_elements_to_null_without_batch_function() {
+        RecordingBatchFunction fromFunction = new RecordingBatchFunction();
+
+        Integer[] result = TransformingCollection.create(asList("1", null, "2"), TO_FUNCTION, fromFunction)
+                .toArray(new Integer[0]);
 
+        assertThat(result, is(equalTo(new Integer[]{1, null, 2})));
+        assertThat(fromFunction.sawNull, is(equalTo(false)));
+    }
+
+    private static final class RecordingBatchFunction implements BatchFunction<String, Integer> {
+        private final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        private volatile boolean sawNull;
+
+        @Override
+        public int getBatchSize() {
+            return 64;
+        }
+
+        @Override
+        public Integer apply(String input) {
+            return Integer.valueOf(input);
+        }
+
+        @Override
+        public List<Integer> applyAll(List<String> inputs) {
+            threads.add(Thread.currentThread());
+            List<Integer> results = Lists.newArrayListWithCapacity(inputs.size());
+            for (String input : inputs) {
+                sawNull |= input == null;
+                results.add(input == null ? null : apply(input));
+            }
+            return results;
+        }
+    }
 }
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class TransformingFunctionsTest {
+    private static final Function<Integer, String> TO_FUNCTION = new Function<Integer, String>() {
+        @Override
+        public String apply(Integer input) {
+            return input.toString();
+        }
+    };
+    private static final Function<String, String> COPYING_FUNCTION = new Function<String, String>() {
+        @Override
+        public String apply(String input) {
+            return new String(input);
+        }
+    };
+    private static final Function<String, Integer> FROM_FUNCTION = new Function<String, Integer>() {
+        @Override
+        public Integer apply(String input) {
+            return new Integer(input);
+        }
+    };
+
+    @Test(expected = NullPointerException.class)
+    public void fromFunction_cannot_be_null() {
+        TransformingFunctions.interning(null);
+    }
+
+    @Test
+    public void interning_returns_equal_result() {
+        assertThat(TransformingFunctions.interning(COPYING_FUNCTION).apply("key"), is(equalTo("key")));
+    }
+
+    @Test
+    public void interning_returns_same_instance_for_equal_results() {
+        Function<String, String> interning = TransformingFunctions.interning(COPYING_FUNCTION);
+
+        assertThat(interning.apply("key"), is(sameInstance(interning.apply("key"))));
+    }
+
+    @Test
+    public void interner_can_be_shared() {
+        Interner<String> interner = Interners.newWeakInterner();
+        Function<String, String> interning1 = TransformingFunctions.interning(COPYING_FUNCTION, interner);
+        Function<String, String> interning2 = TransformingFunctions.interning(COPYING_FUNCTION, interner);
+
+        assertThat(interning1.apply("key"), is(sameInstance(interning2.apply("key"))));
+    }
+
+    @Test
+    public void keySet_passes_share_key_instances() {
+        Map<String, String> backingMap = Maps.newHashMap(ImmutableMap.of("1000", "1"));
+        Map<Integer, Integer> transformingMap = TransformingMap.create(
+                backingMap,
+                TO_FUNCTION, TransformingFunctions.interning(FROM_FUNCTION),
+                TO_FUNCTION, FROM_FUNCTION
+        );
+
+        assertThat(
+                Iterables.getOnlyElement(transformingMap.keySet()),
+                is(sameInstance(Iterables.getOnlyElement(transformingMap.keySet())))
+        );
+    }
+}
@@ -16,9 +16,14 @@
 package com.yammer.collections.transforming;
 
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.yammer.collections.backing.ProbeableHashMap;
+import com.yammer.collections.codec.Codecs;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -33,8 +38,10 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsSame.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 @SuppressWarnings({"ClassWithTooManyMethods", "InstanceVariableMayNotBeInitialized", "SuspiciousMethodCalls", "ConstantConditions"})
@@ -240,6 +247,19 @@ public class TransformingMapTest {
         assertThat(transfromingMap.put(F_KEY_1, F_VALUE_1), is(nullValue()));
     }
 
+    @Test
+    public void putAll_delegates_encoded_entries_in_one_call() {
+        transfromingMap.putAll(ImmutableMap.of(F_KEY_1, F_VALUE_1, F_KEY_2, F_VALUE_2));
+
+        verify(backingMapMock).putAll(ImmutableMap.of(T_KEY_1, T_VALUE_1, T_KEY_2, T_VALUE_2));
+        verifyNoMoreInteractions(backingMapMock);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void putAll_null_not_allowed() {
+        transfromingMap.putAll(Collections.singletonMap(F_KEY_1, (Float) null));
+    }
+
     @Test
     public void remove_delegates() {
         when(backingMapMock.remove(T_KEY_1)).thenReturn(T_VALUE_1);
@@ -390,6 +410,192 @@ public class TransformingMapTest {
         transformingEntry.setValue(null);
     }
 
+    @Test
+    public void getKey_on_memoizing_entry_transforms_once() {
+        CountingFunction<String, Integer> fromKeyFunction = new CountingFunction<String, Integer>(FROM_KEY_FUNCTION);
+        when(backingEntryMock.getKey()).thenReturn(T_KEY_1);
+        when(backingMapMock.entrySet()).thenReturn(Collections.singleton(backingEntryMock));
+        transfromingMap = TransformingMap.createWithMemoizingEntries(
+                backingMapMock, TO_KEY_FUNCTION, fromKeyFunction, TO_VALUE_FUNCTION, FROM_VALUE_FUNCTION
+        );
+
+        Map.Entry<Integer, Float> transformingEntry = Iterables.getFirst(transfromingMap.entrySet(), null);
+        transformingEntry.getKey();
+        transformingEntry.getKey();
+
+        assertThat(transformingEntry.getKey(), is(equalTo(F_KEY_1)));
+        assertThat(fromKeyFunction.invocations, is(equalTo(1)));
+    }
+
+    @Test
+    public void getValue_on_memoizing_entry_transforms_once_per_backing_value() {
+        CountingFunction<String, Float> fromValueFunction = new CountingFunction<String, Float>(FROM_VALUE_FUNCTION);
+        when(backingEntryMock.getValue()).thenReturn(T_VALUE_1);
+        when(backingMapMock.entrySet()).thenReturn(Collections.singleton(backingEntryMock));
+        transfromingMap = TransformingMap.createWithMemoizingEntries(
+                backingMapMock, TO_KEY_FUNCTION, FROM_KEY_FUNCTION, TO_VALUE_FUNCTION, fromValueFunction
+        );
+
+        Map.Entry<Integer, Float> transformingEntry = Iterables.getFirst(transfromingMap.entrySet(), null);
+        transformingEntry.getValue();
+
+        assertThat(transformingEntry.getValue(), is(equalTo(F_VALUE_1)));
+        assertThat(fromValueFunction.invocations, is(equalTo(1)));
+    }
+
+    @Test
+    public void entries_are_not_memoized_by_default() {
+        CountingFunction<String, Integer> fromKeyFunction = new CountingFunction<String, Integer>(FROM_KEY_FUNCTION);
+        when(backingEntryMock.getKey()).thenReturn(T_KEY_1);
+        when(backingMapMock.entrySet()).thenReturn(Collections.singleton(backingEntryMock));
+        transfromingMap = TransformingMap.create(
+                backingMapMock, TO_KEY_FUNCTION, fromKeyFunction, TO_VALUE_FUNCTION, FROM_VALUE_FUNCTION
+        );
+
+        Map.Entry<Integer, Float> transformingEntry = Iterables.getFirst(transfromingMap.entrySet(), null);
+        transformingEntry.getKey();
+
+        assertThat(transformingEntry.getKey(), is(equalTo(F_KEY_1)));
+        assertThat(fromKeyFunction.invocations, is(equalTo(2)));
+    }
+
+    @Test
+    public void fusing_keeps_memoizing_entries() {
+        CountingFunction<String, Integer> fromKeyFunction = new CountingFunction<String, Integer>(FROM_KEY_FUNCTION);
+        when(backingEntryMock.getKey()).thenReturn(T_KEY_1);
+        when(backingMapMock.entrySet()).thenReturn(Collections.singleton(backingEntryMock));
+        Map<Integer, Float> inner = TransformingMap.createWithMemoizingEntries(
+                backingMapMock, TO_KEY_FUNCTION, fromKeyFunction, TO_VALUE_FUNCTION, FROM_VALUE_FUNCTION
+        );
+        Function<Integer, Integer> sameKey = new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer input) {
+                return input;
+            }
+        };
+        Map<Integer, Float> fused = TransformingMap.create(
+                inner, sameKey, sameKey, Functions.<Float>identity(), Functions.<Float>identity()
+        );
+
+        Map.Entry<Integer, Float> transformingEntry = Iterables.getFirst(fused.entrySet(), null);
+        transformingEntry.getKey();
+        transformingEntry.getKey();
+
+        assertThat(((TransformingMap<?, ?, ?, ?>) fused).getBackingMap(), is(sameInstance((Object) backingMapMock)));
+        assertThat(fromKeyFunction.invocations, is(equalTo(1)));
+    }
+
+    @Test
+    public void getValue_on_entry_observes_backing_changes() {
+        when(backingEntryMock.getValue()).thenReturn(T_VALUE_1, T_VALUE_2);
+        when(backingMapMock.entrySet()).thenReturn(Collections.singleton(backingEntryMock));
+
+        Map.Entry<Integer, Float> transformingEntry = Iterables.getFirst(transfromingMap.entrySet(), null);
+        transformingEntry.getValue();
+
+        assertThat(transformingEntry.getValue(), is(equalTo(F_VALUE_2)));
+    }
+
+    @Test
+    public void getValue_on_memoizing_entry_returns_set_value() {
+        CountingFunction<String, Float> fromValueFunction = new CountingFunction<String, Float>(FROM_VALUE_FUNCTION);
+        Map<String, String> backingMap = Maps.newHashMap(ImmutableMap.of(T_KEY_1, T_VALUE_1));
+        transfromingMap = TransformingMap.createWithMemoizingEntries(
+                backingMap, TO_KEY_FUNCTION, FROM_KEY_FUNCTION, TO_VALUE_FUNCTION, fromValueFunction
+        );
+
+        Map.Entry<Integer, Float> transformingEntry = Iterables.getFirst(transfromingMap.entrySet(), null);
+        transformingEntry.getValue();
+        transformingEntry.setValue(F_VALUE_2);
+
+        assertThat(transformingEntry.getValue(), is(equalTo(F_VALUE_2)));
+        assertThat(backingMap.get(T_KEY_1), is(equalTo(T_VALUE_2)));
+        assertThat(fromValueFunction.invocations, is(equalTo(1)));
+    }
+
+    @Test
+    public void create_with_identity_functions_returns_backing_map() {
+        assertThat(
+                TransformingMap.create(
+                        backingMapMock,
+                        Functions.<String>identity(), Functions.<String>identity(),
+                        Functions.<String>identity(), Functions.<String>identity()
+                ),
+                is(sameInstance(backingMapMock))
+        );
+    }
+
+    @Test
+    public void create_over_transforming_map_fuses_layers() {
+        Function<Long, Integer> longToInteger = new Function<Long, Integer>() {
+            @Override
+            public Integer apply(Long input) {
+                return input.intValue();
+            }
+        };
+        Function<Integer, Long> integerToLong = new Function<Integer, Long>() {
+            @Override
+            public Long apply(Integer input) {
+                return input.longValue();
+            }
+        };
+        when(backingMapMock.get(T_KEY_1)).thenReturn(T_VALUE_1);
+
+        Map<Long, Float> fused = TransformingMap.create(
+                transfromingMap,
+                longToInteger, integerToLong,
+                Functions.<Float>identity(), Functions.<Float>identity()
+        );
+
+        assertThat(((TransformingMap<Long, Float, ?, ?>) fused).getBackingMap(), is(sameInstance((Object) backingMapMock)));
+        assertThat(fused.get(F_KEY_1.longValue()), is(equalTo(F_VALUE_1)));
+    }
+
+    @Test
+    public void views_are_created_once() {
+        assertThat(transfromingMap.keySet(), is(sameInstance(transfromingMap.keySet())));
+        assertThat(transfromingMap.values(), is(sameInstance(transfromingMap.values())));
+        assertThat(transfromingMap.entrySet(), is(sameInstance(transfromingMap.entrySet())));
+    }
+
+    @Test
+    public void lookup_view_probes_the_backing_map_with_the_untransformed_key() {
+        ProbeableHashMap<byte[], String> backingMap = ProbeableHashMap.create(Codecs.byteArrayEquivalence());
+        Function<String, byte[]> encode = Codecs.stringToUtf8();
+        Function<byte[], String> decode = Codecs.stringToUtf8().reverse();
+        Map<String, String> map = TransformingMap.createWithLookup(
+                backingMap, Codecs.utf8Lookup(),
+                encode, decode,
+                Functions.<String>identity(), Functions.<String>identity()
+        );
+
+        map.put("kéy", "value");
+
+        assertThat(map.get("kéy"), is(equalTo("value")));
+        assertThat(map.get("key"), is(nullValue()));
+        assertThat(map.get(1), is(nullValue()));
+        assertThat(map.containsKey("kéy"), is(equalTo(true)));
+        assertThat(map.containsKey(1), is(equalTo(false)));
+        assertThat(map.keySet().contains("kéy"), is(equalTo(true)));
+        assertThat(map.keySet().contains(1), is(equalTo(false)));
+        assertThat(map, is(equalTo((Map<String, String>) ImmutableMap.of("kéy", "value"))));
+    }
+
+    private static final class CountingFunction<F, T> implements Function<F, T> {
+        private final Function<F, T> delegate;
+        private int invocations;
+
+        private CountingFunction(Function<F, T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public T apply(F input) {
+            invocations++;
+            return delegate.apply(input);
+        }
+    }
+
     private static final class TestEntry<K, V> implements Map.Entry<K, V> {
         private final K key;
         private final V value;
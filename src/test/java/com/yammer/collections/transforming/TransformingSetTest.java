@@ -16,8 +16,11 @@
 package com.yammer.collections.transforming;
 
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.yammer.collections.backing.ProbeableHashSet;
+import com.yammer.collections.codec.Codecs;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -29,6 +32,7 @@ import java.util.Set;
 import static java.util.Arrays.asList;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsSame.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.when;
 
@@ -89,5 +93,49 @@ public class TransformingSetTest {
         assertThat(transformingSet.equals(ImmutableList.of(F_VALUE_1, F_VALUE_2)), is(equalTo(false)));
     }
 
+    @Test
+    public void create_with_identity_functions_returns_backing_set() {
+        assertThat(
+                TransformingSet.create(backingSetMock, Functions.<String>identity(), Functions.<String>identity()),
+                is(sameInstance(backingSetMock))
+        );
+    }
+
+    @Test
+    public void create_over_transforming_set_fuses_layers() {
+        Function<Long, Integer> longToInteger = new Function<Long, Integer>() {
+            @Override
+            public Integer apply(Long input) {
+                return input.intValue();
+            }
+        };
+        Function<Integer, Long> integerToLong = new Function<Integer, Long>() {
+            @Override
+            public Long apply(Integer input) {
+                return input.longValue();
+            }
+        };
+        when(backingSetMock.contains(T_VALUE_1)).thenReturn(true);
+
+        Set<Long> fused = TransformingSet.create(transformingSet, longToInteger, integerToLong);
 
+        assertThat(((TransformingSet<Long, ?>) fused).getBackingCollection(), is(sameInstance((Object) backingSetMock)));
+        assertThat(fused.contains(F_VALUE_1.longValue()), is(equalTo(true)));
+    }
+
+    @Test
+    public void lookup_view_probes_the_backing_set_with_the_untransformed_element() {
+        ProbeableHashSet<byte[]> backingSet = ProbeableHashSet.create(Codecs.byteArrayEquivalence());
+        Set<String> set = TransformingSet.createWithLookup(
+                backingSet, Codecs.utf8Lookup(),
+                Codecs.stringToUtf8(), Codecs.stringToUtf8().reverse()
+        );
+
+        set.add("element");
+
+        assertThat(set.contains("element"), is(equalTo(true)));
+        assertThat(set.contains("other"), is(equalTo(false)));
+        assertThat(set.contains(1), is(equalTo(false)));
+        assertThat(set, is(equalTo((Set<String>) ImmutableSet.of("element"))));
+    }
 }
@@ -16,11 +16,14 @@
 package com.yammer.collections.transforming;
 
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Table;
 import com.google.common.collect.Tables;
+import com.yammer.collections.codec.KeyDictionary;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -35,6 +38,7 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsSame.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -486,4 +490,153 @@ public class TransformingTableTest {
         transformingTable.column(null);
     }
 
+    @Test
+    public void create_with_identity_functions_returns_backing_table() {
+        assertThat(
+                TransformingTable.create(
+                        backingTableMock,
+                        Functions.<String>identity(), Functions.<String>identity(),
+                        Functions.<String>identity(), Functions.<String>identity(),
+                        Functions.<String>identity(), Functions.<String>identity()
+                ),
+                is(sameInstance(backingTableMock))
+        );
+    }
+
+    @Test
+    public void create_over_transforming_table_fuses_layers() {
+        Function<Double, Float> doubleToFloat = new Function<Double, Float>() {
+            @Override
+            public Float apply(Double input) {
+                return input.floatValue();
+            }
+        };
+        Function<Float, Double> floatToDouble = new Function<Float, Double>() {
+            @Override
+            public Double apply(Float input) {
+                return input.doubleValue();
+            }
+        };
+        when(backingTableMock.get(STRING_ROW_KEY_1, STRING_COLUMN_KEY_1)).thenReturn(STRING_VALUE_1);
+
+        Table<Double, Long, Integer> fused = TransformingTable.create(
+                transformingTable,
+                doubleToFloat, floatToDouble,
+                Functions.<Long>identity(), Functions.<Long>identity(),
+                Functions.<Integer>identity(), Functions.<Integer>identity()
+        );
+
+        assertThat(((TransformingTable<Double, Long, Integer, ?, ?, ?>) fused).getBackingTable(), is(sameInstance((Object) backingTableMock)));
+        assertThat(fused.get(ROW_KEY_1.doubleValue(), COLUMN_KEY_1), is(equalTo(VALUE_1)));
+    }
+
+    @Test
+    public void dictionary_encoded_table_stores_ids() {
+        KeyDictionary<String> rowDictionary = KeyDictionary.create();
+        KeyDictionary<String> columnDictionary = KeyDictionary.create();
+        Table<Integer, Integer, Integer> backingTable = HashBasedTable.create();
+        Table<String, String, Integer> table = TransformingTable.createDictionaryEncoded(
+                backingTable, rowDictionary, columnDictionary,
+                Functions.<Integer>identity(), Functions.<Integer>identity()
+        );
+
+        table.put(STRING_ROW_KEY_1, STRING_COLUMN_KEY_1, VALUE_1);
+        table.put(STRING_ROW_KEY_2, STRING_COLUMN_KEY_1, VALUE_2);
+
+        assertThat(backingTable.get(0, 0), is(equalTo(VALUE_1)));
+        assertThat(backingTable.get(1, 0), is(equalTo(VALUE_2)));
+        assertThat(table.get(STRING_ROW_KEY_2, STRING_COLUMN_KEY_1), is(equalTo(VALUE_2)));
+        assertThat(table.columnKeySet(), containsInAnyOrder(STRING_COLUMN_KEY_1));
+        assertThat(table.row(STRING_ROW_KEY_1), is(equalTo((Map<String, Integer>) ImmutableMap.of(STRING_COLUMN_KEY_1, VALUE_1))));
+    }
+
+    @Test
+    public void dictionary_encoded_table_queries_do_not_assign_ids() {
+        KeyDictionary<String> rowDictionary = KeyDictionary.create();
+        KeyDictionary<String> columnDictionary = KeyDictionary.create();
+        Table<String, String, Integer> table = TransformingTable.createDictionaryEncoded(
+                HashBasedTable.<Integer, Integer, Integer>create(), rowDictionary, columnDictionary,
+                Functions.<Integer>identity(), Functions.<Integer>identity()
+        );
+        table.put(STRING_ROW_KEY_1, STRING_COLUMN_KEY_1, VALUE_1);
+
+        assertThat(table.get(STRING_ROW_KEY_2, STRING_COLUMN_KEY_2), is(nullValue()));
+        assertThat(table.contains(STRING_ROW_KEY_1, STRING_COLUMN_KEY_2), is(equalTo(false)));
+        assertThat(table.containsRow(STRING_ROW_KEY_2), is(equalTo(false)));
+        assertThat(table.containsColumn(STRING_COLUMN_KEY_2), is(equalTo(false)));
+        assertThat(table.remove(STRING_ROW_KEY_2, STRING_COLUMN_KEY_1), is(nullValue()));
+        assertThat(rowDictionary.size(), is(equalTo(1)));
+        assertThat(columnDictionary.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void dictionary_encoded_table_can_be_fused() {
+        KeyDictionary<String> rowDictionary = KeyDictionary.create();
+        KeyDictionary<String> columnDictionary = KeyDictionary.create();
+        Table<String, String, Integer> table = TransformingTable.createDictionaryEncoded(
+                HashBasedTable.<Integer, Integer, Integer>create(), rowDictionary, columnDictionary,
+                Functions.<Integer>identity(), Functions.<Integer>identity()
+        );
+        Table<Float, Long, Integer> fused = TransformingTable.create(
+                table,
+                TO_ROW_FUNCTION, FROM_ROW_FUNCTION,
+                TO_COLUMN_FUNCTION, FROM_COLUMN_FUNCTION,
+                Functions.<Integer>identity(), Functions.<Integer>identity()
+        );
+
+        fused.put(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+
+        assertThat(fused.get(ROW_KEY_1, COLUMN_KEY_1), is(equalTo(VALUE_1)));
+        assertThat(fused.get(ROW_KEY_2, COLUMN_KEY_1), is(nullValue()));
+        assertThat(rowDictionary.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void column_indexed_table_reads_and_writes_columns() {
+        Table<String, String, Integer> table = TransformingTable.createColumnIndexed(
+                Functions.<String>identity(), Functions.<String>identity(),
+                Functions.<String>identity(), Functions.<String>identity(),
+                Functions.<Integer>identity(), Functions.<Integer>identity()
+        );
+        table.put(STRING_ROW_KEY_1, STRING_COLUMN_KEY_1, VALUE_1);
+        table.put(STRING_ROW_KEY_2, STRING_COLUMN_KEY_1, VALUE_2);
+
+        table.column(STRING_COLUMN_KEY_1).remove(STRING_ROW_KEY_1);
+
+        assertThat(table.column(STRING_COLUMN_KEY_1), is(equalTo((Map<String, Integer>) ImmutableMap.of(STRING_ROW_KEY_2, VALUE_2))));
+        assertThat(table.containsRow(STRING_ROW_KEY_1), is(equalTo(false)));
+        assertThat(table.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void views_are_created_once() {
+        assertThat(transformingTable.cellSet(), is(sameInstance(transformingTable.cellSet())));
+        assertThat(transformingTable.rowKeySet(), is(sameInstance(transformingTable.rowKeySet())));
+        assertThat(transformingTable.columnKeySet(), is(sameInstance(transformingTable.columnKeySet())));
+        assertThat(transformingTable.values(), is(sameInstance(transformingTable.values())));
+        assertThat(transformingTable.rowMap(), is(sameInstance(transformingTable.rowMap())));
+        assertThat(transformingTable.columnMap(), is(sameInstance(transformingTable.columnMap())));
+    }
+
+    @Test
+    public void recent_row_and_column_views_are_reused_and_stay_live() {
+        Table<String, String, String> backingTable = HashBasedTable.create();
+        Table<Float, Long, Integer> table = TransformingTable.create(
+                backingTable,
+                TO_ROW_FUNCTION, FROM_ROW_FUNCTION,
+                TO_COLUMN_FUNCTION, FROM_COLUMN_FUNCTION,
+                TO_VALUE_FUNCTION, FROM_VALUE_FUNCTION
+        );
+        Map<Long, Integer> row = table.row(ROW_KEY_1);
+        Map<Float, Integer> column = table.column(COLUMN_KEY_1);
+
+        backingTable.put(STRING_ROW_KEY_1, STRING_COLUMN_KEY_1, STRING_VALUE_1);
+        backingTable.remove(STRING_ROW_KEY_1, STRING_COLUMN_KEY_1);
+        backingTable.put(STRING_ROW_KEY_1, STRING_COLUMN_KEY_1, STRING_VALUE_1);
+
+        assertThat(table.row(ROW_KEY_1), is(sameInstance(row)));
+        assertThat(table.column(COLUMN_KEY_1), is(sameInstance(column)));
+        assertThat(row.get(COLUMN_KEY_1), is(equalTo(VALUE_1)));
+        assertThat(column.get(ROW_KEY_1), is(equalTo(VALUE_1)));
+    }
 }
@@ -0,0 +1,405 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.transforming;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import com.google.common.collect.TreeBasedTable;
+import com.yammer.collections.backing.ValueIndexedMap;
+import com.yammer.collections.backing.ValueIndexedTable;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class TransformingViewsTest {
+    private static final Function<Integer, String> TO_FUNCTION = new Function<Integer, String>() {
+        @Override
+        public String apply(Integer input) {
+            return input.toString();
+        }
+    };
+    private static final Function<String, Integer> FROM_FUNCTION = new Function<String, Integer>() {
+        @Override
+        public Integer apply(String input) {
+            return Integer.parseInt(input);
+        }
+    };
+    private static final Function<Integer, String> TO_PADDED_FUNCTION = new Function<Integer, String>() {
+        @Override
+        public String apply(Integer input) {
+            return String.format("%04d", input);
+        }
+    };
+    private static final Function<String, Integer> FROM_PADDED_FUNCTION = new Function<String, Integer>() {
+        @Override
+        public Integer apply(String input) {
+            return Integer.parseInt(input);
+        }
+    };
+    private static final Predicate<Integer> EVEN = new Predicate<Integer>() {
+        @Override
+        public boolean apply(Integer input) {
+            return input % 2 == 0;
+        }
+    };
+    private static final Predicate<String> LONGER_THAN_TWO = new Predicate<String>() {
+        @Override
+        public boolean apply(String input) {
+            return input.length() > 2;
+        }
+    };
+
+    @Test
+    public void snapshot_of_transforming_set() {
+        Set<Integer> transformingSet = TransformingSet.create(
+                Sets.newHashSet("1", "2", "3"), TO_FUNCTION, FROM_FUNCTION
+        );
+
+        assertThat(TransformingViews.snapshot(transformingSet), is(equalTo(ImmutableSet.of(1, 2, 3))));
+    }
+
+    @Test
+    public void snapshot_of_large_transforming_set_is_complete() {
+        Set<String> backingSet = Sets.newHashSet();
+        ImmutableSet.Builder<Integer> expected = ImmutableSet.builder();
+        for (int i = 0; i < ParallelTransform.SLICE_SIZE * 5 + 7; i++) {
+            backingSet.add(TO_FUNCTION.apply(i));
+            expected.add(i);
+        }
+
+        ImmutableSet<Integer> snapshot = TransformingViews.snapshot(
+                TransformingSet.create(backingSet, TO_FUNCTION, FROM_FUNCTION)
+        );
+
+        assertThat(snapshot, is(equalTo(expected.build())));
+    }
+
+    @Test
+    public void snapshot_of_other_set_copies() {
+        assertThat(TransformingViews.snapshot(Sets.newHashSet(1, 2)), is(equalTo(ImmutableSet.of(1, 2))));
+    }
+
+    @Test
+    public void snapshot_of_transforming_map() {
+        Map<String, String> backingMap = Maps.newHashMap();
+        backingMap.put("1", "11");
+        backingMap.put("2", "22");
+        Map<Integer, Integer> transformingMap = TransformingMap.create(
+                backingMap, TO_FUNCTION, FROM_FUNCTION, TO_FUNCTION, FROM_FUNCTION
+        );
+
+        assertThat(TransformingViews.snapshot(transformingMap), is(equalTo(ImmutableMap.of(1, 11, 2, 22))));
+    }
+
+    @Test
+    public void snapshot_of_other_map_copies() {
+        assertThat(
+                TransformingViews.snapshot((Map<Integer, Integer>) Maps.newHashMap(ImmutableMap.of(1, 2))),
+                is(equalTo(ImmutableMap.of(1, 2)))
+        );
+    }
+
+    @Test
+    public void snapshot_of_transforming_table() {
+        Table<String, String, String> backingTable = HashBasedTable.create();
+        backingTable.put("1", "2", "3");
+        backingTable.put("4", "5", "6");
+        Table<Integer, Integer, Integer> transformingTable = TransformingTable.create(
+                backingTable,
+                TO_FUNCTION, FROM_FUNCTION,
+                TO_FUNCTION, FROM_FUNCTION,
+                TO_FUNCTION, FROM_FUNCTION
+        );
+
+        assertThat(
+                TransformingViews.snapshot(transformingTable),
+                is(equalTo(ImmutableTable.<Integer, Integer, Integer>builder().put(1, 2, 3).put(4, 5, 6).build()))
+        );
+    }
+
+    @Test
+    public void filterEncoded_transforms_only_matching_elements() {
+        final AtomicInteger transformations = new AtomicInteger();
+        Function<String, Integer> countingFromFunction = new Function<String, Integer>() {
+            @Override
+            public Integer apply(String input) {
+                transformations.incrementAndGet();
+                return FROM_FUNCTION.apply(input);
+            }
+        };
+        Set<Integer> transformingSet = TransformingSet.create(
+                Sets.newHashSet("1", "20", "300", "4000"), TO_FUNCTION, countingFromFunction
+        );
+
+        Set<Integer> filtered = TransformingViews.filterEncoded(transformingSet, LONGER_THAN_TWO);
+
+        assertThat(ImmutableSet.copyOf(filtered), is(equalTo(ImmutableSet.of(300, 4000))));
+        assertThat(transformations.get(), is(equalTo(2)));
+    }
+
+    @Test
+    public void filterEncoded_is_live_view() {
+        Set<String> backingSet = Sets.newHashSet("1", "300");
+        Set<Integer> filtered = TransformingViews.filterEncoded(
+                TransformingSet.create(backingSet, TO_FUNCTION, FROM_FUNCTION), LONGER_THAN_TWO
+        );
+
+        filtered.clear();
+
+        assertThat(backingSet, is(equalTo((Set<String>) ImmutableSet.of("1"))));
+    }
+
+    @Test
+    public void filterEncoded_of_transforming_collection() {
+        Collection<Integer> transformingCollection = TransformingCollection.create(
+                Lists.newArrayList("1", "300", "300"), TO_FUNCTION, FROM_FUNCTION
+        );
+
+        assertThat(
+                ImmutableList.copyOf(TransformingViews.filterEncoded(transformingCollection, LONGER_THAN_TWO)),
+                is(equalTo(ImmutableList.of(300, 300)))
+        );
+    }
+
+    @Test
+    public void filterEncoded_of_other_collection_filters_elements() {
+        assertThat(
+                ImmutableSet.copyOf(TransformingViews.filterEncoded(Sets.newHashSet("1", "300"), LONGER_THAN_TWO)),
+                is(equalTo(ImmutableSet.of("300")))
+        );
+    }
+
+    @Test
+    public void filterKeys_pushes_range_down_to_sorted_backing() {
+        CountingFunction<String, Integer> fromKeyFunction = new CountingFunction<String, Integer>(FROM_PADDED_FUNCTION);
+        Map<Integer, Integer> transformingMap = TransformingMap.create(
+                paddedTreeMap(1, 2, 3, 4, 5), TO_PADDED_FUNCTION, fromKeyFunction, TO_FUNCTION, FROM_FUNCTION
+        );
+
+        Map<Integer, Integer> filtered = TransformingViews.filterKeys(
+                transformingMap,
+                KeyQuery.<Integer, String>matching(Predicates.alwaysTrue())
+                        .withEncodedRange("0002", BoundType.CLOSED, "0004", BoundType.OPEN)
+        );
+
+        assertThat(filtered.size(), is(equalTo(2)));
+        assertThat(fromKeyFunction.invocations, is(equalTo(0)));
+        assertThat(filtered, is(equalTo((Map<Integer, Integer>) ImmutableMap.of(2, 2, 3, 3))));
+    }
+
+    @Test
+    public void filterKeys_applies_all_conditions() {
+        Map<Integer, Integer> transformingMap = TransformingMap.create(
+                Maps.newHashMap(paddedTreeMap(1, 2, 3, 4, 5, 6)),
+                TO_PADDED_FUNCTION, FROM_PADDED_FUNCTION, TO_FUNCTION, FROM_FUNCTION
+        );
+
+        Map<Integer, Integer> filtered = TransformingViews.filterKeys(
+                transformingMap,
+                KeyQuery.<Integer, String>matching(EVEN)
+                        .withEncodedRange("0002", BoundType.OPEN, null, null)
+                        .withEncodedPredicate(Predicates.not(Predicates.equalTo("0006")))
+        );
+
+        assertThat(filtered, is(equalTo((Map<Integer, Integer>) ImmutableMap.of(4, 4))));
+    }
+
+    @Test
+    public void removeIf_removes_range_without_transforming_keys() {
+        CountingFunction<String, Integer> fromKeyFunction = new CountingFunction<String, Integer>(FROM_PADDED_FUNCTION);
+        Map<String, String> backingMap = paddedTreeMap(1, 2, 3, 4, 5);
+        Map<Integer, Integer> transformingMap = TransformingMap.create(
+                backingMap, TO_PADDED_FUNCTION, fromKeyFunction, TO_FUNCTION, FROM_FUNCTION
+        );
+
+        boolean removed = TransformingViews.removeIf(
+                transformingMap,
+                KeyQuery.<Integer, String>matching(Predicates.alwaysTrue())
+                        .withEncodedRange(null, null, "0003", BoundType.CLOSED)
+        );
+
+        assertThat(removed, is(equalTo(true)));
+        assertThat(backingMap, is(equalTo((Map<String, String>) paddedTreeMap(4, 5))));
+        assertThat(fromKeyFunction.invocations, is(equalTo(0)));
+    }
+
+    @Test
+    public void retainIf_keeps_only_matching_keys() {
+        Map<String, String> backingMap = paddedTreeMap(1, 2, 3, 4, 5, 6);
+        Map<Integer, Integer> transformingMap = TransformingMap.create(
+                backingMap, TO_PADDED_FUNCTION, FROM_PADDED_FUNCTION, TO_FUNCTION, FROM_FUNCTION
+        );
+
+        boolean removed = TransformingViews.retainIf(
+                transformingMap,
+                KeyQuery.<Integer, String>matching(EVEN).withEncodedRange("0002", BoundType.CLOSED, "0005", BoundType.CLOSED)
+        );
+
+        assertThat(removed, is(equalTo(true)));
+        assertThat(backingMap, is(equalTo((Map<String, String>) paddedTreeMap(2, 4))));
+    }
+
+    @Test
+    public void retainIf_on_other_map() {
+        Map<String, Integer> map = Maps.newHashMap(ImmutableMap.of("a", 1, "b", 2, "c", 3));
+
+        TransformingViews.retainIf(
+                map,
+                KeyQuery.<String, String>matching(Predicates.not(Predicates.equalTo("b")))
+                        .withEncodedRange("b", BoundType.CLOSED, null, null)
+        );
+
+        assertThat(map, is(equalTo((Map<String, Integer>) ImmutableMap.of("c", 3))));
+    }
+
+    @Test
+    public void filterRows_and_removeRowsIf_push_range_down_to_sorted_backing() {
+        Table<String, String, String> backingTable = TreeBasedTable.create();
+        for (int i = 1; i <= 5; i++) {
+            backingTable.put(TO_PADDED_FUNCTION.apply(i), "1", "1");
+            backingTable.put(TO_PADDED_FUNCTION.apply(i), "2", "2");
+        }
+        Table<Integer, Integer, Integer> transformingTable = TransformingTable.create(
+                backingTable,
+                TO_PADDED_FUNCTION, FROM_PADDED_FUNCTION,
+                TO_FUNCTION, FROM_FUNCTION,
+                TO_FUNCTION, FROM_FUNCTION
+        );
+        KeyQuery<Integer, String> query = KeyQuery.<Integer, String>matching(Predicates.alwaysTrue())
+                .withEncodedRange("0004", BoundType.CLOSED, null, null);
+
+        assertThat(TransformingViews.filterRows(transformingTable, query).keySet(), containsInAnyOrder(4, 5));
+        assertThat(TransformingViews.removeRowsIf(transformingTable, query), is(equalTo(true)));
+        assertThat(transformingTable.rowKeySet(), containsInAnyOrder(1, 2, 3));
+    }
+
+    @Test
+    public void retainRowsIf_keeps_only_matching_rows() {
+        Table<String, String, String> backingTable = HashBasedTable.create();
+        for (int i = 1; i <= 4; i++) {
+            backingTable.put(TO_PADDED_FUNCTION.apply(i), "1", "1");
+        }
+        Table<Integer, Integer, Integer> transformingTable = TransformingTable.create(
+                backingTable,
+                TO_PADDED_FUNCTION, FROM_PADDED_FUNCTION,
+                TO_FUNCTION, FROM_FUNCTION,
+                TO_FUNCTION, FROM_FUNCTION
+        );
+
+        TransformingViews.retainRowsIf(transformingTable, KeyQuery.<Integer, String>matching(EVEN));
+
+        assertThat(transformingTable.rowKeySet(), containsInAnyOrder(2, 4));
+    }
+
+    @Test
+    public void keysForValue_uses_value_index_of_backing_map() {
+        ValueIndexedMap<String, String> backingMap = ValueIndexedMap.create(Maps.<String, String>newHashMap());
+        Map<Integer, Integer> transformingMap = TransformingMap.create(
+                backingMap, TO_FUNCTION, FROM_FUNCTION, TO_FUNCTION, FROM_FUNCTION
+        );
+        transformingMap.put(1, 10);
+        transformingMap.put(2, 20);
+        transformingMap.put(3, 10);
+
+        assertThat(TransformingViews.keysForValue(transformingMap, 10), containsInAnyOrder(1, 3));
+        assertThat(TransformingViews.keysForValue(transformingMap, 30).isEmpty(), is(equalTo(true)));
+        assertThat(TransformingViews.keysForValue(transformingMap, "10").isEmpty(), is(equalTo(true)));
+        assertThat(transformingMap.containsValue(20), is(equalTo(true)));
+    }
+
+    @Test
+    public void keysForValue_scans_other_maps() {
+        Map<Integer, Integer> transformingMap = TransformingMap.create(
+                Maps.newHashMap(ImmutableMap.of("1", "10", "2", "20", "3", "10")),
+                TO_FUNCTION, FROM_FUNCTION, TO_FUNCTION, FROM_FUNCTION
+        );
+
+        assertThat(TransformingViews.keysForValue(transformingMap, 10), containsInAnyOrder(1, 3));
+    }
+
+    @Test
+    public void cellsForValue_uses_value_index_of_backing_table() {
+        ValueIndexedTable<String, String, String> backingTable =
+                ValueIndexedTable.create(HashBasedTable.<String, String, String>create());
+        Table<Integer, Integer, Integer> transformingTable = TransformingTable.create(
+                backingTable,
+                TO_FUNCTION, FROM_FUNCTION,
+                TO_FUNCTION, FROM_FUNCTION,
+                TO_FUNCTION, FROM_FUNCTION
+        );
+        transformingTable.put(1, 1, 10);
+        transformingTable.put(1, 2, 20);
+        transformingTable.put(2, 1, 10);
+
+        assertThat(
+                TransformingViews.cellsForValue(transformingTable, 10),
+                containsInAnyOrder(Tables.immutableCell(1, 1, 10), Tables.immutableCell(2, 1, 10))
+        );
+        assertThat(transformingTable.containsValue(20), is(equalTo(true)));
+    }
+
+    @Test
+    public void cellsForValue_scans_other_tables() {
+        Table<Integer, Integer, Integer> table = HashBasedTable.create();
+        table.put(1, 1, 10);
+        table.put(1, 2, 20);
+
+        assertThat(TransformingViews.cellsForValue(table, 20), containsInAnyOrder(Tables.immutableCell(1, 2, 20)));
+    }
+
+    private static Map<String, String> paddedTreeMap(int... keys) {
+        Map<String, String> map = Maps.newTreeMap();
+        for (int key : keys) {
+            map.put(TO_PADDED_FUNCTION.apply(key), TO_FUNCTION.apply(key));
+        }
+        return map;
+    }
+
+    private static final class CountingFunction<F, T> implements Function<F, T> {
+        private final Function<F, T> delegate;
+        private int invocations;
+
+        private CountingFunction(Function<F, T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public T apply(F input) {
+            invocations++;
+            return delegate.apply(input);
+        }
+    }
+}